@@ -0,0 +1,64 @@
+package com.example.tdgameserver.datasource;
+
+import com.example.tdgameserver.network.GameServerProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据源配置
+ * 主库取spring.datasource，从库取game.server.datasource.replicas，各自一个连接池，
+ * 连接池指标(hikaricp.*)按池名primary、replica-1、replica-2...区分
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    public RoutingDataSource dataSource(DataSourceProperties dataSourceProperties, GameServerProperties properties,
+                                        MeterRegistry meterRegistry) {
+        GameServerProperties.Datasource config = properties.getDatasource();
+        MetricsTrackerFactory metrics = new MicrometerMetricsTrackerFactory(meterRegistry);
+
+        HikariDataSource primary = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        primary.setPoolName("primary");
+        primary.setMaximumPoolSize(config.getPrimaryPoolSize());
+        primary.setMetricsTrackerFactory(metrics);
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (GameServerProperties.Replica replicaConfig : config.getReplicas()) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + (replicas.size() + 1));
+            replica.setJdbcUrl(replicaConfig.getUrl());
+            replica.setUsername(replicaConfig.getUsername());
+            replica.setPassword(replicaConfig.getPassword());
+            replica.setMaximumPoolSize(replicaConfig.getPoolSize());
+            replica.setReadOnly(true);
+            replica.setMetricsTrackerFactory(metrics);
+            replicas.add(replica);
+        }
+        return new RoutingDataSource(primary, replicas, config.getMaxLagMillis(), config.getHeartbeatIntervalMillis(),
+                nodeName(properties.getPort()), meterRegistry);
+    }
+
+    /**
+     * 心跳表中的节点名：主机名:游戏端口
+     */
+    private static String nodeName(int port) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + ":" + port;
+    }
+}
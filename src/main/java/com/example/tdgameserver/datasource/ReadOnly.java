@@ -0,0 +1,18 @@
+package com.example.tdgameserver.datasource;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注在Mapper方法上，表示该查询可以走只读从库
+ * 只在事务外生效，事务内的查询和所有写语句都走主库。只用于能容忍复制延迟(不超过game.server.datasource.max-lag-millis)的查询，
+ * 需要读到自己刚写入的数据时用ReplicaRouting.readAfter或onPrimary包住调用
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadOnly {
+}
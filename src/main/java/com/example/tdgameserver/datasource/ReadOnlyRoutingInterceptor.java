@@ -0,0 +1,74 @@
+package com.example.tdgameserver.datasource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MyBatis插件：事务外执行@ReadOnly标注的Mapper查询时把当前线程标记为可读从库
+ * MyBatis-Spring在执行语句时才从数据源取连接，标记在取连接之前设置，由RoutingDataSource据此路由。
+ * 事务的连接在事务开始时已从主库取得，事务内的查询不受影响
+ */
+@Slf4j
+@Component
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+})
+public class ReadOnlyRoutingInterceptor implements Interceptor {
+    //语句Id -> 对应的Mapper方法是否标注了@ReadOnly
+    private final ConcurrentHashMap<String, Boolean> readOnlyStatements = new ConcurrentHashMap<>();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                || !readOnlyStatements.computeIfAbsent(statement.getId(), ReadOnlyRoutingInterceptor::isReadOnly)) {
+            return invocation.proceed();
+        }
+        boolean previous = ReplicaRouting.enterReadOnly();
+        try {
+            return invocation.proceed();
+        } finally {
+            ReplicaRouting.exitReadOnly(previous);
+        }
+    }
+
+    /**
+     * 语句Id为Mapper接口全名.方法名，Mapper方法不允许重载
+     */
+    private static boolean isReadOnly(String statementId) {
+        int dot = statementId.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        try {
+            Class<?> mapper = Class.forName(statementId.substring(0, dot), false,
+                    ReadOnlyRoutingInterceptor.class.getClassLoader());
+            String name = statementId.substring(dot + 1);
+            for (Method method : mapper.getMethods()) {
+                if (method.getName().equals(name)) {
+                    return method.isAnnotationPresent(ReadOnly.class);
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            log.debug("语句 {} 没有对应的Mapper接口，按主库处理", statementId);
+        }
+        return false;
+    }
+}
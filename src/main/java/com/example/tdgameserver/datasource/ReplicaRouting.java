@@ -0,0 +1,72 @@
+package com.example.tdgameserver.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * 当前线程的读库路由
+ * ReadOnlyRoutingInterceptor执行@ReadOnly查询时把当前线程标记为可读从库，RoutingDataSource取连接时据此选择目标。
+ * 调用方可以要求从库已复制到某个时刻之后(读到自己在该时刻之前提交的写入)，或者强制走主库
+ */
+public final class ReplicaRouting {
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private ReplicaRouting() {
+    }
+
+    /**
+     * 在主库上执行，期间的@ReadOnly查询也不走从库
+     */
+    public static <T> T onPrimary(Supplier<T> action) {
+        State state = STATE.get();
+        state.primaryDepth++;
+        try {
+            return action.get();
+        } finally {
+            state.primaryDepth--;
+        }
+    }
+
+    /**
+     * 期间的@ReadOnly查询只走已复制到writtenAtMillis之后的从库，没有这样的从库时走主库
+     * @param writtenAtMillis 需要读到的写入的提交时间(本节点时钟)，0表示没有要求
+     */
+    public static <T> T readAfter(long writtenAtMillis, Supplier<T> action) {
+        State state = STATE.get();
+        long previous = state.writtenAfter;
+        state.writtenAfter = Math.max(previous, writtenAtMillis);
+        try {
+            return action.get();
+        } finally {
+            state.writtenAfter = previous;
+        }
+    }
+
+    /**
+     * 把当前线程标记为正在执行@ReadOnly查询
+     * @return 之前的标记，查询结束后传给exitReadOnly恢复
+     */
+    static boolean enterReadOnly() {
+        State state = STATE.get();
+        boolean previous = state.readOnly;
+        state.readOnly = true;
+        return previous;
+    }
+
+    static void exitReadOnly(boolean previous) {
+        STATE.get().readOnly = previous;
+    }
+
+    /**
+     * @return 当前查询可以走从库时返回需要的最小复制时刻(0表示没有要求)，否则返回-1
+     */
+    static long replicaRequirement() {
+        State state = STATE.get();
+        return state.readOnly && state.primaryDepth == 0 ? state.writtenAfter : -1;
+    }
+
+    private static final class State {
+        private boolean readOnly;
+        private int primaryDepth;
+        private long writtenAfter;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.tdgameserver.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离数据源
+ * 默认所有连接都取自主库；当前线程正在执行@ReadOnly查询时，在复制延迟不超过上限、且已复制到调用方要求时刻的从库中轮询选择一个，
+ * 没有可用从库时回到主库。
+ * 从库延迟用复制心跳测量：本节点定时在主库的replication_heartbeat表写入当前时间，再从各从库读回，
+ * 读到的时间即该从库已经追上的时刻，这个时刻之前在主库提交的写入在从库上都可见。读取失败的从库暂停使用直到恢复
+ */
+@Slf4j
+public class RoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+    private static final String PRIMARY = "primary";
+    private static final String WRITE_HEARTBEAT = "INSERT INTO replication_heartbeat (node, beat_millis) VALUES (?, ?) "
+            + "ON DUPLICATE KEY UPDATE beat_millis = VALUES(beat_millis)";
+    private static final String READ_HEARTBEAT = "SELECT beat_millis FROM replication_heartbeat WHERE node = ?";
+
+    private final HikariDataSource primary;
+    private final Replica[] replicas;
+    private final long maxLagMillis;
+    private final long heartbeatIntervalMillis;
+    private final String node;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter primaryReads;
+    private ScheduledExecutorService heartbeat;
+    //心跳写入已在失败，恢复前不重复记录
+    private boolean heartbeatFailing;
+
+    /**
+     * @param primary 主库连接池
+     * @param replicas 从库连接池，池名用作指标和日志中的从库名
+     * @param node 本节点在心跳表中的名称，各节点不能相同
+     */
+    public RoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, long maxLagMillis,
+                             long heartbeatIntervalMillis, String node, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        this.maxLagMillis = maxLagMillis;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.node = node;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < this.replicas.length; i++) {
+            Replica replica = new Replica(replicas.get(i), meterRegistry);
+            this.replicas[i] = replica;
+            targets.put(replica.name, replica.dataSource);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        primaryReads = Counter.builder("game.datasource.reads").tag("target", PRIMARY)
+                .description("@ReadOnly查询的路由次数").register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        if (replicas.length == 0) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "game-replica-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::beat, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        log.info("读写分离已开启，从库数: {}，最大复制延迟: {}ms，心跳节点: {}", replicas.length, maxLagMillis, node);
+    }
+
+    @Override
+    public void close() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+        primary.close();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        long writtenAfter = ReplicaRouting.replicaRequirement();
+        if (writtenAfter < 0) {
+            return PRIMARY;
+        }
+        if (replicas.length > 0) {
+            long oldest = Math.max(System.currentTimeMillis() - maxLagMillis, writtenAfter + 1);
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            for (int i = 0; i < replicas.length; i++) {
+                Replica replica = replicas[(start + i) % replicas.length];
+                if (replica.healthy && replica.replicatedUpTo >= oldest) {
+                    replica.reads.increment();
+                    return replica.name;
+                }
+            }
+        }
+        primaryReads.increment();
+        return PRIMARY;
+    }
+
+    /**
+     * 在主库写入心跳，再从各从库读回已复制到的时刻
+     */
+    void beat() {
+        try (Connection connection = primary.getConnection();
+             PreparedStatement statement = connection.prepareStatement(WRITE_HEARTBEAT)) {
+            statement.setString(1, node);
+            statement.setLong(2, System.currentTimeMillis());
+            statement.executeUpdate();
+            heartbeatFailing = false;
+        } catch (SQLException | RuntimeException e) {
+            // 主库写不进心跳时从库的时刻不再前进，延迟超过上限后自动回到主库
+            if (!heartbeatFailing) {
+                heartbeatFailing = true;
+                log.warn("写入复制心跳失败，从库将在延迟超过上限后停用: {}", e.getMessage());
+            }
+        }
+        for (Replica replica : replicas) {
+            replica.poll(node);
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final HikariDataSource dataSource;
+        private final Counter reads;
+        private volatile boolean healthy;
+        //已记录过不可用，恢复前不重复记录
+        private boolean reported;
+        //从库上读到的本节点最新心跳，即已复制到的时刻
+        private volatile long replicatedUpTo;
+
+        Replica(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+            this.name = dataSource.getPoolName();
+            this.dataSource = dataSource;
+            this.reads = Counter.builder("game.datasource.reads").tag("target", name)
+                    .description("@ReadOnly查询的路由次数").register(meterRegistry);
+            Gauge.builder("game.datasource.replica.lag", this,
+                            r -> r.healthy && r.replicatedUpTo > 0 ? System.currentTimeMillis() - r.replicatedUpTo : Double.NaN)
+                    .tag("replica", name)
+                    .description("从库复制延迟(毫秒)，包含最多一个心跳间隔的测量误差")
+                    .register(meterRegistry);
+        }
+
+        void poll(String node) {
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(READ_HEARTBEAT)) {
+                statement.setString(1, node);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        replicatedUpTo = resultSet.getLong(1);
+                    }
+                }
+                if (!healthy) {
+                    healthy = true;
+                    reported = false;
+                    log.info("从库 {} 可用", name);
+                }
+            } catch (SQLException | RuntimeException e) {
+                healthy = false;
+                if (!reported) {
+                    reported = true;
+                    log.warn("从库 {} 读取复制心跳失败，暂停使用: {}", name, e.getMessage());
+                }
+            }
+        }
+    }
+}
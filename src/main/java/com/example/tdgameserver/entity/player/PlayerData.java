@@ -0,0 +1,435 @@
+package com.example.tdgameserver.entity.player;
+
+import com.example.tdgameserver.entity.backpack.PlayerItem;
+import com.example.tdgameserver.entity.operator.PlayerOperator;
+import com.example.tdgameserver.entity.stage.PlayerStage;
+import com.example.tdgameserver.util.IntIntHashMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * 玩家数据聚合
+ * 登录时一次性加载玩家、干员、道具和关卡记录，之后的读写都在内存中进行，修改过的行记为脏行，
+ * 由PlayerDataService定时批量写回数据库。道具记录的是数量变化，写回时累加到数据库，
+ * 不会覆盖其他节点(网关模式下)对该玩家的批量发放。
+ * 行对象写时复制：修改时先复制一份再替换，聚合里的行对象放进来之后不再改动，
+ * 因此读方法返回的列表和写回时取出的脏行可以直接引用这些对象。所有方法都在对象锁内执行。
+ * 玩家离线后聚合被释放，之后的修改抛出ReleasedException，不会写进没人写回的聚合，修改通过PlayerDataService.update进行
+ */
+public class PlayerData {
+    private final int playerId;
+    private final Player player;
+    //干员Id -> 干员
+    private final Map<Integer, PlayerOperator> operators = new LinkedHashMap<>();
+    //道具Id -> 数量，不装箱，只保存数量大于0的道具
+    private final IntIntHashMap items;
+    //道具Id -> player_item行的id(INT列)，返回给客户端的道具行带上；新增的道具在写回后补上
+    private final IntIntHashMap itemRowIds;
+    //关卡Id -> 通关记录，按关卡Id排序
+    private final TreeMap<Integer, PlayerStage> stages = new TreeMap<>();
+
+    //待写回的行
+    private final Set<Integer> dirtyOperators = new HashSet<>();
+    private final Set<Integer> dirtyStages = new HashSet<>();
+    //道具Id -> 上次写回以来的数量变化，数量变为0的道具写回时删除
+    private final IntIntHashMap itemChanges = new IntIntHashMap();
+    //已从内存中释放，不再接受修改
+    private boolean released;
+
+    public PlayerData(Player player, List<PlayerOperator> operators, List<PlayerItem> items, List<PlayerStage> stages) {
+        this.playerId = player.getId();
+        this.player = player;
+        for (PlayerOperator operator : operators) {
+            this.operators.put(operator.getOperatorId(), operator);
+        }
+        this.items = new IntIntHashMap(items.size());
+        this.itemRowIds = new IntIntHashMap(items.size());
+        for (PlayerItem item : items) {
+            if (item.getQuantity() != null && item.getQuantity() > 0) {
+                this.items.put(item.getItemId(), item.getQuantity());
+                if (item.getId() != null) {
+                    this.itemRowIds.put(item.getItemId(), item.getId().intValue());
+                }
+            }
+        }
+        for (PlayerStage stage : stages) {
+            this.stages.put(stage.getStageId(), stage);
+        }
+    }
+
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    // ==================== 干员 ====================
+
+    public synchronized List<PlayerOperator> getOperators() {
+        return new ArrayList<>(operators.values());
+    }
+
+    public synchronized PlayerOperator getOperator(int operatorId) {
+        return operators.get(operatorId);
+    }
+
+    /**
+     * 添加干员
+     * @return 已拥有该干员时返回false
+     */
+    public synchronized boolean addOperator(PlayerOperator operator) {
+        checkNotReleased();
+        if (operators.containsKey(operator.getOperatorId())) {
+            return false;
+        }
+        operators.put(operator.getOperatorId(), operator);
+        dirtyOperators.add(operator.getOperatorId());
+        return true;
+    }
+
+    /**
+     * 修改干员：change在副本上检查并修改，返回true时用副本替换原来的行
+     * @return 未拥有该干员或change返回false时返回false
+     */
+    public synchronized boolean updateOperator(int operatorId, Predicate<PlayerOperator> change) {
+        checkNotReleased();
+        PlayerOperator current = operators.get(operatorId);
+        if (current == null) {
+            return false;
+        }
+        PlayerOperator updated = copyOf(current);
+        if (!change.test(updated)) {
+            return false;
+        }
+        updated.setUpdateTime((int) (System.currentTimeMillis() / 1000));
+        operators.put(operatorId, updated);
+        dirtyOperators.add(operatorId);
+        return true;
+    }
+
+    // ==================== 道具 ====================
+
+    public synchronized List<PlayerItem> getItems() {
+        List<PlayerItem> result = new ArrayList<>(items.size());
+        items.forEach((itemId, quantity) -> result.add(item(itemId, quantity)));
+        return result;
+    }
+
+    /**
+     * 只为filter接受的道具Id生成响应行
+     */
+    public synchronized List<PlayerItem> getItems(IntPredicate filter) {
+        List<PlayerItem> result = new ArrayList<>();
+        items.forEach((itemId, quantity) -> {
+            if (filter.test(itemId)) {
+                result.add(item(itemId, quantity));
+            }
+        });
+        return result;
+    }
+
+    public synchronized int getItemQuantity(int itemId) {
+        return items.get(itemId, 0);
+    }
+
+    /**
+     * 增加道具
+     * @return 数量非法或超出上限时返回false
+     */
+    public synchronized boolean addItem(int itemId, int quantity) {
+        checkNotReleased();
+        if (quantity <= 0) {
+            return false;
+        }
+        long total = (long) items.get(itemId, 0) + quantity;
+        if (total > Integer.MAX_VALUE) {
+            return false;
+        }
+        items.put(itemId, (int) total);
+        changeItem(itemId, quantity);
+        return true;
+    }
+
+    /**
+     * 扣除道具
+     * @return 数量不足时返回false，不做任何修改
+     */
+    public synchronized boolean useItem(int itemId, int quantity) {
+        checkNotReleased();
+        int current = items.get(itemId, 0);
+        if (quantity <= 0 || current < quantity) {
+            return false;
+        }
+        if (current == quantity) {
+            items.remove(itemId);
+        } else {
+            items.put(itemId, current - quantity);
+        }
+        changeItem(itemId, -quantity);
+        return true;
+    }
+
+    /**
+     * 一次扣除多种道具：先检查全部足够再全部扣除，不会只扣一部分
+     * @param amounts 道具Id -> 扣除数量，数量都大于0
+     * @return 扣除后这些道具的剩余数量(扣完为0)，有任一道具不足时返回null，不做任何修改
+     */
+    public synchronized List<PlayerItem> consumeItems(IntIntHashMap amounts) {
+        checkNotReleased();
+        if (!amounts.allMatch((itemId, quantity) -> items.get(itemId, 0) >= quantity)) {
+            return null;
+        }
+        List<PlayerItem> result = new ArrayList<>(amounts.size());
+        amounts.forEach((itemId, quantity) -> {
+            int remaining = items.get(itemId, 0) - quantity;
+            if (remaining == 0) {
+                items.remove(itemId);
+            } else {
+                items.put(itemId, remaining);
+            }
+            changeItem(itemId, -quantity);
+            result.add(item(itemId, remaining));
+        });
+        return result;
+    }
+
+    /**
+     * 一次增加多种道具：先检查全部不超上限再全部增加
+     * @param amounts 道具Id -> 增加数量，数量都大于0
+     * @return 增加后这些道具的数量，有任一道具超出上限时返回null，不做任何修改
+     */
+    public synchronized List<PlayerItem> grantItems(IntIntHashMap amounts) {
+        checkNotReleased();
+        if (!amounts.allMatch((itemId, quantity) -> (long) items.get(itemId, 0) + quantity <= Integer.MAX_VALUE)) {
+            return null;
+        }
+        List<PlayerItem> result = new ArrayList<>(amounts.size());
+        amounts.forEach((itemId, quantity) -> {
+            int total = items.get(itemId, 0) + quantity;
+            items.put(itemId, total);
+            changeItem(itemId, quantity);
+            result.add(item(itemId, total));
+        });
+        return result;
+    }
+
+    // ==================== 关卡 ====================
+
+    public synchronized List<PlayerStage> getStages() {
+        return new ArrayList<>(stages.values());
+    }
+
+    public synchronized PlayerStage getStage(int stageId) {
+        return stages.get(stageId);
+    }
+
+    /**
+     * 保存通关记录：change在副本(没有记录时为只填了玩家和关卡Id的新记录)上检查并修改，返回true时写入
+     * @return change返回false时返回false
+     */
+    public synchronized boolean updateStage(int stageId, Predicate<PlayerStage> change) {
+        checkNotReleased();
+        PlayerStage current = stages.get(stageId);
+        PlayerStage updated;
+        if (current != null) {
+            updated = copyOf(current);
+        } else {
+            updated = new PlayerStage();
+            updated.setPlayerId(playerId);
+            updated.setStageId(stageId);
+        }
+        if (!change.test(updated)) {
+            return false;
+        }
+        stages.put(stageId, updated);
+        dirtyStages.add(stageId);
+        return true;
+    }
+
+    // ==================== 写回 ====================
+
+    public synchronized boolean isDirty() {
+        return !dirtyOperators.isEmpty() || !itemChanges.isEmpty() || !dirtyStages.isEmpty();
+    }
+
+    /**
+     * 没有未写回的修改时标记为已释放，之后的修改都抛出ReleasedException
+     * @return 有未写回的修改时返回false，不做标记
+     */
+    public synchronized boolean markReleased() {
+        if (isDirty()) {
+            return false;
+        }
+        released = true;
+        return true;
+    }
+
+    /**
+     * 取出所有脏行并清除脏标记，写回失败时调用restoreDirty重新标记
+     */
+    public synchronized DirtyRows takeDirty() {
+        DirtyRows rows = new DirtyRows();
+        for (Integer operatorId : dirtyOperators) {
+            rows.operators.add(operators.get(operatorId));
+        }
+        itemChanges.forEach((itemId, change) -> {
+            if (change != 0) {
+                rows.items.add(item(itemId, change));
+            }
+            if (!items.containsKey(itemId)) {
+                // 写回时删除该行，之后再获得时是新的一行
+                rows.removedItems.add(itemId);
+                itemRowIds.remove(itemId);
+            }
+        });
+        for (Integer stageId : dirtyStages) {
+            rows.stages.add(stages.get(stageId));
+        }
+        dirtyOperators.clear();
+        itemChanges.clear();
+        dirtyStages.clear();
+        return rows;
+    }
+
+    /**
+     * 还不知道行id的道具(新增后尚未查询过)
+     */
+    public synchronized List<Integer> getItemsWithoutRowId() {
+        List<Integer> result = new ArrayList<>();
+        items.forEach((itemId, quantity) -> {
+            if (!itemRowIds.containsKey(itemId)) {
+                result.add(itemId);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 写回后补上新增道具的行id，已不再持有的道具忽略
+     */
+    public synchronized void setItemRowIds(List<PlayerItem> rows) {
+        for (PlayerItem row : rows) {
+            if (row.getId() != null && items.containsKey(row.getItemId())) {
+                itemRowIds.put(row.getItemId(), row.getId().intValue());
+            }
+        }
+    }
+
+    /**
+     * 写回失败后重新标记这些行，下次写回时按内存中的最新值写入；道具的数量变化并回未写入的变化中
+     */
+    public synchronized void restoreDirty(DirtyRows rows) {
+        for (PlayerOperator operator : rows.operators) {
+            dirtyOperators.add(operator.getOperatorId());
+        }
+        for (PlayerItem item : rows.items) {
+            changeItem(item.getItemId(), item.getQuantity());
+        }
+        for (Integer itemId : rows.removedItems) {
+            changeItem(itemId, 0);
+        }
+        for (PlayerStage stage : rows.stages) {
+            dirtyStages.add(stage.getStageId());
+        }
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new ReleasedException(playerId);
+        }
+    }
+
+    private void changeItem(int itemId, int change) {
+        itemChanges.put(itemId, itemChanges.get(itemId, 0) + change);
+    }
+
+    private PlayerItem item(int itemId, int quantity) {
+        PlayerItem item = new PlayerItem();
+        if (itemRowIds.containsKey(itemId)) {
+            item.setId((long) itemRowIds.get(itemId, 0));
+        }
+        item.setPlayerId(playerId);
+        item.setItemId(itemId);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    private static PlayerOperator copyOf(PlayerOperator source) {
+        PlayerOperator copy = new PlayerOperator();
+        copy.setId(source.getId());
+        copy.setPlayerId(source.getPlayerId());
+        copy.setOperatorId(source.getOperatorId());
+        copy.setEliteLevel(source.getEliteLevel());
+        copy.setLevel(source.getLevel());
+        copy.setCurrentExp(source.getCurrentExp());
+        copy.setSkillLevel(source.getSkillLevel());
+        copy.setSkillMastery(source.getSkillMastery());
+        copy.setCreateTime(source.getCreateTime());
+        copy.setUpdateTime(source.getUpdateTime());
+        return copy;
+    }
+
+    private static PlayerStage copyOf(PlayerStage source) {
+        PlayerStage copy = new PlayerStage();
+        copy.setId(source.getId());
+        copy.setPlayerId(source.getPlayerId());
+        copy.setStageId(source.getStageId());
+        copy.setStar(source.getStar());
+        copy.setOperatorIds(source.getOperatorIds());
+        copy.setPassTime(source.getPassTime());
+        return copy;
+    }
+
+    /**
+     * 修改了已释放的聚合，重新加载后再修改
+     */
+    public static class ReleasedException extends IllegalStateException {
+        public ReleasedException(int playerId) {
+            super("玩家 " + playerId + " 的数据已释放");
+        }
+    }
+
+    /**
+     * 一次写回的脏行，按表分组。道具行的quantity是数量变化，removedItems是内存中数量已为0的道具
+     */
+    public static class DirtyRows {
+        private final List<PlayerOperator> operators = new ArrayList<>();
+        private final List<PlayerItem> items = new ArrayList<>();
+        private final List<Integer> removedItems = new ArrayList<>();
+        private final List<PlayerStage> stages = new ArrayList<>();
+
+        public List<PlayerOperator> getOperators() {
+            return operators;
+        }
+
+        public List<PlayerItem> getItems() {
+            return items;
+        }
+
+        public List<Integer> getRemovedItems() {
+            return removedItems;
+        }
+
+        public List<PlayerStage> getStages() {
+            return stages;
+        }
+
+        public int size() {
+            return operators.size() + items.size() + removedItems.size() + stages.size();
+        }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+    }
+}
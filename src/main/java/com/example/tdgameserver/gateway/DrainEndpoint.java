@@ -0,0 +1,43 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.GameServerProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 滚动重启用的排空端点
+ * POST /actuator/drain 让节点进入排空模式并等待经网关接入的连接迁走，之后即可停机。
+ * 端点没有鉴权，默认不开放，启用时只通过本机的管理端口访问；常规的排空由GameServer.stop()在停机时完成
+ */
+@Component
+@Endpoint(id = "drain")
+public class DrainEndpoint {
+
+    @Autowired
+    private NodeLinkServer nodeLinkServer;
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("draining", nodeLinkServer.isDraining());
+        status.put("linkedSessions", nodeLinkServer.getLinkedSessions());
+        return status;
+    }
+
+    @WriteOperation
+    public Map<String, Object> drain() {
+        int remaining = nodeLinkServer.drain(properties.getGateway().getDrainTimeoutMillis());
+        Map<String, Object> status = status();
+        status.put("remaining", remaining);
+        return status;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.tdgameserver.gateway;
+
+import io.netty.channel.Channel;
+
+import java.util.ArrayDeque;
+
+/**
+ * 网关上的一个客户端连接
+ * link是该连接当前使用的节点链路，同一连接的所有上行帧都走这一条链路以保证顺序；
+ * 迁往其他节点期间pending不为null，上行帧先缓存在这里，新节点接管后按顺序补发。
+ * link和pending的切换都在对象锁内进行
+ */
+class GatewayConnection {
+    final int id;
+    final Channel client;
+    volatile Channel link;
+    volatile int playerId;
+    ArrayDeque<LinkFrame> pending;
+
+    GatewayConnection(int id, Channel client) {
+        this.id = id;
+        this.client = client;
+    }
+
+    /**
+     * 释放缓存的上行帧，连接关闭时调用
+     */
+    synchronized void discardPending() {
+        if (pending != null) {
+            LinkFrame frame;
+            while ((frame = pending.poll()) != null) {
+                frame.release();
+            }
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.GameMessage;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 网关模式下客户端连接的处理器，替代GameServerHandler
+ * 解码器已完成拆包、解压和请求序号解析，这里只把消息转给所在节点；
+ * 下行的压缩和序号由客户端连接上的GameMessageEncoder按该连接的状态处理
+ */
+@Slf4j
+public class GatewayFrontendHandler extends ChannelInboundHandlerAdapter {
+    private final GatewayRouter router;
+
+    public GatewayFrontendHandler(GatewayRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        router.open(ctx.channel());
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof GameMessage) {
+            router.forward(ctx.channel(), (GameMessage) msg);
+        } else {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        router.close(ctx.channel());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("客户端连接异常：{}", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+}
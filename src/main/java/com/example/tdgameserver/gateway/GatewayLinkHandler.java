@@ -0,0 +1,109 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.FrameCompression;
+import com.example.tdgameserver.network.GameMessage;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 网关侧一条节点链路的处理器，把节点发来的帧转给对应的客户端连接
+ * 一次读循环里写给同一客户端的多帧只在channelReadComplete时flush一次
+ */
+@Slf4j
+class GatewayLinkHandler extends ChannelInboundHandlerAdapter {
+    private final GatewayRouter router;
+    private final NodeLink node;
+    private final Set<Channel> pendingFlush = new LinkedHashSet<>();
+
+    GatewayLinkHandler(GatewayRouter router, NodeLink node) {
+        this.router = router;
+        this.node = node;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof LinkFrame)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        LinkFrame frame = (LinkFrame) msg;
+        try {
+            if (frame.getType() == LinkFrame.DRAIN) {
+                router.onDrain(node);
+                return;
+            }
+            GatewayConnection connection = router.getConnection(frame.getConnectionId());
+            if (connection == null) {
+                // 客户端已断开，节点侧会收到CLOSE
+                return;
+            }
+            Channel client = connection.client;
+            switch (frame.getType()) {
+                case LinkFrame.DATA:
+                    if (frame.hasFlag(LinkFrame.FLAG_COMPRESSION)) {
+                        client.attr(FrameCompression.ENABLED).set(Boolean.TRUE);
+                    }
+                    deliver(client, new GameMessage(frame.getArg0(), frame.getArg1(), frame.content().retain()));
+                    break;
+                case LinkFrame.RAW:
+                    // 节点已按客户端的帧格式编码好，编码器对ByteBuf不做处理，原样写出
+                    deliver(client, frame.content().retain());
+                    break;
+                case LinkFrame.CLOSE:
+                    // 已迁走的连接，旧节点关闭它的子通道时不影响客户端
+                    if (connection.link == ctx.channel()) {
+                        router.closeByNode(connection);
+                    }
+                    break;
+                case LinkFrame.BIND:
+                    router.rehome(connection, node, ctx.channel(), frame);
+                    break;
+                case LinkFrame.HANDOFF:
+                    router.onHandoff(connection, ctx.channel(), frame);
+                    break;
+                default:
+                    log.warn("忽略未知的链路帧：{}", frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void deliver(Channel client, Object message) {
+        if (router.isOverloaded(client)) {
+            ReferenceCountUtil.release(message);
+            return;
+        }
+        client.write(message, client.voidPromise());
+        pendingFlush.add(client);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        for (Channel client : pendingFlush) {
+            client.flush();
+        }
+        pendingFlush.clear();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        log.warn("与游戏节点 {} 的链路断开", node.getName());
+        pendingFlush.clear();
+        router.onLinkLost(ctx.channel());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("与游戏节点 {} 的链路异常", node.getName(), cause);
+        ctx.close();
+    }
+}
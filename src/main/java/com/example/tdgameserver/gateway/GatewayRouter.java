@@ -0,0 +1,309 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.FrameHeader;
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.util.ConsistentHashRing;
+import com.example.tdgameserver.util.ShardedIntObjectMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.AttributeKey;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 网关路由
+ * 网关模式下终结客户端连接，按玩家Id在一致性哈希环上选择游戏节点，客户端帧加上连接Id后
+ * 经少量长连接复用转发。登录前玩家Id未知，按连接Id落到任意节点；节点登录成功后回报BIND，
+ * 玩家所属节点不是当前节点时把连接迁过去。节点排空下线时同样逐个迁走它上面的连接：
+ * 旧节点交出会话快照(HANDOFF)，网关在目标节点上以快照重建会话(OPEN+ATTACH)，迁移期间的上行帧缓存后补发
+ */
+@Slf4j
+@Component
+public class GatewayRouter {
+    private static final AttributeKey<GatewayConnection> CONNECTION_KEY = AttributeKey.valueOf("gatewayConnection");
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ShardedIntObjectMap<GatewayConnection> connections = new ShardedIntObjectMap<>();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final List<NodeLink> nodes = new ArrayList<>();
+    private ConsistentHashRing<NodeLink> ring;
+    private Counter handedOff;
+    private volatile boolean running;
+
+    public void start(EventLoopGroup group, Class<? extends SocketChannel> channelClass) {
+        GameServerProperties.Gateway config = properties.getGateway();
+        if (config.getNodes().isEmpty()) {
+            throw new IllegalStateException("网关模式需要配置game.server.gateway.nodes");
+        }
+        running = true;
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(channelClass)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true);
+        for (String address : config.getNodes()) {
+            nodes.add(new NodeLink(address.trim(), config.getLinksPerNode(), this, bootstrap, config.getReconnectDelayMillis()));
+        }
+        ring = new ConsistentHashRing<>(nodes, NodeLink::getName, config.getVirtualNodes());
+
+        Gauge.builder("game.gateway.connections", connections, ShardedIntObjectMap::size).register(meterRegistry);
+        handedOff = meterRegistry.counter("game.gateway.handoff");
+
+        for (NodeLink node : nodes) {
+            node.connectAll();
+        }
+        log.info("网关模式启动，后端节点: {}，每节点链路数: {}", nodes, config.getLinksPerNode());
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (NodeLink node : nodes) {
+            node.close();
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int maxLinkFrameLength() {
+        return FrameHeader.MAX_PAYLOAD_LENGTH + LinkFrame.HEADER_LENGTH;
+    }
+
+    GatewayConnection getConnection(int connectionId) {
+        return connections.get(connectionId);
+    }
+
+    /**
+     * 新客户端连接：分配连接Id，登录前按连接Id在环上选一个可用节点
+     */
+    void open(Channel client) {
+        GatewayConnection connection = new GatewayConnection(nextConnectionId(), client);
+        NodeLink node = ring.route(connection.id, NodeLink::isAvailable);
+        Channel link = node == null ? null : node.linkFor(connection.id);
+        if (link == null) {
+            log.warn("没有可用的游戏节点，拒绝连接：{}", client.remoteAddress());
+            client.close();
+            return;
+        }
+        connection.link = link;
+        connections.put(connection.id, connection);
+        client.attr(CONNECTION_KEY).set(connection);
+        link.writeAndFlush(openFrame(connection), link.voidPromise());
+    }
+
+    /**
+     * 转发客户端消息，消息体的引用计数随链路帧转交。
+     * 连接迁移期间先缓存，写出和开始迁移都在连接锁内，保证HANDOFF之前写出的帧先于HANDOFF到达旧节点
+     */
+    void forward(Channel client, GameMessage message) {
+        GatewayConnection connection = client.attr(CONNECTION_KEY).get();
+        if (connection == null) {
+            message.release();
+            client.close();
+            return;
+        }
+        LinkFrame frame;
+        if (message.getIdempotencyKey() != 0) {
+            ByteBuf key = client.alloc().buffer(FrameHeader.IDEMPOTENCY_KEY_LENGTH).writeLong(message.getIdempotencyKey());
+            frame = LinkFrame.data(connection.id, LinkFrame.FLAG_IDEMPOTENT, message.getMessageId(), message.getSequence(),
+                    Unpooled.wrappedBuffer(key, message.content()));
+        } else {
+            frame = LinkFrame.data(connection.id, 0, message.getMessageId(), message.getSequence(), message.content());
+        }
+        synchronized (connection) {
+            if (connection.pending != null) {
+                if (connection.pending.size() < properties.getDispatch().getMaxPendingPerPlayer()) {
+                    connection.pending.add(frame);
+                    return;
+                }
+                log.warn("连接迁移期间缓存的消息过多，断开连接：{}", client.remoteAddress());
+            } else if (connection.link.isActive()) {
+                connection.link.writeAndFlush(frame, connection.link.voidPromise());
+                return;
+            }
+        }
+        frame.release();
+        client.close();
+    }
+
+    /**
+     * 客户端断开，通知其所在节点
+     */
+    void close(Channel client) {
+        GatewayConnection connection = client.attr(CONNECTION_KEY).get();
+        if (connection == null || !connections.remove(connection.id, connection)) {
+            return;
+        }
+        connection.discardPending();
+        Channel link = connection.link;
+        if (link.isActive()) {
+            link.writeAndFlush(LinkFrame.close(connection.id), link.voidPromise());
+        }
+    }
+
+    /**
+     * 节点关闭了连接(踢下线、空闲超时等)
+     */
+    void closeByNode(GatewayConnection connection) {
+        if (connections.remove(connection.id, connection)) {
+            connection.discardPending();
+            connection.client.close();
+        }
+    }
+
+    /**
+     * 玩家在某节点登录成功，玩家所属节点不是该节点时把连接迁过去
+     */
+    void rehome(GatewayConnection connection, NodeLink from, Channel fromLink, LinkFrame bind) {
+        connection.playerId = bind.getArg0();
+        NodeLink home = ring.route(connection.playerId, NodeLink::isAvailable);
+        if (home != null && home != from && connection.link == fromLink) {
+            beginHandoff(connection);
+        }
+    }
+
+    /**
+     * 节点进入排空模式：不再向它分配连接，并把它上面的连接逐个迁走
+     */
+    void onDrain(NodeLink node) {
+        node.setDraining(true);
+        int count = 0;
+        for (GatewayConnection connection : connections.values()) {
+            if (connection.link.attr(NodeLink.NODE_KEY).get() == node && beginHandoff(connection)) {
+                count++;
+            }
+        }
+        log.info("游戏节点 {} 进入排空模式，开始迁移 {} 个连接", node.getName(), count);
+    }
+
+    /**
+     * 开始迁移：之后的上行帧缓存在网关，请旧节点处理完已收到的消息后交出会话快照。
+     * HANDOFF经旧链路的任务队列写出，排在其他线程已提交的上行帧之后
+     */
+    private boolean beginHandoff(GatewayConnection connection) {
+        Channel link;
+        synchronized (connection) {
+            if (connection.pending != null) {
+                return false;
+            }
+            connection.pending = new ArrayDeque<>();
+            link = connection.link;
+        }
+        link.eventLoop().execute(() ->
+                link.writeAndFlush(LinkFrame.handoff(connection.id, 0, Unpooled.EMPTY_BUFFER), link.voidPromise()));
+        return true;
+    }
+
+    /**
+     * 旧节点交出了会话：在目标链路的事件循环上依次写出OPEN、ATTACH和迁移期间缓存的上行帧，再切换连接的链路。
+     * 未登录的连接没有快照，在目标节点上重新打开即可
+     */
+    void onHandoff(GatewayConnection connection, Channel fromLink, LinkFrame handoff) {
+        if (connection.link != fromLink) {
+            return;
+        }
+        int playerId = handoff.getArg0();
+        NodeLink node = ring.route(playerId != 0 ? playerId : connection.id, NodeLink::isAvailable);
+        Channel target = node == null ? null : node.linkFor(connection.id);
+        if (target == null) {
+            log.warn("没有可接管的游戏节点，断开连接：{}", connection.client.remoteAddress());
+            closeByNode(connection);
+            return;
+        }
+        LinkFrame open = openFrame(connection);
+        LinkFrame attach = playerId != 0 ? LinkFrame.attach(connection.id, handoff.content().retain()) : null;
+        target.eventLoop().execute(() -> {
+            synchronized (connection) {
+                if (!connection.client.isActive() || !target.isActive()) {
+                    open.release();
+                    if (attach != null) {
+                        attach.release();
+                    }
+                    closeByNode(connection);
+                    return;
+                }
+                target.write(open, target.voidPromise());
+                if (attach != null) {
+                    target.write(attach, target.voidPromise());
+                }
+                LinkFrame frame;
+                while ((frame = connection.pending.poll()) != null) {
+                    target.write(frame, target.voidPromise());
+                }
+                target.flush();
+                connection.link = target;
+                connection.pending = null;
+            }
+            handedOff.increment();
+            log.debug("连接 {}(玩家 {}) 迁到节点 {}", connection.id, playerId, node.getName());
+        });
+    }
+
+    /**
+     * 链路断开，该链路上的客户端连接状态已无法保证，全部关闭由客户端重连
+     */
+    void onLinkLost(Channel link) {
+        for (GatewayConnection connection : connections.values()) {
+            if (connection.link == link && connections.remove(connection.id, connection)) {
+                connection.client.close();
+            }
+        }
+    }
+
+    /**
+     * 客户端长期不读导致网关积压超过硬上限时断开，避免拖垮网关内存
+     */
+    boolean isOverloaded(Channel client) {
+        if (client.isWritable() || client.unsafe().outboundBuffer() == null) {
+            return false;
+        }
+        if (client.unsafe().outboundBuffer().totalPendingWriteBytes() <= properties.getOutbound().getHardLimitBytes()) {
+            return false;
+        }
+        log.warn("客户端下行积压超过上限，断开连接：{}", client.remoteAddress());
+        client.close();
+        return true;
+    }
+
+    private static LinkFrame openFrame(GatewayConnection connection) {
+        SocketAddress address = connection.client.remoteAddress();
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return LinkFrame.open(connection.id, inet.getHostString(), inet.getPort());
+        }
+        return LinkFrame.open(connection.id, String.valueOf(address), 0);
+    }
+
+    private int nextConnectionId() {
+        int id;
+        do {
+            id = connectionIds.incrementAndGet() & Integer.MAX_VALUE;
+        } while (id == 0);
+        return id;
+    }
+}
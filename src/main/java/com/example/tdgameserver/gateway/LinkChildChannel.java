@@ -0,0 +1,203 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.EncodedFrame;
+import com.example.tdgameserver.network.FrameCompression;
+import com.example.tdgameserver.network.GameMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AbstractChannel;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelMetadata;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.EventLoop;
+import io.netty.channel.WriteBufferWaterMark;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * 游戏节点上代表一个经网关接入的客户端连接的虚拟通道
+ * 挂在某条网关链路下，注册在链路所在的事件循环上；上行消息由链路转交到本通道的pipeline，
+ * 下行消息加上连接Id后写入链路。会话、分发、下行队列和广播都把它当作普通的客户端通道使用，
+ * 下行积压同样按本通道的高低水位做背压，链路拥塞时消息留在本通道的出站缓冲区里
+ */
+public class LinkChildChannel extends AbstractChannel {
+    private static final ChannelMetadata METADATA = new ChannelMetadata(false);
+
+    private final Channel link;
+    private final int connectionId;
+    private final SocketAddress remoteAddress;
+    private final ChannelConfig config = new DefaultChannelConfig(this);
+    private volatile boolean open = true;
+    private boolean closedByGateway;
+    private boolean forceFlush;
+
+    public LinkChildChannel(Channel link, int connectionId, SocketAddress remoteAddress, WriteBufferWaterMark waterMark) {
+        super(link);
+        this.link = link;
+        this.connectionId = connectionId;
+        this.remoteAddress = remoteAddress;
+        config.setWriteBufferWaterMark(waterMark);
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * 玩家在本节点登录成功后通知网关，网关据此把连接迁到玩家所属的节点
+     */
+    public void notifyBound(int playerId) {
+        if (isActive()) {
+            link.writeAndFlush(LinkFrame.bind(connectionId, playerId), link.voidPromise());
+        }
+    }
+
+    /**
+     * 把已写进本通道的消息全部写入链路，不受链路水位限制，只能在事件循环中调用
+     */
+    void flushAll() {
+        forceFlush = true;
+        try {
+            flush();
+        } finally {
+            forceFlush = false;
+        }
+    }
+
+    /**
+     * 把会话快照交给网关并关闭，关闭时不再回发CLOSE，只能在事件循环中调用
+     */
+    void handOff(int playerId, ByteBuf snapshot) {
+        link.writeAndFlush(LinkFrame.handoff(connectionId, playerId, snapshot), link.voidPromise());
+        closeByGateway();
+    }
+
+    /**
+     * 网关通知连接已关闭或已迁移到其他节点，关闭时不再回发CLOSE
+     */
+    void closeByGateway() {
+        closedByGateway = true;
+        close();
+    }
+
+    /**
+     * 登录时是否已开启下行压缩，压缩本身由网关对客户端进行
+     */
+    boolean hasCompression() {
+        return Boolean.TRUE.equals(attr(FrameCompression.ENABLED).get());
+    }
+
+    @Override
+    protected void doWrite(ChannelOutboundBuffer in) {
+        int flags = hasCompression() ? LinkFrame.FLAG_COMPRESSION : 0;
+        boolean written = false;
+        Object msg;
+        // 链路不可写时剩余消息留在出站缓冲区，链路恢复可写后由NodeLinkHandler重新flush
+        while ((forceFlush || link.isWritable()) && (msg = in.current()) != null) {
+            if (msg instanceof EncodedFrame) {
+                link.write(LinkFrame.raw(connectionId, ((EncodedFrame) msg).content().retain()), link.voidPromise());
+                written = true;
+            } else if (msg instanceof GameMessage) {
+                GameMessage message = (GameMessage) msg;
+                link.write(LinkFrame.data(connectionId, flags, message.getMessageId(), message.getSequence(),
+                        message.content().retain()), link.voidPromise());
+                written = true;
+            }
+            in.remove();
+        }
+        if (written) {
+            link.flush();
+        }
+    }
+
+    @Override
+    protected Object filterOutboundMessage(Object msg) {
+        if (msg instanceof GameMessage) {
+            return msg;
+        }
+        throw new UnsupportedOperationException("不支持的消息类型: " + msg.getClass().getSimpleName());
+    }
+
+    @Override
+    protected void doClose() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        if (!closedByGateway && link.isActive()) {
+            link.writeAndFlush(LinkFrame.close(connectionId), link.voidPromise());
+        }
+    }
+
+    @Override
+    protected void doDisconnect() {
+        doClose();
+    }
+
+    @Override
+    protected void doBeginRead() {
+        // 上行消息由链路推送，不需要主动读
+    }
+
+    @Override
+    protected void doBind(SocketAddress localAddress) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected boolean isCompatible(EventLoop loop) {
+        return true;
+    }
+
+    @Override
+    protected SocketAddress localAddress0() {
+        return link.localAddress();
+    }
+
+    @Override
+    protected SocketAddress remoteAddress0() {
+        return remoteAddress;
+    }
+
+    @Override
+    protected AbstractUnsafe newUnsafe() {
+        return new AbstractUnsafe() {
+            @Override
+            public void connect(SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) {
+                promise.setFailure(new UnsupportedOperationException());
+            }
+        };
+    }
+
+    @Override
+    public ChannelConfig config() {
+        return config;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isActive() {
+        return open;
+    }
+
+    @Override
+    public ChannelMetadata metadata() {
+        return METADATA;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkChildChannel{connectionId=" + connectionId + ", remote=" + remoteAddress + ", link=" + link + '}';
+    }
+
+    static SocketAddress clientAddress(String host, int port) {
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+}
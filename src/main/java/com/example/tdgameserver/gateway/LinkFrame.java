@@ -0,0 +1,154 @@
+package com.example.tdgameserver.gateway;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 网关与游戏节点之间链路上的帧
+ * 一条链路复用多个客户端连接，每帧带上网关分配的连接Id；两个整型参数的含义随帧类型变化：
+ * <pre>
+ * OPEN    网关->节点  新客户端连接    arg0=客户端端口  消息体=客户端地址
+ * DATA    双向        业务消息       arg0=消息Id      arg1=请求序号  消息体=[幂等键 8字节，仅FLAG_IDEMPOTENT]消息体
+ * RAW     节点->网关  已编码好的整帧(广播)，网关原样写给客户端
+ * CLOSE   双向        连接关闭
+ * BIND    节点->网关  连接登录成功   arg0=玩家Id
+ * DRAIN   节点->网关  节点即将下线，网关不再往该节点分配连接，并把其上的连接逐个迁走
+ * HANDOFF 网关->节点  请求交出连接
+ *         节点->网关  交出连接       arg0=玩家Id(未登录为0)  消息体=会话快照(SessionSnapshot)，未登录时为空
+ * ATTACH  网关->节点  接管会话       消息体=会话快照，紧跟在OPEN之后
+ * </pre>
+ * 线上格式：[帧长度 4字节][类型 1字节][标志位 1字节][连接Id 4字节][arg0 4字节][arg1 4字节][消息体]
+ */
+public class LinkFrame extends DefaultByteBufHolder {
+    public static final int OPEN = 1;
+    public static final int DATA = 2;
+    public static final int RAW = 3;
+    public static final int CLOSE = 4;
+    public static final int BIND = 5;
+    public static final int ATTACH = 6;
+    public static final int DRAIN = 7;
+    public static final int HANDOFF = 8;
+
+    /**
+     * 节点侧该连接已开启下行压缩，网关据此对客户端压缩
+     */
+    public static final int FLAG_COMPRESSION = 0x01;
+
+    /**
+     * 网关->节点的DATA帧消息体前带客户端请求的8字节幂等键
+     */
+    public static final int FLAG_IDEMPOTENT = 0x02;
+
+    /**
+     * 帧长度字段之后的固定头长度
+     */
+    public static final int HEADER_LENGTH = 14;
+
+    private final int type;
+    private final int flags;
+    private final int connectionId;
+    private final int arg0;
+    private final int arg1;
+
+    public LinkFrame(int type, int flags, int connectionId, int arg0, int arg1, ByteBuf content) {
+        super(content);
+        this.type = type;
+        this.flags = flags;
+        this.connectionId = connectionId;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+    }
+
+    public static LinkFrame open(int connectionId, String host, int port) {
+        return new LinkFrame(OPEN, 0, connectionId, port, 0, text(host));
+    }
+
+    public static LinkFrame data(int connectionId, int flags, int messageId, int sequence, ByteBuf content) {
+        return new LinkFrame(DATA, flags, connectionId, messageId, sequence, content);
+    }
+
+    public static LinkFrame raw(int connectionId, ByteBuf frame) {
+        return new LinkFrame(RAW, 0, connectionId, 0, 0, frame);
+    }
+
+    public static LinkFrame close(int connectionId) {
+        return new LinkFrame(CLOSE, 0, connectionId, 0, 0, Unpooled.EMPTY_BUFFER);
+    }
+
+    public static LinkFrame bind(int connectionId, int playerId) {
+        return new LinkFrame(BIND, 0, connectionId, playerId, 0, Unpooled.EMPTY_BUFFER);
+    }
+
+    public static LinkFrame drain() {
+        return new LinkFrame(DRAIN, 0, 0, 0, 0, Unpooled.EMPTY_BUFFER);
+    }
+
+    public static LinkFrame handoff(int connectionId, int playerId, ByteBuf snapshot) {
+        return new LinkFrame(HANDOFF, 0, connectionId, playerId, 0, snapshot);
+    }
+
+    public static LinkFrame attach(int connectionId, ByteBuf snapshot) {
+        return new LinkFrame(ATTACH, 0, connectionId, 0, 0, snapshot);
+    }
+
+    private static ByteBuf text(String value) {
+        return value == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    public int getArg0() {
+        return arg0;
+    }
+
+    public int getArg1() {
+        return arg1;
+    }
+
+    /**
+     * 按UTF-8解码消息体，用于OPEN携带的客户端地址
+     */
+    public String getText() {
+        return content().toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public LinkFrame replace(ByteBuf content) {
+        return new LinkFrame(type, flags, connectionId, arg0, arg1, content);
+    }
+
+    @Override
+    public LinkFrame retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public LinkFrame touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkFrame{type=" + type + ", connectionId=" + connectionId + ", arg0=" + arg0 + ", arg1=" + arg1
+                + ", length=" + content().readableBytes() + '}';
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.tdgameserver.gateway;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+/**
+ * 链路帧解码器，格式见LinkFrame
+ * 消息体以retained slice交给LinkFrame持有，不做拷贝
+ */
+public class LinkFrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    public LinkFrameDecoder(int maxFrameLength) {
+        super(maxFrameLength, 0, 4, 0, 4);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (frame == null) {
+            return null;
+        }
+        if (frame.readableBytes() < LinkFrame.HEADER_LENGTH) {
+            frame.release();
+            throw new CorruptedFrameException("链路帧长度不足: " + frame.readableBytes());
+        }
+        int type = frame.readUnsignedByte();
+        int flags = frame.readUnsignedByte();
+        int connectionId = frame.readInt();
+        int arg0 = frame.readInt();
+        int arg1 = frame.readInt();
+        return new LinkFrame(type, flags, connectionId, arg0, arg1, frame);
+    }
+}
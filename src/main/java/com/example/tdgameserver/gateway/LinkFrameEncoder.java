@@ -0,0 +1,39 @@
+package com.example.tdgameserver.gateway;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * 链路帧编码器，只为帧头分配缓冲区，消息体以组合缓冲区直接引用
+ */
+@ChannelHandler.Sharable
+public class LinkFrameEncoder extends MessageToMessageEncoder<LinkFrame> {
+    public static final LinkFrameEncoder INSTANCE = new LinkFrameEncoder();
+
+    private LinkFrameEncoder() {
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, LinkFrame msg, List<Object> out) {
+        ByteBuf body = msg.content();
+        ByteBuf header = ctx.alloc().ioBuffer(4 + LinkFrame.HEADER_LENGTH);
+        header.writeInt(LinkFrame.HEADER_LENGTH + body.readableBytes());
+        header.writeByte(msg.getType());
+        header.writeByte(msg.getFlags());
+        header.writeInt(msg.getConnectionId());
+        header.writeInt(msg.getArg0());
+        header.writeInt(msg.getArg1());
+        if (!body.isReadable()) {
+            out.add(header);
+            return;
+        }
+        CompositeByteBuf frame = ctx.alloc().compositeBuffer(2);
+        frame.addComponents(true, header, body.retain());
+        out.add(frame);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.tdgameserver.gateway;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 网关到一个游戏节点的若干条长连接
+ * 客户端连接按连接Id固定到其中一条，断开后按间隔重连
+ */
+@Slf4j
+class NodeLink {
+    static final AttributeKey<NodeLink> NODE_KEY = AttributeKey.valueOf("gatewayNode");
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final AtomicReferenceArray<Channel> links;
+    private final GatewayRouter router;
+    private final Bootstrap bootstrap;
+    private final long reconnectDelayMillis;
+    //节点已通知即将下线，不再往它分配连接
+    private volatile boolean draining;
+
+    NodeLink(String name, int linkCount, GatewayRouter router, Bootstrap bootstrap, long reconnectDelayMillis) {
+        int colon = name.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("节点地址格式应为host:port，实际为: " + name);
+        }
+        this.name = name;
+        this.host = name.substring(0, colon);
+        this.port = Integer.parseInt(name.substring(colon + 1));
+        this.links = new AtomicReferenceArray<>(Math.max(1, linkCount));
+        this.router = router;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.bootstrap = bootstrap.clone().handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.attr(NODE_KEY).set(NodeLink.this);
+                ch.pipeline().addLast(
+                        new LinkFrameDecoder(router.maxLinkFrameLength()),
+                        LinkFrameEncoder.INSTANCE,
+                        // 各客户端连接的上行帧分别flush，合并成链路上的少量系统调用
+                        new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true),
+                        new GatewayLinkHandler(router, NodeLink.this)
+                );
+            }
+        });
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void connectAll() {
+        for (int i = 0; i < links.length(); i++) {
+            connect(i);
+        }
+    }
+
+    private void connect(int slot) {
+        if (!router.isRunning()) {
+            return;
+        }
+        bootstrap.connect(host, port).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                log.warn("连接游戏节点 {} 失败，{}ms后重试：{}", name, reconnectDelayMillis, future.cause().toString());
+                scheduleReconnect(slot);
+                return;
+            }
+            Channel channel = future.channel();
+            links.set(slot, channel);
+            // 重新连上说明节点已重启，仍在排空的节点会在链路建立后再次发来DRAIN
+            draining = false;
+            log.info("已连接游戏节点 {}，链路 {}", name, slot);
+            channel.closeFuture().addListener(f -> {
+                links.compareAndSet(slot, channel, null);
+                scheduleReconnect(slot);
+            });
+        });
+    }
+
+    private void scheduleReconnect(int slot) {
+        if (router.isRunning()) {
+            bootstrap.config().group().schedule(() -> connect(slot), reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    /**
+     * 是否可以分配新连接：未在排空且至少有一条可用链路
+     */
+    boolean isAvailable() {
+        if (draining) {
+            return false;
+        }
+        for (int i = 0; i < links.length(); i++) {
+            Channel channel = links.get(i);
+            if (channel != null && channel.isActive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为连接选择链路：优先按连接Id固定的那条，不可用时顺延到下一条可用的，都不可用返回null
+     */
+    Channel linkFor(int connectionId) {
+        int count = links.length();
+        int start = (connectionId & Integer.MAX_VALUE) % count;
+        for (int i = 0; i < count; i++) {
+            Channel channel = links.get((start + i) % count);
+            if (channel != null && channel.isActive()) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    void close() {
+        for (int i = 0; i < links.length(); i++) {
+            Channel channel = links.get(i);
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
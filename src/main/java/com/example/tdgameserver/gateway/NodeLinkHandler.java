@@ -0,0 +1,175 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameMessageDispatcher;
+import com.example.tdgameserver.network.GameServerHandler;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.session.IdleSessionReaper;
+import com.example.tdgameserver.session.PlayerSession;
+import com.example.tdgameserver.session.SessionManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 游戏节点上一条网关链路的处理器
+ * 为链路上的每个客户端连接创建一个LinkChildChannel，子通道的pipeline与直连客户端相同(GameServerHandler)，
+ * 只在链路所在的事件循环上访问，子通道表不需要加锁
+ */
+@Slf4j
+public class NodeLinkHandler extends ChannelInboundHandlerAdapter {
+    private final SessionManager sessionManager = SessionManager.getInstance();
+    private final NodeLinkServer server;
+    private final GameMessageDispatcher dispatcher;
+    private final GameServerProperties.Outbound outboundConfig;
+    private final IdleSessionReaper idleSessionReaper;
+    private final SessionHandoffService handoffService;
+    private final AtomicInteger linkedSessions;
+    private final WriteBufferWaterMark waterMark;
+    private final IntObjectMap<LinkChildChannel> children = new IntObjectHashMap<>();
+
+    public NodeLinkHandler(NodeLinkServer server) {
+        this.server = server;
+        this.dispatcher = server.getDispatcher();
+        this.outboundConfig = server.getOutboundConfig();
+        this.idleSessionReaper = server.getIdleSessionReaper();
+        this.handoffService = server.getHandoffService();
+        this.linkedSessions = server.linkedSessionCounter();
+        this.waterMark = new WriteBufferWaterMark(outboundConfig.getLowWaterMark(), outboundConfig.getHighWaterMark());
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        log.info("网关链路建立：{}", ctx.channel().remoteAddress());
+        if (server.isDraining()) {
+            ctx.writeAndFlush(LinkFrame.drain());
+        }
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof LinkFrame)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        LinkFrame frame = (LinkFrame) msg;
+        try {
+            switch (frame.getType()) {
+                case LinkFrame.DATA:
+                    onData(frame);
+                    break;
+                case LinkFrame.OPEN:
+                    onOpen(ctx.channel(), frame);
+                    break;
+                case LinkFrame.ATTACH:
+                    onAttach(frame);
+                    break;
+                case LinkFrame.HANDOFF:
+                    onHandoff(ctx.channel(), frame);
+                    break;
+                case LinkFrame.CLOSE:
+                    LinkChildChannel child = children.remove(frame.getConnectionId());
+                    if (child != null) {
+                        child.closeByGateway();
+                    }
+                    break;
+                default:
+                    log.warn("忽略未知的链路帧：{}", frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void onData(LinkFrame frame) {
+        LinkChildChannel child = children.get(frame.getConnectionId());
+        if (child == null) {
+            // 连接已在本节点关闭，网关侧稍后会收到CLOSE
+            return;
+        }
+        ByteBuf content = frame.content();
+        long idempotencyKey = frame.hasFlag(LinkFrame.FLAG_IDEMPOTENT) ? content.readLong() : 0;
+        child.pipeline().fireChannelRead(new GameMessage(frame.getArg0(), frame.getArg1(), idempotencyKey, content.retain()));
+    }
+
+    private void onOpen(Channel link, LinkFrame frame) {
+        int connectionId = frame.getConnectionId();
+        LinkChildChannel child = new LinkChildChannel(link, connectionId,
+                LinkChildChannel.clientAddress(frame.getText(), frame.getArg0()), waterMark);
+        child.pipeline().addLast(new GameServerHandler(dispatcher, outboundConfig, idleSessionReaper));
+        LinkChildChannel previous = children.put(connectionId, child);
+        if (previous != null) {
+            previous.closeByGateway();
+        }
+        linkedSessions.incrementAndGet();
+        child.closeFuture().addListener(future -> {
+            children.remove(connectionId, child);
+            linkedSessions.decrementAndGet();
+        });
+        // 已在链路的事件循环上，注册同步完成并触发channelActive创建会话
+        link.eventLoop().register(child);
+    }
+
+    /**
+     * 网关要求交出连接(登录后迁往所属节点或本节点排空)，连接已不在本节点时回复CLOSE
+     */
+    private void onHandoff(Channel link, LinkFrame frame) {
+        LinkChildChannel child = children.get(frame.getConnectionId());
+        if (child == null) {
+            link.writeAndFlush(LinkFrame.close(frame.getConnectionId()), link.voidPromise());
+            return;
+        }
+        handoffService.handOff(child);
+    }
+
+    /**
+     * 网关把其他节点交出的连接迁到本节点，按会话快照直接恢复已认证的会话，不再要求客户端登录
+     */
+    private void onAttach(LinkFrame frame) {
+        LinkChildChannel child = children.get(frame.getConnectionId());
+        PlayerSession session = child == null ? null : sessionManager.getSessionByChannel(child);
+        if (session == null) {
+            return;
+        }
+        handoffService.restore(session, SessionSnapshot.decode(frame.content()));
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // 链路恢复可写，继续写出各子通道积压在出站缓冲区的消息
+        if (ctx.channel().isWritable()) {
+            for (LinkChildChannel child : new ArrayList<>(children.values())) {
+                if (child.unsafe().outboundBuffer() != null && !child.unsafe().outboundBuffer().isEmpty()) {
+                    child.flush();
+                }
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        log.warn("网关链路断开：{}，关闭其上的 {} 个连接", ctx.channel().remoteAddress(), children.size());
+        for (LinkChildChannel child : new ArrayList<>(children.values())) {
+            child.closeByGateway();
+        }
+        children.clear();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("网关链路异常：{}", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+}
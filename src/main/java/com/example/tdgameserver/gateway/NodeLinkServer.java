@@ -0,0 +1,168 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.FrameHeader;
+import com.example.tdgameserver.network.GameMessageDispatcher;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.session.IdleSessionReaper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 游戏节点接受网关链路的监听端
+ * 与客户端监听共用GameServer的事件循环，链路上的客户端连接由NodeLinkHandler展开成子通道。
+ * 节点下线前进入排空模式：不再接受登录，通知网关把本节点上的连接连同会话快照逐个迁到其他节点
+ */
+@Slf4j
+@Component
+public class NodeLinkServer {
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private GameMessageDispatcher dispatcher;
+
+    @Autowired
+    private IdleSessionReaper idleSessionReaper;
+
+    @Autowired
+    private SessionHandoffService handoffService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ChannelGroup links = new DefaultChannelGroup("gateway-links", GlobalEventExecutor.INSTANCE);
+    //经网关接入、尚未关闭的连接数
+    private final AtomicInteger linkedSessions = new AtomicInteger();
+    private volatile boolean draining;
+    private Channel serverChannel;
+
+    public void start(EventLoopGroup bossGroup, EventLoopGroup workerGroup, Class<? extends ServerChannel> channelClass)
+            throws InterruptedException {
+        int port = properties.getGateway().getLinkPort();
+        Gauge.builder("game.link.sessions", linkedSessions, AtomicInteger::get).register(meterRegistry);
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(channelClass)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        links.add(ch);
+                        ch.pipeline().addLast(
+                                new LinkFrameDecoder(FrameHeader.MAX_PAYLOAD_LENGTH + LinkFrame.HEADER_LENGTH
+                                        + FrameHeader.IDEMPOTENCY_KEY_LENGTH),
+                                LinkFrameEncoder.INSTANCE,
+                                // 子通道各自flush，合并成链路上的少量系统调用
+                                new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true),
+                                new NodeLinkHandler(NodeLinkServer.this)
+                        );
+                    }
+                })
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+        serverChannel = bootstrap.bind(port).sync().channel();
+        log.info("网关链路监听端口: {}", port);
+    }
+
+    /**
+     * 进入排空模式并等待经网关接入的连接全部迁走
+     * @param timeoutMillis 最长等待时间(毫秒)
+     * @return 超时后仍未迁走的连接数
+     */
+    public int drain(long timeoutMillis) {
+        if (!draining) {
+            draining = true;
+            log.info("节点进入排空模式，待迁移连接数: {}", linkedSessions.get());
+            links.writeAndFlush(LinkFrame.drain());
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (linkedSessions.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int remaining = linkedSessions.get();
+        if (remaining > 0) {
+            log.warn("排空超时，仍有 {} 个连接未迁走", remaining);
+        } else {
+            log.info("经网关接入的连接已全部迁走");
+        }
+        return remaining;
+    }
+
+    /**
+     * 是否处于排空模式，排空期间不再接受登录
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int getLinkedSessions() {
+        return linkedSessions.get();
+    }
+
+    public void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+        if (linkedSessions.get() > 0) {
+            drain(properties.getGateway().getDrainTimeoutMillis());
+        }
+        serverChannel.close().syncUninterruptibly();
+        serverChannel = null;
+        links.close().syncUninterruptibly();
+    }
+
+    /**
+     * 实际监听的链路端口，配置为0时由系统分配
+     */
+    int boundLinkPort() {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    /**
+     * 已建立的网关链路数
+     */
+    int linkCount() {
+        return links.size();
+    }
+
+    GameMessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    IdleSessionReaper getIdleSessionReaper() {
+        return idleSessionReaper;
+    }
+
+    SessionHandoffService getHandoffService() {
+        return handoffService;
+    }
+
+    GameServerProperties.Outbound getOutboundConfig() {
+        return properties.getOutbound();
+    }
+
+    AtomicInteger linkedSessionCounter() {
+        return linkedSessions;
+    }
+}
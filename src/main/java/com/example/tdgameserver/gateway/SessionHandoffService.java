@@ -0,0 +1,136 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.network.EncodedFrame;
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameMessageDispatcher;
+import com.example.tdgameserver.protocol.PayloadFormat;
+import com.example.tdgameserver.service.PlayerDataService;
+import com.example.tdgameserver.session.OutboundPriority;
+import com.example.tdgameserver.session.PlayerSession;
+import com.example.tdgameserver.session.SessionManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Base64;
+
+/**
+ * 会话在节点之间的交接
+ * 交出：等玩家已收到的消息处理完，在业务线程上把玩家数据写回数据库，再回到事件循环取出未写出的下行消息，
+ * 连同会话状态一起打成快照交给网关；接管：按快照恢复已认证的会话，补发未写出的下行消息，
+ * 玩家数据在新节点上处理第一个请求时从数据库加载
+ */
+@Slf4j
+@Component
+public class SessionHandoffService {
+
+    @Autowired
+    private PlayerDataService playerDataService;
+
+    @Autowired
+    private GameMessageDispatcher dispatcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SessionManager sessionManager = SessionManager.getInstance();
+    private Counter handedOff;
+    private Counter restored;
+
+    @PostConstruct
+    public void init() {
+        handedOff = meterRegistry.counter("game.session.handoff", "direction", "out");
+        restored = meterRegistry.counter("game.session.handoff", "direction", "in");
+    }
+
+    /**
+     * 交出连接，只能在子通道的事件循环中调用
+     */
+    void handOff(LinkChildChannel child) {
+        PlayerSession session = sessionManager.getSessionByChannel(child);
+        if (session == null || !session.isAuthenticated()) {
+            // 未登录的连接没有状态，网关直接在其他节点上重新打开
+            child.handOff(0, Unpooled.EMPTY_BUFFER);
+            return;
+        }
+        // 排在该玩家已收到的消息之后，快照反映这些消息处理完的状态
+        boolean queued = dispatcher.dispatch(session, new GameMessage(0, Unpooled.EMPTY_BUFFER), (s, m) -> {
+            SessionSnapshot snapshot = capture(s);
+            child.eventLoop().execute(() -> complete(child, s, snapshot));
+        });
+        if (!queued) {
+            complete(child, session, capture(session));
+        }
+    }
+
+    private SessionSnapshot capture(PlayerSession session) {
+        SessionSnapshot snapshot = new SessionSnapshot();
+        snapshot.setPlayerId(session.getPlayerId());
+        snapshot.setUsername(session.getUsername());
+        snapshot.setFormat(session.getCodec().format().getId());
+        snapshot.setCurrentMatchId(session.getCurrentMatchId());
+        // 新节点从数据库加载玩家数据，交出之前必须写回
+        if (!playerDataService.flush(session.getPlayerId())) {
+            log.error("玩家 {} 的数据交接前写回失败，稍后由本节点重试写回", session.getPlayerId());
+        }
+        return snapshot;
+    }
+
+    private void complete(LinkChildChannel child, PlayerSession session, SessionSnapshot snapshot) {
+        if (!child.isActive()) {
+            // 交接期间连接已关闭，网关已收到CLOSE
+            return;
+        }
+        snapshot.setCompression(child.hasCompression());
+        // 已写进子通道的消息先经旧链路发出，下行队列里剩下的随快照交给新节点补发
+        child.flushAll();
+        session.getOutboundQueue().drainTo((message, priority) -> {
+            SessionSnapshot.PendingMessage pending = new SessionSnapshot.PendingMessage();
+            pending.setMessageId(message.getMessageId());
+            pending.setSequence(message.getSequence());
+            pending.setPriority(priority.name());
+            pending.setEncoded(message instanceof EncodedFrame);
+            pending.setBody(Base64.getEncoder().encodeToString(ByteBufUtil.getBytes(message.content())));
+            snapshot.getPending().add(pending);
+            message.release();
+        });
+        child.handOff(snapshot.getPlayerId(), snapshot.encode());
+        handedOff.increment();
+        log.info("玩家 {} 的会话已交给网关迁往其他节点，未写出消息 {} 条", snapshot.getPlayerId(), snapshot.getPending().size());
+    }
+
+    /**
+     * 按快照恢复会话，在新建的子通道上调用
+     */
+    void restore(PlayerSession session, SessionSnapshot snapshot) {
+        session.setCodec(PayloadFormat.of(snapshot.getFormat()).getCodec());
+        if (snapshot.isCompression()) {
+            session.enableCompression();
+        }
+        session.setAuthenticated(snapshot.getUsername(), snapshot.getPlayerId());
+        session.setCurrentMatchId(snapshot.getCurrentMatchId());
+        // 玩家在本节点还有其他会话时停用它的消息队列，积压的消息不再处理
+        PlayerSession previous = sessionManager.getSessionsByPlayerId(snapshot.getPlayerId());
+        if (previous != null && previous != session) {
+            dispatcher.retire(previous);
+        }
+        sessionManager.bindPlayerId(snapshot.getPlayerId(), session);
+        Channel channel = session.getChannel();
+        for (SessionSnapshot.PendingMessage pending : snapshot.getPending()) {
+            byte[] body = Base64.getDecoder().decode(pending.getBody());
+            GameMessage message = pending.isEncoded()
+                    ? new EncodedFrame(pending.getMessageId(), Unpooled.wrappedBuffer(body))
+                    : new GameMessage(pending.getMessageId(), pending.getSequence(), Unpooled.wrappedBuffer(body));
+            session.sendMessage(message, OutboundPriority.valueOf(pending.getPriority()));
+        }
+        restored.increment();
+        log.info("玩家 {} 的会话从其他节点迁入：{}，补发消息 {} 条", snapshot.getPlayerId(), channel.remoteAddress(),
+                snapshot.getPending().size());
+    }
+}
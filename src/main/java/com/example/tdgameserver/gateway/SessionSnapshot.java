@@ -0,0 +1,42 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.protocol.JsonMessageCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 迁移到其他节点的会话快照
+ * 包含会话本身的状态和尚未写出的下行消息，接管的节点据此直接恢复会话，客户端不用重新登录。
+ * 玩家数据在交出前已写回数据库，不放在快照里
+ */
+@Data
+public class SessionSnapshot {
+    private Integer playerId;
+    private String username;
+    private int format;                 // 消息体编码格式，PayloadFormat的编号
+    private boolean compression;        // 是否已开启下行压缩
+    private Integer currentMatchId;
+    private List<PendingMessage> pending = new ArrayList<>();
+
+    @Data
+    public static class PendingMessage {
+        private int messageId;
+        private int sequence;
+        private String priority;
+        private boolean encoded;        // 是否为已编码好的整帧(广播)
+        private String body;            // Base64编码的消息体
+    }
+
+    public ByteBuf encode() {
+        return Unpooled.wrappedBuffer(JsonMessageCodec.GSON.toJson(this).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SessionSnapshot decode(ByteBuf content) {
+        return JsonMessageCodec.GSON.fromJson(content.toString(StandardCharsets.UTF_8), SessionSnapshot.class);
+    }
+}
@@ -5,12 +5,11 @@ import com.example.tdgameserver.network.GameMessage;
 import com.example.tdgameserver.network.GameMessageHandlerRegistry;
 import com.example.tdgameserver.network.MessageId;
 import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.protocol.CachedResponse;
 import com.example.tdgameserver.requestEntity.BackpackRequest;
 import com.example.tdgameserver.service.BackpackService;
 import com.example.tdgameserver.session.PlayerSession;
-import com.example.tdgameserver.session.SessionManager;
 import com.example.tdgameserver.util.MessageUtil;
-import com.google.gson.Gson;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,17 +21,18 @@ import java.util.Map;
 @Slf4j
 @Component
 public class BackpackHandler {
+    private static final CachedResponse INVALID_REQUEST = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("无效的请求数据格式"));
+    private static final CachedResponse GET_BACKPACK_FAILED = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("获取背包失败：服务器内部错误"));
 
     @Autowired
     private BackpackService backpackService;
 
     private final GameMessageHandlerRegistry handlerRegistry = GameMessageHandlerRegistry.getInstance();
-    private final SessionManager sessionManager = SessionManager.getInstance();
-    private final Gson gson = new Gson();
 
     public BackpackHandler() {
         registerHandlers();
-        registerSessionCloseListener();
     }
 
     public void registerHandlers() {
@@ -41,25 +41,6 @@ public class BackpackHandler {
         handlerRegistry.registerHandler(MessageId.REQ_USE_ITEM.getId(), this::handleUseItem);
     }
     
-    /**
-     * 注册会话关闭监听器
-     */
-    private void registerSessionCloseListener() {
-        sessionManager.registerSessionCloseListener(this::onPlayerOffline);
-        log.info("背包处理器已注册会话关闭监听器");
-    }
-    
-    /**
-     * 玩家离线时的处理
-     */
-    private void onPlayerOffline(PlayerSession session) {
-        Integer playerId = session.getPlayerId();
-        if (playerId != null) {
-            backpackService.clearPlayerCache(playerId);
-            log.info("玩家 {} 离线，已清理背包缓存", playerId);
-        }
-    }
-
     /**
      * 处理获取背包请求
      */
@@ -69,13 +50,12 @@ public class BackpackHandler {
             List<PlayerItem> itemList = backpackService.getPlayerItems(playerId);
 
             Response response = Response.success("获取背包成功", itemList);
-            session.sendMessage(MessageId.RESP_GET_BACKPACK.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_GET_BACKPACK.getId(), response);
             log.info("玩家 {} 获取背包成功，共 {} 种道具", playerId, itemList.size());
 
         } catch (Exception e) {
             log.error("处理获取背包请求失败", e);
-            Response response = Response.error("获取背包失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(GET_BACKPACK_FAILED);
         }
     }
 
@@ -84,13 +64,10 @@ public class BackpackHandler {
      */
     public void handleGetBackpackByType(PlayerSession session, GameMessage message) {
         try {
-            String requestData = new String(message.getPayload());
-            
             // 使用MessageUtil通用转换
-            BackpackRequest request = MessageUtil.convertMessage(requestData, BackpackRequest.class);
+            BackpackRequest request = MessageUtil.convertMessage(session, message, BackpackRequest.class);
             if (request == null) {
-                Response response = Response.error("无效的请求数据格式");
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_REQUEST);
                 return;
             }
             
@@ -98,7 +75,7 @@ public class BackpackHandler {
             String validationError = validateBackpackRequest(request);
             if (validationError != null) {
                 Response response = Response.error(validationError);
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.ERROR_MSG.getId(), response);
                 return;
             }
 
@@ -108,13 +85,12 @@ public class BackpackHandler {
             List<PlayerItem> items = backpackService.getPlayerItemsByBackpackType(playerId, backpackTypeId);
 
             Response response = Response.success("获取背包成功", items);
-            session.sendMessage(MessageId.RESP_GET_BACKPACK_BY_TYPE.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_GET_BACKPACK_BY_TYPE.getId(), response);
             log.info("玩家 {} 获取背包类型 {} 成功，共 {} 种道具", playerId, backpackTypeId, items.size());
 
         } catch (Exception e) {
             log.error("处理根据背包类型获取道具请求失败", e);
-            Response response = Response.error("获取背包失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(GET_BACKPACK_FAILED);
         }
     }
 
@@ -123,13 +99,10 @@ public class BackpackHandler {
      */
     public void handleUseItem(PlayerSession session, GameMessage message) {
         try {
-            String requestData = new String(message.getPayload());
-            
             // 使用MessageUtil通用转换
-            BackpackRequest request = MessageUtil.convertMessage(requestData, BackpackRequest.class);
+            BackpackRequest request = MessageUtil.convertMessage(session, message, BackpackRequest.class);
             if (request == null) {
-                Response response = Response.error("无效的请求数据格式");
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_REQUEST);
                 return;
             }
             
@@ -137,7 +110,7 @@ public class BackpackHandler {
             String validationError = validateUseItemRequest(request);
             if (validationError != null) {
                 Response response = Response.error(validationError);
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.ERROR_MSG.getId(), response);
                 return;
             }
 
@@ -152,7 +125,7 @@ public class BackpackHandler {
         } catch (Exception e) {
             log.error("处理使用道具请求失败", e);
             Response response = Response.error("使用道具失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.ERROR_MSG.getId(), response);
         }
     }
     
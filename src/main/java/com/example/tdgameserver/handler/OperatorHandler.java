@@ -1,15 +1,16 @@
 package com.example.tdgameserver.handler;
 
+import com.example.tdgameserver.entity.operator.OperatorLevelUpResult;
 import com.example.tdgameserver.entity.operator.PlayerOperator;
 import com.example.tdgameserver.network.GameMessage;
 import com.example.tdgameserver.network.GameMessageHandlerRegistry;
 import com.example.tdgameserver.network.MessageId;
 import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.protocol.CachedResponse;
 import com.example.tdgameserver.requestEntity.OperatorRequest;
 import com.example.tdgameserver.service.OperatorService;
 import com.example.tdgameserver.session.PlayerSession;
 import com.example.tdgameserver.util.MessageUtil;
-import com.google.gson.Gson;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,12 +25,13 @@ import java.util.List;
 @Slf4j
 @Component
 public class OperatorHandler {
+    private static final CachedResponse INVALID_REQUEST = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("无效的请求数据格式"));
     
     @Autowired
     private OperatorService operatorService;
     
     private final GameMessageHandlerRegistry handlerRegistry = GameMessageHandlerRegistry.getInstance();
-    private final Gson gson = new Gson();
     
     public OperatorHandler() {
         registerHandlers();
@@ -55,13 +57,13 @@ public class OperatorHandler {
             
             Response response = Response.success("获取干员列表成功", playerOperators);
             
-            session.sendMessage(MessageId.RESP_GET_PLAYER_OPERATORS.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_GET_PLAYER_OPERATORS.getId(), response);
             log.info("玩家 {} 获取干员列表成功，共 {} 个干员", playerId, playerOperators.size());
             
         } catch (Exception e) {
             log.error("获取玩家干员列表失败，玩家ID: {}", session.getPlayerId(), e);
             Response response = Response.error("获取干员列表失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.ERROR_MSG.getId(), response);
         }
     }
     
@@ -70,13 +72,10 @@ public class OperatorHandler {
      */
     public void handleLevelUpOperator(PlayerSession session, GameMessage message) {
         try {
-            String requestData = new String(message.getPayload());
-            
             // 使用MessageUtil通用转换
-            OperatorRequest request = MessageUtil.convertMessage(requestData, OperatorRequest.class);
+            OperatorRequest request = MessageUtil.convertMessage(session, message, OperatorRequest.class);
             if (request == null) {
-                Response response = Response.error("无效的请求数据格式");
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_REQUEST);
                 return;
             }
             
@@ -84,13 +83,24 @@ public class OperatorHandler {
             String validationError = validateOperatorRequest(request);
             if (validationError != null) {
                 Response response = Response.error(validationError);
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.ERROR_MSG.getId(), response);
                 return;
             }
             
             Integer playerId = session.getPlayerId();
             Integer operatorId = request.getOperatorId();
             log.info("玩家 {} 请求升级干员，干员ID: {}", playerId, operatorId);
+
+            // 带经验道具时消耗道具升级，道具全部足够才扣除
+            if (request.getItemList() != null && !request.getItemList().isEmpty()) {
+                OperatorLevelUpResult result = operatorService.levelUpOperatorWithExpItems(playerId, request);
+                Response response = result.isSuccess() ?
+                    Response.success("升级成功", result) :
+                    Response.error("升级失败：" + result.getErrorMessage());
+                session.sendResponse(MessageId.RESP_LEVEL_UP_OPERATOR.getId(), response);
+                log.info("玩家 {} {} 干员 {}", playerId, result.isSuccess() ? "使用经验道具升级" : "使用经验道具升级失败", operatorId);
+                return;
+            }
             
             boolean success = operatorService.levelUpOperator(playerId, operatorId);
             
@@ -98,13 +108,13 @@ public class OperatorHandler {
                 Response.success("升级成功", new OperatorData(operatorId)) :
                 Response.error("升级失败");
             
-            session.sendMessage(MessageId.RESP_LEVEL_UP_OPERATOR.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_LEVEL_UP_OPERATOR.getId(), response);
             log.info("玩家 {} {} 干员 {}", playerId, success ? "升级" : "升级失败", operatorId);
             
         } catch (Exception e) {
             log.error("升级干员失败，玩家ID: {}", session.getPlayerId(), e);
             Response response = Response.error("升级干员失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.ERROR_MSG.getId(), response);
         }
     }
     
@@ -113,13 +123,10 @@ public class OperatorHandler {
      */
     public void handleEliteOperator(PlayerSession session, GameMessage message) {
         try {
-            String requestData = new String(message.getPayload());
-            
             // 使用MessageUtil通用转换
-            OperatorRequest request = MessageUtil.convertMessage(requestData, OperatorRequest.class);
+            OperatorRequest request = MessageUtil.convertMessage(session, message, OperatorRequest.class);
             if (request == null) {
-                Response response = Response.error("无效的请求数据格式");
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_REQUEST);
                 return;
             }
             
@@ -127,7 +134,7 @@ public class OperatorHandler {
             String validationError = validateOperatorRequest(request);
             if (validationError != null) {
                 Response response = Response.error(validationError);
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.ERROR_MSG.getId(), response);
                 return;
             }
             
@@ -141,13 +148,13 @@ public class OperatorHandler {
                 Response.success("精英化成功", new OperatorData(operatorId)) :
                 Response.error("精英化失败");
             
-            session.sendMessage(MessageId.RESP_ELITE_OPERATOR.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_ELITE_OPERATOR.getId(), response);
             log.info("玩家 {} {} 干员 {}", playerId, success ? "精英化" : "精英化失败", operatorId);
             
         } catch (Exception e) {
             log.error("精英化干员失败，玩家ID: {}", session.getPlayerId(), e);
             Response response = Response.error("精英化干员失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.ERROR_MSG.getId(), response);
         }
     }
     
@@ -156,13 +163,10 @@ public class OperatorHandler {
      */
     public void handleUpgradeSkill(PlayerSession session, GameMessage message) {
         try {
-            String requestData = new String(message.getPayload());
-            
             // 使用MessageUtil通用转换
-            OperatorRequest request = MessageUtil.convertMessage(requestData, OperatorRequest.class);
+            OperatorRequest request = MessageUtil.convertMessage(session, message, OperatorRequest.class);
             if (request == null) {
-                Response response = Response.error("无效的请求数据格式");
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_REQUEST);
                 return;
             }
             
@@ -170,7 +174,7 @@ public class OperatorHandler {
             String validationError = validateOperatorRequest(request);
             if (validationError != null) {
                 Response response = Response.error(validationError);
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.ERROR_MSG.getId(), response);
                 return;
             }
             
@@ -184,13 +188,13 @@ public class OperatorHandler {
                 Response.success("技能升级成功", new OperatorData(operatorId)) :
                 Response.error("技能升级失败");
             
-            session.sendMessage(MessageId.RESP_UPGRADE_SKILL.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_UPGRADE_SKILL.getId(), response);
             log.info("玩家 {} {} 技能，干员ID: {}", playerId, success ? "升级" : "升级失败", operatorId);
             
         } catch (Exception e) {
             log.error("升级技能失败，玩家ID: {}", session.getPlayerId(), e);
             Response response = Response.error("升级技能失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.ERROR_MSG.getId(), response);
         }
     }
     
@@ -199,13 +203,10 @@ public class OperatorHandler {
      */
     public void handleMasterSkill(PlayerSession session, GameMessage message) {
         try {
-            String requestData = new String(message.getPayload());
-            
             // 使用MessageUtil通用转换
-            OperatorRequest request = MessageUtil.convertMessage(requestData, OperatorRequest.class);
+            OperatorRequest request = MessageUtil.convertMessage(session, message, OperatorRequest.class);
             if (request == null) {
-                Response response = Response.error("无效的请求数据格式");
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_REQUEST);
                 return;
             }
             
@@ -213,7 +214,7 @@ public class OperatorHandler {
             String validationError = validateOperatorRequest(request);
             if (validationError != null) {
                 Response response = Response.error(validationError);
-                session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.ERROR_MSG.getId(), response);
                 return;
             }
             
@@ -227,13 +228,13 @@ public class OperatorHandler {
                 Response.success("技能专精成功", new OperatorData(operatorId)) :
                 Response.error("技能专精失败");
             
-            session.sendMessage(MessageId.RESP_MASTER_SKILL.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.RESP_MASTER_SKILL.getId(), response);
             log.info("玩家 {} {} 技能专精，干员ID: {}", playerId, success ? "完成" : "失败", operatorId);
             
         } catch (Exception e) {
             log.error("技能专精失败，玩家ID: {}", session.getPlayerId(), e);
             Response response = Response.error("技能专精失败：服务器内部错误");
-            session.sendMessage(MessageId.ERROR_MSG.getId(), gson.toJson(response).getBytes());
+            session.sendResponse(MessageId.ERROR_MSG.getId(), response);
         }
     }
     
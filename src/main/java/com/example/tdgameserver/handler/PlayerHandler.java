@@ -1,30 +1,61 @@
 package com.example.tdgameserver.handler;
 
 import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.gateway.LinkChildChannel;
+import com.example.tdgameserver.gateway.NodeLinkServer;
 import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameMessageDispatcher;
 import com.example.tdgameserver.network.GameMessageHandlerRegistry;
 import com.example.tdgameserver.network.MessageId;
 import com.example.tdgameserver.network.Response;
-import com.example.tdgameserver.service.PlayerService;
+import com.example.tdgameserver.protocol.CachedResponse;
+import com.example.tdgameserver.protocol.PayloadFormat;
+import com.example.tdgameserver.requestEntity.ResumeRequest;
+import com.example.tdgameserver.service.LoginService;
+import com.example.tdgameserver.service.PlayerDataService;
 import com.example.tdgameserver.session.PlayerSession;
+import com.example.tdgameserver.session.ResumeInfo;
+import com.example.tdgameserver.session.SessionResumeService;
 import com.example.tdgameserver.session.SessionManager;
 import com.example.tdgameserver.util.MessageUtil;
-import com.google.gson.Gson;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
 @Slf4j
 @Component
 public class PlayerHandler {
+    private static final CachedResponse INVALID_LOGIN_DATA = new CachedResponse(MessageId.RESP_LOGIN.getId(),
+            Response.error("登录失败：无效的登录数据格式"));
+    private static final CachedResponse LOGIN_INTERNAL_ERROR = new CachedResponse(MessageId.RESP_LOGIN.getId(),
+            Response.error("登录失败：服务器内部错误"));
+    private static final CachedResponse LOGIN_BUSY = new CachedResponse(MessageId.RESP_LOGIN.getId(),
+            Response.error("登录失败：服务器繁忙，请稍后重试"));
+    private static final CachedResponse LOGIN_DRAINING = new CachedResponse(MessageId.RESP_LOGIN.getId(),
+            Response.error("登录失败：服务器维护中，请稍后重试"));
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    @Autowired
+    private LoginService loginService;
+
+    @Autowired
+    private GameMessageDispatcher dispatcher;
 
     @Autowired
-    private PlayerService playerService;
+    private NodeLinkServer nodeLinkServer;
+
+    @Autowired
+    private SessionResumeService resumeService;
+
+    @Autowired
+    private PlayerDataService playerDataService;
 
     private final GameMessageHandlerRegistry handlerRegistry = GameMessageHandlerRegistry.getInstance();
     private final SessionManager sessionManager;
-    private final Gson gson = new Gson();
 
     public PlayerHandler() {
         this.sessionManager = SessionManager.getInstance();
@@ -33,6 +64,7 @@ public class PlayerHandler {
 
     public void registerHandlers() {
         handlerRegistry.registerHandler(MessageId.REQ_LOGIN.getId(), this::handleLogin);
+        handlerRegistry.registerHandler(MessageId.REQ_RESUME.getId(), this::handleResume);
     }
 
     /**
@@ -40,38 +72,78 @@ public class PlayerHandler {
      */
     public void handleLogin(PlayerSession session, GameMessage message) {
         try {
-            String loginData = new String(message.getPayload());
-            log.info("收到登录请求：{}", loginData);
-            
+            // 登录消息可以是JSON或protobuf，按实际内容选择解码器，登录结果也用同样的格式返回
+            session.setCodec(PayloadFormat.detect(message.content()).getCodec());
+
+            // 排空期间不再接受直连客户端登录；经网关接入的连接会连同登录结果一起迁走，照常处理
+            if (nodeLinkServer.isDraining() && !(session.getChannel() instanceof LinkChildChannel)) {
+                session.sendResponse(LOGIN_DRAINING);
+                return;
+            }
+
             // 使用MessageUtil通用转换接口
-            LoginRequest loginRequest = MessageUtil.convertMessage(loginData, LoginRequest.class);
+            LoginRequest loginRequest = MessageUtil.convertMessage(session, message, LoginRequest.class);
             if (loginRequest == null) {
-                Response response = Response.error("登录失败：无效的登录数据格式");
-                session.sendMessage(MessageId.RESP_LOGIN.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(INVALID_LOGIN_DATA);
                 return;
             }
             
+            log.info("收到登录请求：{}", loginRequest.getUsername());
+
             // 验证用户名和密码
             String validationError = validateLoginRequest(loginRequest);
             if (validationError != null) {
                 Response response = Response.error("登录失败：" + validationError);
-                session.sendMessage(MessageId.RESP_LOGIN.getId(), gson.toJson(response).getBytes());
+                session.sendResponse(MessageId.RESP_LOGIN.getId(), response);
                 return;
             }
             
-            // 通过PlayerService查询数据库验证用户
-            Player player = playerService.authenticatePlayer(loginRequest.getUsername(), loginRequest.getPassword());
+            // 查询和密码校验在登录线程池上异步完成，期间挂起该玩家的消息队列，
+            // 客户端紧跟在登录后面发送的请求等登录结果出来再处理
+            int sequence = session.getRequestSequence();
+            Runnable resume = dispatcher.suspend(session);
+            loginService.authenticate(loginRequest.getUsername(), loginRequest.getPassword())
+                    .whenComplete((player, error) -> completeLogin(session, loginRequest, sequence, player, error)
+                            .whenComplete((ignored, e) -> resume.run()));
+        } catch (Exception e) {
+            log.error("处理登录消息失败", e);
+            session.sendResponse(LOGIN_INTERNAL_ERROR);
+        }
+    }
+
+    /**
+     * 登录校验完成后的处理，在登录线程上执行
+     * @return 登录结果处理完成时完成，之后才恢复该玩家的消息队列
+     */
+    private CompletableFuture<Void> completeLogin(PlayerSession session, LoginRequest loginRequest, int sequence,
+                                                  Player player, Throwable error) {
+        try {
+            if (error != null) {
+                if (error instanceof RejectedExecutionException) {
+                    log.warn("登录校验繁忙，拒绝登录：{}", loginRequest.getUsername());
+                    session.sendResponse(LOGIN_BUSY, sequence);
+                } else {
+                    log.error("登录校验失败", error);
+                    session.sendResponse(LOGIN_INTERNAL_ERROR, sequence);
+                }
+                return DONE;
+            }
             if (player != null) {
-                handleSuccessfulLogin(session, player);
-            } else {
-                handleFailedLogin(session, loginRequest.getUsername());
+                // 登录成功后按客户端要求切换该连接的编码格式，未指定时沿用登录消息的格式
+                if (loginRequest.getProtocol() != null) {
+                    session.setCodec(PayloadFormat.of(loginRequest.getProtocol()).getCodec());
+                }
+                if (Boolean.TRUE.equals(loginRequest.getCompression())) {
+                    session.enableCompression();
+                }
+                return handleSuccessfulLogin(session, player, sequence);
             }
-            
+            handleFailedLogin(session, loginRequest.getUsername(), sequence);
         } catch (Exception e) {
-            log.error("处理登录消息失败", e);
-            Response response = Response.error("登录失败：服务器内部错误");
-            session.sendMessage(MessageId.RESP_LOGIN.getId(), gson.toJson(response).getBytes());
+            log.error("处理登录结果失败", e);
+            session.sendResponse(LOGIN_INTERNAL_ERROR, sequence);
         }
+        return DONE;
     }
     
     /**
@@ -90,25 +162,65 @@ public class PlayerHandler {
     /**
      * 处理登录成功
      */
-    private void handleSuccessfulLogin(PlayerSession session, Player player) {
+    private CompletableFuture<Void> handleSuccessfulLogin(PlayerSession session, Player player, int sequence) {
+        // 玩家数据一次性载入内存，之后的业务读写不再访问数据库
+        playerDataService.load(player);
+        // 重复登录时先停用旧会话的消息队列，丢弃积压的消息并等正在执行的处理器结束，
+        // 再绑定新会话并恢复新会话的队列，新旧会话的处理器不会同时读写该玩家的数据
+        PlayerSession previous = sessionManager.getSessionsByPlayerId(player.getId());
+        CompletableFuture<Void> retired = previous != null && previous != session
+                ? dispatcher.retire(previous) : DONE;
+        return retired.thenRun(() -> bindSession(session, player, sequence))
+                .exceptionally(e -> {
+                    log.error("处理登录结果失败", e);
+                    session.sendResponse(LOGIN_INTERNAL_ERROR, sequence);
+                    return null;
+                });
+    }
+
+    /**
+     * 绑定登录成功的会话并回复登录结果，可能在分发线程上执行(等待旧会话的处理器结束时)
+     */
+    private void bindSession(PlayerSession session, Player player, int sequence) {
         session.setAuthenticated(player.getPlayerName(), player.getId());
         sessionManager.bindPlayerId(player.getId(), session);
 
-        log.info("玩家 {} 身份验证成功，ID：{}", player.getPlayerName(), player.getId());
+        log.info("玩家 {} 身份验证成功，ID：{}，编码格式：{}", player.getPlayerName(), player.getId(), session.getCodec().format());
         
         String successMsg = "登录成功，欢迎 " + player.getPlayerName() + "！";
-        Response response = Response.success(successMsg, player);
-        session.sendMessage(MessageId.RESP_LOGIN.getId(), gson.toJson(response).getBytes());
+        // 返回给客户端的玩家信息不带密码哈希
+        Player playerInfo = new Player(player.getId(), player.getPlayerName(), null,
+                player.getCreateTime(), player.getUpdateTime());
+        Response response = Response.success(successMsg, playerInfo);
+        session.sendResponse(MessageId.RESP_LOGIN.getId(), response, sequence);
+
+        // 直连客户端下发恢复令牌，断线后凭它重连可跳过登录
+        ResumeInfo resumeInfo = resumeService.issue(session);
+        if (resumeInfo != null) {
+            session.sendResponse(MessageId.PUSH_RESUME_TOKEN.getId(), Response.success("恢复令牌", resumeInfo), 0);
+        }
+    }
+
+    /**
+     * 处理断线重连请求，必须是新连接上的第一条消息
+     */
+    public void handleResume(PlayerSession session, GameMessage message) {
+        session.setCodec(PayloadFormat.detect(message.content()).getCodec());
+        ResumeRequest request = MessageUtil.convertMessage(session, message, ResumeRequest.class);
+        if (request == null) {
+            request = new ResumeRequest();
+        }
+        resumeService.resume(session, request);
     }
     
     /**
      * 处理登录失败
      */
-    private void handleFailedLogin(PlayerSession session, String username) {
+    private void handleFailedLogin(PlayerSession session, String username, int sequence) {
         log.warn("玩家 {} 身份验证失败，用户不存在或密码不正确", username);
         String errorMsg = "登录失败：用户名或密码错误，请检查您的凭据";
         Response response = Response.error(errorMsg);
-        session.sendMessage(MessageId.RESP_LOGIN.getId(), gson.toJson(response).getBytes());
+        session.sendResponse(MessageId.RESP_LOGIN.getId(), response, sequence);
     }
 
     /**
@@ -118,5 +230,13 @@ public class PlayerHandler {
     public static class LoginRequest {
         private String username;
         private String password;
+        /**
+         * 连接的编码格式：0-JSON(默认)，1-protobuf
+         */
+        private Integer protocol;
+        /**
+         * 客户端是否支持压缩帧
+         */
+        private Boolean compression;
     }
 } 
\ No newline at end of file
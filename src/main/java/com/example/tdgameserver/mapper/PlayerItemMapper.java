@@ -1,5 +1,6 @@
 package com.example.tdgameserver.mapper;
 
+import com.example.tdgameserver.datasource.ReadOnly;
 import com.example.tdgameserver.entity.backpack.PlayerItem;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
@@ -17,6 +18,7 @@ public interface PlayerItemMapper {
      * @param playerId 玩家ID
      * @return 道具列表
      */
+    @ReadOnly
     List<PlayerItem> selectByPlayerId(@Param("playerId") Integer playerId);
     
     /**
@@ -66,6 +68,27 @@ public interface PlayerItemMapper {
      */
     int updateQuantity(@Param("playerId") Integer playerId, @Param("itemId") Integer itemId, @Param("quantity") Integer quantity);
     
+    /**
+     * 按玩家ID和道具ID写入道具数量，不存在时插入，已存在时覆盖，用于写回内存中的玩家数据
+     * @param playerItem 道具信息
+     * @return 影响行数
+     */
+    int upsert(PlayerItem playerItem);
+    
+    /**
+     * 多行写入道具数量，已存在的行(按uk_player_item)覆盖为新数量，用于批量写回内存中的玩家数据
+     * @param items 道具列表，不能为空
+     * @return 影响行数
+     */
+    int batchUpsert(@Param("items") List<PlayerItem> items);
+    
+    /**
+     * 多行累加道具数量，不存在的行插入，已存在的行(按uk_player_item)在原数量上累加，用于批量发放和写回内存中的玩家数据
+     * @param items 道具列表，quantity为增加的数量(写回时可以为负)，不能为空
+     * @return 影响行数
+     */
+    int batchAddQuantity(@Param("items") List<PlayerItem> items);
+    
     /**
      * 增加道具数量
      * @param playerId 玩家ID
@@ -92,6 +115,22 @@ public interface PlayerItemMapper {
      */
     int deleteByPlayerIdAndItemId(@Param("playerId") Integer playerId, @Param("itemId") Integer itemId);
     
+    /**
+     * 根据玩家ID和道具ID列表删除道具
+     * @param playerId 玩家ID
+     * @param itemIds 道具ID列表，不能为空
+     * @return 影响行数
+     */
+    int deleteByPlayerIdAndItemIds(@Param("playerId") Integer playerId, @Param("itemIds") List<Integer> itemIds);
+    
+    /**
+     * 删除指定道具中数量已不大于0的行，累加写回后清理用完的道具；其间被其他节点累加过的行保留
+     * @param playerId 玩家ID
+     * @param itemIds 道具ID列表，不能为空
+     * @return 影响行数
+     */
+    int deleteEmptyByPlayerIdAndItemIds(@Param("playerId") Integer playerId, @Param("itemIds") List<Integer> itemIds);
+    
     /**
      * 根据玩家ID删除所有道具
      * @param playerId 玩家ID
@@ -1,5 +1,6 @@
 package com.example.tdgameserver.mapper;
 
+import com.example.tdgameserver.datasource.ReadOnly;
 import com.example.tdgameserver.entity.player.Player;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
@@ -26,6 +27,13 @@ public interface PlayerMapper {
      */
     Player selectByPlayerName(@Param("playerName") String playerName);
     
+    /**
+     * 按多个玩家名称批量查询，用于合并并发的登录查询
+     * @param playerNames 玩家名称列表
+     * @return 存在的玩家列表
+     */
+    List<Player> selectByPlayerNames(@Param("playerNames") List<String> playerNames);
+    
     /**
      * 插入新玩家
      * @param player 玩家信息
@@ -40,6 +48,14 @@ public interface PlayerMapper {
      */
     int update(Player player);
     
+    /**
+     * 更新玩家密码(哈希)
+     * @param id 玩家ID
+     * @param password 密码哈希
+     * @return 影响行数
+     */
+    int updatePassword(@Param("id") Integer id, @Param("password") String password);
+    
     /**
      * 根据玩家ID删除玩家
      * @param playerId 玩家ID
@@ -51,6 +67,7 @@ public interface PlayerMapper {
      * 查询所有玩家
      * @return 玩家列表
      */
+    @ReadOnly
     List<Player> selectAll();
     
     /**
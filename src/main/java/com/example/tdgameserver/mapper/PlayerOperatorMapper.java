@@ -1,5 +1,6 @@
 package com.example.tdgameserver.mapper;
 
+import com.example.tdgameserver.datasource.ReadOnly;
 import com.example.tdgameserver.entity.operator.PlayerOperator;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
@@ -32,6 +33,7 @@ public interface PlayerOperatorMapper {
      * @param playerId 玩家ID
      * @return 干员关联信息列表
      */
+    @ReadOnly
     List<PlayerOperator> selectByPlayerId(@Param("playerId") Integer playerId);
     
     /**
@@ -64,6 +66,20 @@ public interface PlayerOperatorMapper {
      */
     int update(PlayerOperator playerOperator);
     
+    /**
+     * 按玩家ID和干员ID写入干员信息，不存在时插入，已存在时更新，用于写回内存中的玩家数据
+     * @param playerOperator 玩家干员关联信息
+     * @return 影响行数
+     */
+    int upsert(PlayerOperator playerOperator);
+    
+    /**
+     * 多行写入干员信息，已存在的行(按uk_player_operator)更新，用于批量写回内存中的玩家数据
+     * @param operators 干员列表，不能为空
+     * @return 影响行数
+     */
+    int batchUpsert(@Param("operators") List<PlayerOperator> operators);
+    
     /**
      * 根据ID删除玩家干员关联信息
      * @param id 主键ID
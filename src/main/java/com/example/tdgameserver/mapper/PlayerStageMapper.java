@@ -1,5 +1,6 @@
 package com.example.tdgameserver.mapper;
 
+import com.example.tdgameserver.datasource.ReadOnly;
 import com.example.tdgameserver.entity.stage.PlayerStage;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
@@ -24,6 +25,7 @@ public interface PlayerStageMapper {
     /**
      * 根据玩家ID查询所有通关记录
      */
+    @ReadOnly
     List<PlayerStage> selectByPlayerId(@Param("playerId") int playerId);
     
     /**
@@ -31,6 +33,16 @@ public interface PlayerStageMapper {
      */
     int update(PlayerStage playerStage);
     
+    /**
+     * 按玩家ID和关卡ID写入通关记录，不存在时插入，已存在时更新，用于写回内存中的玩家数据
+     */
+    int upsert(PlayerStage playerStage);
+    
+    /**
+     * 多行写入通关记录，已存在的行(按uk_player_stage)更新，用于批量写回内存中的玩家数据
+     */
+    int batchUpsert(@Param("stages") List<PlayerStage> stages);
+    
     /**
      * 根据玩家ID和关卡ID删除通关记录
      */
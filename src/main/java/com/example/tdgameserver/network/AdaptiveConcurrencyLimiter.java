@@ -0,0 +1,92 @@
+package com.example.tdgameserver.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自适应在途请求数限制(梯度算法)
+ * 用请求从入队到处理完的延迟估计负载：短期均值相对长期基线升高时按比例收缩限制，延迟平稳时每次放宽约sqrt(limit)，
+ * 限制收敛到刚好不让请求排队的并发度。数据库变慢时限制随之收缩，多出来的请求立即拒绝，不在队列里堆积拖垮所有玩家的延迟
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final double SMOOTHING = 0.2;
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    //以下只在onComplete的锁内访问
+    private double shortRtt;
+    private double longRtt;
+    private long samples;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * 申请一个在途名额，该优先级可用的份额已满时返回false
+     */
+    public boolean tryAcquire(RequestPriority priority) {
+        int allowed = Math.max(1, (int) (limit * priority.getShare()));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求未执行就被丢弃时归还名额，不计入延迟
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 请求处理完毕，归还名额并按本次延迟调整限制
+     */
+    public void onComplete(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            samples++;
+            if (samples == 1) {
+                shortRtt = rttNanos;
+                longRtt = rttNanos;
+                return;
+            }
+            shortRtt += (rttNanos - shortRtt) / Math.min(samples, SHORT_WINDOW);
+            longRtt += (rttNanos - longRtt) / Math.min(samples, LONG_WINDOW);
+            // 负载下降后延迟回落，基线跟着快速回落，避免长期按过高的基线放宽
+            if (longRtt / shortRtt > 2) {
+                longRtt *= 0.95;
+            }
+            double currentLimit = limit;
+            // 在途请求远低于限制时延迟不能反映容量，不调整
+            if (current < currentLimit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+            double newLimit = currentLimit * gradient + Math.sqrt(currentLimit);
+            newLimit = currentLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.tdgameserver.network;
+
+import com.example.tdgameserver.session.PlayerSession;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 玩家消息串行队列
+ * 每个会话持有一个，保证同一玩家的消息按到达顺序依次处理，不同玩家之间并行
+ */
+public class DispatchLane {
+    final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    //队列中的消息数
+    final AtomicInteger size = new AtomicInteger();
+    //是否已提交到线程池(或正在执行)
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    //挂起状态，见GameMessageDispatcher.suspend
+    final AtomicInteger suspendState = new AtomicInteger(NOT_SUSPENDED);
+    //停用后不为null，队列空闲时完成，见GameMessageDispatcher.retire
+    final AtomicReference<CompletableFuture<Void>> retired = new AtomicReference<>();
+
+    static final int NOT_SUSPENDED = 0;
+    //处理器请求挂起，drain尚未退出
+    static final int SUSPENDING = 1;
+    //drain已退出，等待恢复
+    static final int SUSPENDED = 2;
+    //drain退出前就已恢复
+    static final int RESUMED_EARLY = 3;
+
+    /**
+     * 当前积压的消息数
+     */
+    public int size() {
+        return size.get();
+    }
+
+    static final class Task {
+        final PlayerSession session;
+        final GameMessage message;
+        final GameMessageHandler processor;
+        final long enqueueNanos;
+        //是否占用了并发限制的名额
+        final boolean limited;
+        //是否是客户端请求，丢弃时回复繁忙
+        final boolean request;
+
+        Task(PlayerSession session, GameMessage message, GameMessageHandler processor, long enqueueNanos,
+             boolean limited, boolean request) {
+            this.session = session;
+            this.message = message;
+            this.processor = processor;
+            this.enqueueNanos = enqueueNanos;
+            this.limited = limited;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.tdgameserver.network;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 已编码好的完整帧(含帧头)，编码器不再处理，直接写出
+ * 用于广播：同一份帧只编码一次，各接收者持有它的retainedDuplicate
+ */
+public class EncodedFrame extends GameMessage {
+
+    public EncodedFrame(int messageId, ByteBuf frame) {
+        super(messageId, frame);
+    }
+
+    /**
+     * 整帧长度，已包含帧头
+     */
+    public int getFrameLength() {
+        return content().readableBytes();
+    }
+
+    @Override
+    public EncodedFrame replace(ByteBuf content) {
+        return new EncodedFrame(getMessageId(), content);
+    }
+
+    @Override
+    public EncodedFrame duplicate() {
+        return replace(content().duplicate());
+    }
+
+    @Override
+    public EncodedFrame retainedDuplicate() {
+        return replace(content().retainedDuplicate());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.tdgameserver.network;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 帧级别压缩
+ * 使用zlib格式的deflate，每帧独立压缩并使用预置字典，客户端需内置同一份字典。
+ * Deflater/Inflater按线程复用(主要是I/O线程)，不为每个连接分配压缩上下文
+ */
+public final class FrameCompression {
+
+    /**
+     * 连接是否接受压缩帧，客户端在登录时声明
+     */
+    public static final AttributeKey<Boolean> ENABLED = AttributeKey.valueOf("frameCompression");
+
+    /**
+     * 预置字典：响应JSON中常见的字段名和提示文本，越常用的越靠后
+     * 修改字典需要同步更新客户端，否则无法解压
+     */
+    private static final byte[] DICTIONARY = ("获取玩家关卡记录成功获取干员列表成功获取背包成功服务器内部错误"
+            + "\"operatorIds\":\"\"passTime\":\"stageId\":\"star\":"
+            + "\"playerName\":\"password\":\"skillMastery\":\"skillLevel\":\"currentExp\":"
+            + "\"eliteLevel\":\"level\":\"operatorId\":\"createTime\":\"updateTime\":"
+            + "\"itemId\":\"quantity\":\"playerId\":{\"id\":"
+            + "{\"success\":false,\"message\":\"{\"success\":true,\"message\":\"\",\"data\":[{\"id\":")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final Counter RAW_BYTES = Metrics.counter("game.compression.raw.bytes");
+    private static final Counter COMPRESSED_BYTES = Metrics.counter("game.compression.compressed.bytes");
+
+    private static final FastThreadLocal<Deflater> DEFLATERS = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> INFLATERS = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) {
+            inflater.end();
+        }
+    };
+
+    //达到该长度的消息体才压缩，Integer.MAX_VALUE表示关闭压缩
+    private static volatile int threshold = Integer.MAX_VALUE;
+    private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+    private FrameCompression() {
+    }
+
+    /**
+     * 应用压缩配置，服务器启动时调用
+     */
+    public static void configure(GameServerProperties.Compression compression) {
+        threshold = compression.isEnabled() ? compression.getThreshold() : Integer.MAX_VALUE;
+        level = compression.getLevel();
+    }
+
+    /**
+     * 该连接上这个长度的消息体是否应该压缩
+     */
+    public static boolean shouldCompress(Channel channel, int payloadLength) {
+        return payloadLength >= threshold && Boolean.TRUE.equals(channel.attr(ENABLED).get());
+    }
+
+    /**
+     * 压缩消息体，压缩后不比原始数据小时返回null，调用方应按原样发送
+     */
+    public static ByteBuf deflate(ByteBufAllocator alloc, ByteBuf payload) {
+        int length = payload.readableBytes();
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(payload.nioBuffer());
+        deflater.finish();
+
+        ByteBuf out = alloc.ioBuffer(length);
+        ByteBuffer dst = out.nioBuffer(0, length);
+        while (!deflater.finished()) {
+            deflater.deflate(dst);
+            if (!dst.hasRemaining() && !deflater.finished()) {
+                out.release();
+                return null;
+            }
+        }
+        out.writerIndex(dst.position());
+        RAW_BYTES.increment(length);
+        COMPRESSED_BYTES.increment(out.readableBytes());
+        return out;
+    }
+
+    /**
+     * 解压消息体，解压后超过maxLength视为异常帧
+     */
+    public static ByteBuf inflate(ByteBufAllocator alloc, ByteBuf payload, int maxLength) throws Exception {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(payload.nioBuffer());
+
+        ByteBuf out = alloc.ioBuffer(Math.min(Math.max(payload.readableBytes() * 4, 256), maxLength), maxLength);
+        try {
+            while (!inflater.finished()) {
+                if (!out.isWritable()) {
+                    if (out.writerIndex() >= maxLength) {
+                        throw new TooLongFrameException("解压后的消息体超过最大长度: " + maxLength);
+                    }
+                    out.ensureWritable(Math.min(out.writerIndex(), maxLength - out.writerIndex()));
+                }
+                ByteBuffer dst = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                int n = inflater.inflate(dst);
+                out.writerIndex(out.writerIndex() + n);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new CorruptedFrameException("压缩数据不完整");
+                    }
+                }
+            }
+            return out;
+        } catch (DataFormatException e) {
+            out.release();
+            throw new CorruptedFrameException("压缩数据格式错误", e);
+        } catch (Exception e) {
+            out.release();
+            throw e;
+        }
+    }
+}
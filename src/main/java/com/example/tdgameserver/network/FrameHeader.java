@@ -0,0 +1,89 @@
+package com.example.tdgameserver.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 帧头格式
+ * [消息ID 4字节][标志位 1字节 + 消息体长度 3字节][请求序号 4字节，仅FLAG_SEQUENCED][幂等键 8字节，仅FLAG_IDEMPOTENT][消息体]
+ * 长度字段的最高字节用作标志位，低24位为消息体长度(不含扩展头)，因此单帧消息体最大16MB
+ */
+public final class FrameHeader {
+    //消息头长度(消息ID 4字节 + 标志位/消息长度 4字节)
+    public static final int HEADER_LENGTH = 8;
+
+    public static final int FLAGS_SHIFT = 24;
+    public static final int LENGTH_MASK = 0x00FFFFFF;
+    public static final int MAX_PAYLOAD_LENGTH = LENGTH_MASK;
+
+    /**
+     * 消息体经过deflate压缩(zlib格式，使用预置字典)
+     */
+    public static final int FLAG_COMPRESSED = 0x80;
+
+    /**
+     * 帧头后带4字节请求序号。客户端发出带序号的请求后，该连接进入序号模式：
+     * 响应原样带回请求的序号，服务器主动推送的消息序号为0
+     */
+    public static final int FLAG_SEQUENCED = 0x40;
+
+    public static final int SEQUENCE_LENGTH = 4;
+
+    /**
+     * 请求帧头后(请求序号之后)带8字节幂等键，仅用于上行请求。
+     * 客户端重试同一请求时带相同的键，服务器直接回复首次处理时的响应，不再重复执行
+     */
+    public static final int FLAG_IDEMPOTENT = 0x20;
+
+    public static final int IDEMPOTENCY_KEY_LENGTH = 8;
+
+    /**
+     * 连接是否已进入序号模式
+     */
+    public static final AttributeKey<Boolean> SEQUENCED = AttributeKey.valueOf("frameSequenced");
+
+    private FrameHeader() {
+    }
+
+    /**
+     * 连接是否已进入序号模式
+     */
+    public static boolean isSequenced(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(SEQUENCED).get());
+    }
+
+    /**
+     * 写入帧头，sequence仅在flags含FLAG_SEQUENCED时写入
+     */
+    public static void write(ByteBuf out, int messageId, int flags, int length, int sequence) {
+        //消息ID(4字节)
+        out.writeInt(messageId);
+        //标志位和消息体长度(4字节)
+        out.writeInt(lengthField(flags, length));
+        if ((flags & FLAG_SEQUENCED) != 0) {
+            //请求序号(4字节)，主动推送为0
+            out.writeInt(sequence);
+        }
+    }
+
+    public static int flags(int lengthField) {
+        return lengthField >>> FLAGS_SHIFT;
+    }
+
+    public static int length(int lengthField) {
+        return lengthField & LENGTH_MASK;
+    }
+
+    /**
+     * 标志位对应的扩展头长度
+     */
+    public static int extensionLength(int flags) {
+        return ((flags & FLAG_SEQUENCED) != 0 ? SEQUENCE_LENGTH : 0)
+                + ((flags & FLAG_IDEMPOTENT) != 0 ? IDEMPOTENCY_KEY_LENGTH : 0);
+    }
+
+    public static int lengthField(int flags, int length) {
+        return (flags << FLAGS_SHIFT) | (length & LENGTH_MASK);
+    }
+}
@@ -1,22 +1,124 @@
 package com.example.tdgameserver.network;
 
-import lombok.Data;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
 
-@Data
-public class GameMessage {
-    public int messageId; //消息Id
-    public byte[] payload; //消息内容
+import java.nio.charset.StandardCharsets;
 
-    public GameMessage() {
-    }
+/**
+ * 游戏消息
+ * 消息体以引用计数的ByteBuf持有：入站消息是解码器从池化缓冲区切出的retained slice，
+ * 处理器应直接在content()上解析，处理完毕后由GameServerHandler统一release
+ */
+public class GameMessage extends DefaultByteBufHolder {
+    private final int messageId; //消息Id
+    private final int sequence;  //请求序号，0表示不带序号
+    private final long idempotencyKey; //请求的幂等键，0表示不带
 
     public GameMessage(int messageId) {
-        this.messageId = messageId;
-        this.payload = new byte[1];
+        this(messageId, Unpooled.wrappedBuffer(new byte[1]));
+    }
+
+    public GameMessage(int messageId, byte[] payload) {
+        this(messageId, Unpooled.wrappedBuffer(payload));
+    }
+
+    public GameMessage(int messageId, ByteBuf content) {
+        this(messageId, 0, content);
+    }
+
+    public GameMessage(int messageId, int sequence, ByteBuf content) {
+        this(messageId, sequence, 0, content);
     }
 
-    public GameMessage(int messageId, byte[] payload){
+    public GameMessage(int messageId, int sequence, long idempotencyKey, ByteBuf content) {
+        super(content);
         this.messageId = messageId;
-        this.payload = payload;
+        this.sequence = sequence;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * 消息体长度
+     */
+    public int getPayloadLength() {
+        return content().readableBytes();
+    }
+
+    /**
+     * 复制出消息体字节数组，会产生一次拷贝，仅在确实需要byte[]时使用
+     */
+    public byte[] getPayload() {
+        return ByteBufUtil.getBytes(content());
+    }
+
+    /**
+     * 按UTF-8解码消息体
+     */
+    public String getPayloadAsString() {
+        return content().toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public GameMessage replace(ByteBuf content) {
+        return new GameMessage(messageId, sequence, idempotencyKey, content);
+    }
+
+    @Override
+    public GameMessage copy() {
+        return (GameMessage) super.copy();
+    }
+
+    @Override
+    public GameMessage duplicate() {
+        return (GameMessage) super.duplicate();
+    }
+
+    @Override
+    public GameMessage retainedDuplicate() {
+        return (GameMessage) super.retainedDuplicate();
+    }
+
+    @Override
+    public GameMessage retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public GameMessage retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public GameMessage touch() {
+        super.touch();
+        return this;
+    }
+
+    @Override
+    public GameMessage touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "GameMessage{messageId=" + messageId + ", sequence=" + sequence + ", payloadLength=" + getPayloadLength() + '}';
     }
 }
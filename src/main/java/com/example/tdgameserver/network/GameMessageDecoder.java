@@ -3,39 +3,72 @@ package com.example.tdgameserver.network;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
-import java.util.List;
+import java.nio.ByteOrder;
 
-public class GameMessageDecoder extends ByteToMessageDecoder {
-    private final int Min_Length = 4;
+/**
+ * 消息解码器
+ * 帧格式见FrameHeader：[消息ID 4字节][标志位 1字节 + 消息体长度 3字节][扩展头][消息体]
+ * 由LengthFieldBasedFrameDecoder完成拆包并校验最大帧长度，未压缩的消息体不做拷贝，
+ * 直接以池化缓冲区的retained slice交给GameMessage持有；压缩的消息体在这里解压
+ */
+public class GameMessageDecoder extends LengthFieldBasedFrameDecoder {
+    private static final int LENGTH_FIELD_OFFSET = 4;
+    private static final int LENGTH_FIELD_LENGTH = 4;
+
+    private final int maxFrameLength;
+    private boolean sequenced;
+
+    public GameMessageDecoder(int maxFrameLength) {
+        super(maxFrameLength, LENGTH_FIELD_OFFSET, LENGTH_FIELD_LENGTH, 0, 0);
+        this.maxFrameLength = maxFrameLength;
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) throws Exception {
-        //确保有足够的字节可读
-//        if(in.readableBytes() < Min_Length){ //至少需要8字节(消息ID 4字节 + 消息长度 4字节)
-//            return;
-//        }
+    protected long getUnadjustedFrameLength(ByteBuf buf, int offset, int length, ByteOrder order) {
+        //长度字段的最高字节是标志位，帧长度还要加上标志位对应的扩展头
+        int lengthField = buf.getInt(offset);
+        return FrameHeader.length(lengthField) + FrameHeader.extensionLength(FrameHeader.flags(lengthField));
+    }
 
-        //标记当前读取位置
-        in.markReaderIndex();
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        //完整帧(含消息头)，已是cumulation的retained slice
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (frame == null) {
+            return null;
+        }
 
         //读取消息Id
-        int messageId = in.readInt();
-        //读取消息体长度
-        int length = in.readInt();
-
-        //检查消息体是否完整
-        if(in.readableBytes() < length) {
-            in.resetReaderIndex();
-            return;
+        int messageId = frame.readInt();
+        //读取标志位
+        int flags = FrameHeader.flags(frame.readInt());
+        int sequence = 0;
+        if ((flags & FrameHeader.FLAG_SEQUENCED) != 0) {
+            sequence = frame.readInt();
+            if (!sequenced) {
+                //客户端开始使用请求序号，之后该连接的所有下行帧都带序号
+                sequenced = true;
+                ctx.channel().attr(FrameHeader.SEQUENCED).set(Boolean.TRUE);
+            }
         }
+        long idempotencyKey = 0;
+        if ((flags & FrameHeader.FLAG_IDEMPOTENT) != 0) {
+            idempotencyKey = frame.readLong();
+        }
+        //剩余部分即为消息体
 
-        //读取消息体
-        byte[] payload = new byte[length];
-        in.readBytes(payload);
+        if ((flags & FrameHeader.FLAG_COMPRESSED) != 0) {
+            try {
+                return new GameMessage(messageId, sequence, idempotencyKey,
+                        FrameCompression.inflate(ctx.alloc(), frame, maxFrameLength));
+            } finally {
+                frame.release();
+            }
+        }
 
-        //创建消息对象并添加到输出列表
-        out.add(new GameMessage(messageId,payload));
+        //创建消息对象，消息体所有权转交给GameMessage
+        return new GameMessage(messageId, sequence, idempotencyKey, frame);
     }
 }
@@ -0,0 +1,344 @@
+package com.example.tdgameserver.network;
+
+import com.example.tdgameserver.protocol.CachedResponse;
+import com.example.tdgameserver.session.IdempotencyCache;
+import com.example.tdgameserver.session.PlayerSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 消息分发器
+ * 将业务处理从Netty I/O线程转移到独立的有界线程池，处理器中的同步数据库调用不再阻塞事件循环。
+ * 同一会话的消息在DispatchLane中排队串行执行，保证单个玩家的消息顺序。
+ * 客户端请求先经过自适应并发限制，过载时按优先级直接回复繁忙，而不是让所有请求在队列里越排越久。
+ * 带幂等键的重复请求由IdempotencyCache直接补发首次的响应
+ */
+@Slf4j
+@Component
+public class GameMessageDispatcher {
+    private static final CachedResponse BUSY = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("服务器繁忙，请稍后重试"));
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+
+    private ThreadPoolExecutor executor;
+    private int maxPendingPerPlayer;
+    private int maxBatch;
+
+    //所有玩家队列中等待处理的消息总数
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private Timer waitTimer;
+    private Counter rejectedCounter;
+    private AdaptiveConcurrencyLimiter limiter;
+    private final Counter[] shedCounters = new Counter[RequestPriority.values().length];
+
+    @PostConstruct
+    public void init() {
+        GameServerProperties.Dispatch config = properties.getDispatch();
+        int threads = config.getThreads() > 0 ? config.getThreads() : Runtime.getRuntime().availableProcessors() * 4;
+        maxPendingPerPlayer = config.getMaxPendingPerPlayer();
+        maxBatch = config.getMaxBatch();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(config.getQueueCapacity()), new DispatchThreadFactory());
+
+        Gauge.builder("game.dispatch.pending", pendingMessages, AtomicInteger::get)
+                .description("等待处理的消息总数")
+                .register(meterRegistry);
+        Gauge.builder("game.dispatch.queued.lanes", executor, e -> e.getQueue().size())
+                .description("等待调度的玩家队列数")
+                .register(meterRegistry);
+        Gauge.builder("game.dispatch.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行的处理线程数")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("game.dispatch.wait")
+                .description("消息从入队到开始处理的等待时间")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("game.dispatch.rejected")
+                .description("因积压过多被拒绝的消息数")
+                .register(meterRegistry);
+        if (config.isAdaptiveLimit()) {
+            limiter = new AdaptiveConcurrencyLimiter(
+                    config.getInitialLimit() > 0 ? config.getInitialLimit() : threads * 2,
+                    config.getMinLimit() > 0 ? config.getMinLimit() : threads,
+                    config.getMaxLimit(), config.getLatencyTolerance());
+            Gauge.builder("game.dispatch.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                    .description("当前的在途请求数限制")
+                    .register(meterRegistry);
+            Gauge.builder("game.dispatch.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                    .description("在途请求数(排队+处理中)")
+                    .register(meterRegistry);
+            for (RequestPriority priority : RequestPriority.values()) {
+                shedCounters[priority.ordinal()] = Counter.builder("game.dispatch.shed")
+                        .description("超过并发限制被直接拒绝的请求数")
+                        .tag("priority", priority.name())
+                        .register(meterRegistry);
+            }
+        }
+        log.info("消息分发器初始化完成，处理线程数: {}，自适应并发限制: {}", threads, limiter != null ? limiter.getLimit() : "关闭");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交一条消息到玩家的串行队列，消息的引用计数由分发器接管并在处理完毕后释放
+     * @param session 玩家会话
+     * @param message 消息
+     * @param processor 实际处理逻辑
+     * @return 是否成功入队
+     */
+    public boolean dispatch(PlayerSession session, GameMessage message, GameMessageHandler processor) {
+        return enqueue(session, message, processor, false, false);
+    }
+
+    /**
+     * 分发客户端请求：先申请并发限制的名额，该优先级的份额已满时直接回复预编码的繁忙响应。
+     * 客户端按序号等待每个请求的响应，之后因积压被拒绝或丢弃的请求同样回复繁忙
+     * @return 是否成功入队
+     */
+    public boolean dispatchRequest(PlayerSession session, GameMessage message, GameMessageHandler processor) {
+        if (limiter == null) {
+            return enqueue(session, message, processor, false, true);
+        }
+        RequestPriority priority = RequestPriority.of(message.getMessageId());
+        if (!limiter.tryAcquire(priority)) {
+            shedCounters[priority.ordinal()].increment();
+            log.debug("超过并发限制，拒绝请求：messageId = {}，limit = {}", message.getMessageId(), limiter.getLimit());
+            refuse(session, message, true);
+            return false;
+        }
+        return enqueue(session, message, processor, true, true);
+    }
+
+    private boolean enqueue(PlayerSession session, GameMessage message, GameMessageHandler processor,
+                            boolean limited, boolean request) {
+        DispatchLane lane = session.getDispatchLane();
+        if (lane.retired.get() != null) {
+            // 会话已被新登录的会话取代，不再处理它的消息
+            if (limited) {
+                limiter.release();
+            }
+            refuse(session, message, request);
+            return false;
+        }
+        if (lane.size.incrementAndGet() > maxPendingPerPlayer) {
+            lane.size.decrementAndGet();
+            if (limited) {
+                limiter.release();
+            }
+            reject(session, message, request);
+            return false;
+        }
+        pendingMessages.incrementAndGet();
+        lane.tasks.offer(new DispatchLane.Task(session, message, processor, System.nanoTime(), limited, request));
+        schedule(lane);
+        if (lane.retired.get() != null) {
+            // 入队的同时队列被停用，停用时可能没有看到这条消息
+            discard(lane);
+        }
+        return true;
+    }
+
+    private void schedule(DispatchLane lane) {
+        if (!lane.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> drain(lane));
+        } catch (RejectedExecutionException e) {
+            // 线程池已满，丢弃该玩家队列中积压的全部消息，请求逐条回复繁忙
+            rejectedCounter.increment(discard(lane));
+            idle(lane, false);
+            log.warn("消息分发线程池已满，丢弃消息");
+        }
+    }
+
+    /**
+     * 清空队列中积压的消息，请求回复繁忙并归还并发限制的名额，返回丢弃的条数
+     */
+    private int discard(DispatchLane lane) {
+        int discarded = 0;
+        DispatchLane.Task task;
+        while ((task = lane.tasks.poll()) != null) {
+            lane.size.decrementAndGet();
+            pendingMessages.decrementAndGet();
+            if (task.limited) {
+                limiter.release();
+            }
+            refuse(task.session, task.message, task.request);
+            discarded++;
+        }
+        return discarded;
+    }
+
+    /**
+     * 队列不再有drain执行：停用了就完成停用，否则按需重新调度
+     */
+    private void idle(DispatchLane lane, boolean reschedule) {
+        lane.scheduled.set(false);
+        // 先清scheduled再检查停用标记，与retire的顺序相反，两边至少有一方能完成停用
+        if (lane.retired.get() != null) {
+            finishRetire(lane);
+        } else if (reschedule && !lane.tasks.isEmpty()) {
+            schedule(lane);
+        }
+    }
+
+    private void drain(DispatchLane lane) {
+        try {
+            for (int i = 0; i < maxBatch && lane.retired.get() == null; i++) {
+                DispatchLane.Task task = lane.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                lane.size.decrementAndGet();
+                pendingMessages.decrementAndGet();
+                waitTimer.record(System.nanoTime() - task.enqueueNanos, TimeUnit.NANOSECONDS);
+                run(task);
+                if (lane.suspendState.get() != DispatchLane.NOT_SUSPENDED) {
+                    break;
+                }
+            }
+        } finally {
+            // 处理器挂起了队列：保持scheduled不变，后续消息只入队不调度，等待resume
+            if (lane.suspendState.compareAndSet(DispatchLane.SUSPENDING, DispatchLane.SUSPENDED)) {
+                if (lane.retired.get() != null) {
+                    finishRetire(lane);
+                }
+            } else {
+                lane.suspendState.compareAndSet(DispatchLane.RESUMED_EARLY, DispatchLane.NOT_SUSPENDED);
+                // 还有剩余消息(超过单批上限或并发入队)，重新提交，让出线程给其他玩家
+                idle(lane, true);
+            }
+        }
+    }
+
+    /**
+     * 挂起当前玩家的消息队列，只能在处理器中(业务线程上)调用。
+     * 用于异步处理的请求(如登录)：处理器返回后该玩家后续的消息暂不处理，
+     * 直到异步操作完成并调用返回的resume，保证玩家消息的顺序
+     * @return 恢复队列的回调，必须且只能调用一次
+     */
+    public Runnable suspend(PlayerSession session) {
+        DispatchLane lane = session.getDispatchLane();
+        lane.suspendState.set(DispatchLane.SUSPENDING);
+        return () -> resume(lane);
+    }
+
+    private void resume(DispatchLane lane) {
+        // drain还没退出，由它按正常流程继续
+        if (lane.suspendState.compareAndSet(DispatchLane.SUSPENDING, DispatchLane.RESUMED_EARLY)) {
+            return;
+        }
+        if (lane.suspendState.compareAndSet(DispatchLane.SUSPENDED, DispatchLane.NOT_SUSPENDED)) {
+            idle(lane, true);
+        }
+    }
+
+    /**
+     * 停用会话的消息队列，用于同一玩家重复登录时踢掉的旧会话：
+     * 之后到达的消息直接丢弃，积压的消息不再处理，正在执行的处理器照常执行完。
+     * 停用后队列不再恢复，挂起中的resume不会再调度
+     * @return 旧会话没有处理器在执行、积压的消息已丢弃时完成，可能在分发线程上完成
+     */
+    public CompletableFuture<Void> retire(PlayerSession session) {
+        DispatchLane lane = session.getDispatchLane();
+        CompletableFuture<Void> retired = new CompletableFuture<>();
+        if (!lane.retired.compareAndSet(null, retired)) {
+            return lane.retired.get();
+        }
+        finishRetire(lane);
+        return retired;
+    }
+
+    /**
+     * 队列空闲(没有drain在执行或等待执行)时接管队列：scheduled置为true后不再清除，队列再也不会被调度。
+     * 挂起中的队列同样视为空闲，之后的resume不会成功
+     */
+    private void finishRetire(DispatchLane lane) {
+        if (lane.scheduled.compareAndSet(false, true)
+                || lane.suspendState.compareAndSet(DispatchLane.SUSPENDED, DispatchLane.NOT_SUSPENDED)) {
+            discard(lane);
+            lane.retired.get().complete(null);
+        }
+    }
+
+    private void run(DispatchLane.Task task) {
+        PlayerSession session = task.session;
+        // 处理期间发出的响应带回该请求的序号
+        session.beginRequest(task.message.getSequence());
+        try {
+            idempotencyCache.handle(session, task.message, task.processor);
+        } catch (Exception e) {
+            log.error("处理消息异常", e);
+        } finally {
+            session.endRequest();
+            task.message.release();
+            if (task.limited) {
+                limiter.onComplete(System.nanoTime() - task.enqueueNanos);
+            }
+        }
+    }
+
+    private void reject(PlayerSession session, GameMessage message, boolean request) {
+        rejectedCounter.increment();
+        log.warn("玩家消息积压过多，拒绝处理：messageId = {}，playerId = {}", message.getMessageId(), session.getPlayerId());
+        refuse(session, message, request);
+    }
+
+    /**
+     * 不处理该消息：客户端请求回复带原序号的繁忙响应，内部任务直接释放
+     */
+    private void refuse(PlayerSession session, GameMessage message, boolean request) {
+        if (request) {
+            session.sendResponse(BUSY, message.getSequence());
+        }
+        message.release();
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            // FastThreadLocalThread上的FastThreadLocal按下标直接访问，会话的当前请求每条消息都要读写
+            Thread thread = new FastThreadLocalThread(r, "game-dispatch-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,17 +1,54 @@
 package com.example.tdgameserver.network;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
-public class GameMessageEncoder extends MessageToByteEncoder<GameMessage> {
+import java.util.List;
+
+/**
+ * 消息编码器
+ * 只为消息头分配缓冲区，消息体以组合缓冲区的方式直接引用，不做拷贝。
+ * 连接声明支持压缩且消息体超过阈值时，消息体压缩后再发送并在帧头置压缩标志；
+ * 连接进入序号模式后帧头带上请求序号。已编码好的广播帧(EncodedFrame)直接写出
+ */
+public class GameMessageEncoder extends MessageToMessageEncoder<GameMessage> {
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, GameMessage msg, ByteBuf out) throws Exception {
-        //写入消息ID(4字节)
-        out.writeInt(msg.getMessageId());
-        //写入消息体长度(4字节)
-        out.writeInt(msg.getPayload().length);
-        //写入消息体
-        out.writeBytes(msg.getPayload());
+    protected void encode(ChannelHandlerContext ctx, GameMessage msg, List<Object> out) throws Exception {
+        if (msg instanceof EncodedFrame) {
+            out.add(msg.content().retain());
+            return;
+        }
+
+        Channel channel = ctx.channel();
+        ByteBuf payload = msg.content();
+        int flags = 0;
+        ByteBuf body = null;
+        if (FrameCompression.shouldCompress(channel, payload.readableBytes())) {
+            body = FrameCompression.deflate(ctx.alloc(), payload);
+        }
+        if (body != null) {
+            flags |= FrameHeader.FLAG_COMPRESSED;
+        } else {
+            //消息体引用计数+1，msg本身由MessageToMessageEncoder负责release
+            body = payload.retain();
+        }
+        if (body.readableBytes() > FrameHeader.MAX_PAYLOAD_LENGTH) {
+            body.release();
+            throw new EncoderException("消息体超过最大长度: " + body.readableBytes());
+        }
+        if (msg.getSequence() != 0 || FrameHeader.isSequenced(channel)) {
+            flags |= FrameHeader.FLAG_SEQUENCED;
+        }
+
+        ByteBuf header = ctx.alloc().ioBuffer(FrameHeader.HEADER_LENGTH + FrameHeader.extensionLength(flags));
+        FrameHeader.write(header, msg.getMessageId(), flags, body.readableBytes(), msg.getSequence());
+
+        CompositeByteBuf frame = ctx.alloc().compositeBuffer(2);
+        frame.addComponents(true, header, body);
+        out.add(frame);
     }
 }
@@ -1,11 +1,37 @@
 package com.example.tdgameserver.network;
 
 
-import java.util.concurrent.ConcurrentHashMap;
+import com.example.tdgameserver.session.PlayerSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息处理器注册表
+ * 启动阶段由各Handler注册，服务器开始监听前调用freeze()冻结为按消息Id下标访问的数组，
+ * 之后只读，查找不需要装箱和哈希；未注册的消息Id直接返回null，由调用方快速拒绝
+ */
+@Slf4j
 public class GameMessageHandlerRegistry {
     private static final GameMessageHandlerRegistry INSTANCE = new GameMessageHandlerRegistry();
-    private final ConcurrentHashMap<Integer, GameMessageHandler> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * 允许注册的最大消息Id，保证分发表是一个小而密集的数组
+     */
+    public static final int MAX_MESSAGE_ID = 4095;
+
+    private static final Binding[] EMPTY = new Binding[0];
+
+    //启动阶段的注册表，冻结后不再使用
+    private final Map<Integer, GameMessageHandler> handlers = new HashMap<>();
+    private volatile Binding[] table = EMPTY;
+    private volatile boolean frozen;
+    private Counter unknownCounter;
 
     private GameMessageHandlerRegistry(){}
 
@@ -13,16 +39,140 @@ public class GameMessageHandlerRegistry {
         return INSTANCE;
     }
 
-    public void registerHandler(int messageId,GameMessageHandler handler){
-        handlers.put(messageId,handler);
+    public synchronized void registerHandler(int messageId,GameMessageHandler handler){
+        checkNotFrozen();
+        if (messageId < 0 || messageId > MAX_MESSAGE_ID) {
+            throw new IllegalArgumentException("消息Id超出范围: " + messageId);
+        }
+        GameMessageHandler previous = handlers.put(messageId, handler);
+        if (previous != null) {
+            log.warn("消息处理器被覆盖，messageId = {}", messageId);
+        }
     }
 
     public GameMessageHandler getHandler(int messageId){
-        return handlers.get(messageId);
+        Binding binding = lookup(messageId);
+        return binding != null ? binding.handler : null;
     }
 
-    public void unregisterHandler(int messageId,GameMessageHandler handler){
+    public synchronized void unregisterHandler(int messageId,GameMessageHandler handler){
+        checkNotFrozen();
         handlers.remove(messageId,handler);
     }
 
+    /**
+     * 冻结注册表，构建分发数组并为每个消息Id注册计数器和耗时直方图
+     */
+    public synchronized void freeze(MeterRegistry meterRegistry) {
+        if (frozen) {
+            return;
+        }
+        int maxId = -1;
+        for (int messageId : handlers.keySet()) {
+            maxId = Math.max(maxId, messageId);
+        }
+        Binding[] bindings = new Binding[maxId + 1];
+        for (Map.Entry<Integer, GameMessageHandler> entry : handlers.entrySet()) {
+            int messageId = entry.getKey();
+            bindings[messageId] = new Binding(messageId, entry.getValue(), meterRegistry);
+        }
+        unknownCounter = Counter.builder("game.message.unknown")
+                .description("未注册消息Id的请求数")
+                .register(meterRegistry);
+        handlers.clear();
+        table = bindings;
+        frozen = true;
+        log.info("消息处理器注册表已冻结，处理器数量: {}，分发表长度: {}", countBindings(bindings), bindings.length);
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * 按消息Id查找处理器绑定，未注册或越界时返回null
+     */
+    public Binding lookup(int messageId) {
+        Binding[] bindings = table;
+        if (messageId < 0 || messageId >= bindings.length) {
+            return null;
+        }
+        return bindings[messageId];
+    }
+
+    /**
+     * 记录一次未注册消息Id的请求
+     */
+    public void recordUnknown() {
+        Counter counter = unknownCounter;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("消息处理器注册表已冻结，不能再修改");
+        }
+    }
+
+    private static int countBindings(Binding[] bindings) {
+        int count = 0;
+        for (Binding binding : bindings) {
+            if (binding != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 消息Id与处理器的绑定，附带该消息的请求数、异常数和处理耗时
+     */
+    public static final class Binding {
+        private final int messageId;
+        private final GameMessageHandler handler;
+        private final Counter errorCounter;
+        private final Timer latencyTimer;
+
+        private Binding(int messageId, GameMessageHandler handler, MeterRegistry meterRegistry) {
+            this.messageId = messageId;
+            this.handler = handler;
+            String name = MessageId.nameOf(messageId);
+            this.errorCounter = Counter.builder("game.message.errors")
+                    .description("处理器抛出异常的消息数")
+                    .tag("message", name)
+                    .register(meterRegistry);
+            // Timer自带调用次数，同时作为该消息的请求计数
+            this.latencyTimer = Timer.builder("game.message.latency")
+                    .description("消息处理耗时")
+                    .tag("message", name)
+                    .publishPercentiles(0.5, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        public int getMessageId() {
+            return messageId;
+        }
+
+        public GameMessageHandler getHandler() {
+            return handler;
+        }
+
+        /**
+         * 调用处理器并记录耗时，异常会计数后继续抛出
+         */
+        public void handle(PlayerSession session, GameMessage message) {
+            long start = System.nanoTime();
+            try {
+                handler.handle(session, message);
+            } catch (RuntimeException e) {
+                errorCounter.increment();
+                throw e;
+            } finally {
+                latencyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
 }
@@ -1,50 +1,194 @@
 package com.example.tdgameserver.network;
 
+import com.example.tdgameserver.gateway.GatewayFrontendHandler;
+import com.example.tdgameserver.gateway.GatewayRouter;
+import com.example.tdgameserver.gateway.NodeLinkServer;
+import com.example.tdgameserver.session.IdleSessionReaper;
+import com.example.tdgameserver.session.SessionResumeService;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import jakarta.annotation.PostConstruct;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 游戏服务器网络入口
+ * 依赖玩家数据服务使其在本服务器之后销毁：停服时先关闭所有连接并等待事件循环和分发器结束，
+ * 不再有修改玩家聚合的处理后，玩家数据服务才做最后一次写回
+ */
 @Slf4j
 @Component
-public class GameServer {
-    private final int port = 8888; // 游戏服务器端口
+@DependsOn("playerDataServiceImpl")
+public class GameServer implements SmartInitializingSingleton {
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private GameMessageDispatcher dispatcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IdleSessionReaper idleSessionReaper;
+
+    @Autowired
+    private SessionResumeService resumeService;
+
+    @Autowired
+    private GatewayRouter gatewayRouter;
+
+    @Autowired
+    private NodeLinkServer nodeLinkServer;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private final List<Channel> serverChannels = new ArrayList<>();
+
+    /**
+     * 所有单例(包括各消息Handler)创建完成后再冻结处理器注册表并开始监听，
+     * 保证接收连接时分发表已经完整
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        GameMessageHandlerRegistry.getInstance().freeze(meterRegistry);
+        start();
+    }
 
-    @PostConstruct
     public void start() {
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        FrameCompression.configure(properties.getCompression());
+        boolean useEpoll = useEpoll();
+        // SO_REUSEPORT只有epoll支持，开启后每个acceptor各自绑定一次端口，由内核分发新连接
+        boolean reusePort = useEpoll && properties.isReusePort();
+        int acceptors = resolveAcceptorThreads(reusePort);
+
+        bossGroup = useEpoll ? new EpollEventLoopGroup(acceptors) : new NioEventLoopGroup(acceptors);
+        workerGroup = useEpoll ? new EpollEventLoopGroup(properties.getWorkerThreads())
+                : new NioEventLoopGroup(properties.getWorkerThreads());
+        Class<? extends ServerChannel> channelClass = useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+        boolean gateway = properties.getMode() == GameServerProperties.Mode.GATEWAY;
 
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(channelClass)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
                             ch.pipeline().addLast(
-                                    new GameMessageDecoder(),    // 消息解码器
-                                    new GameMessageEncoder(),    // 消息编码器
-                                    new GameServerHandler()
+                                    new GameMessageDecoder(properties.getMaxFrameLength()),    // 消息解码器
+                                    new GameMessageEncoder()    // 消息编码器
                             );
+                            if (properties.getRateLimit().isEnabled()) {
+                                // 解码之后、业务处理之前限流，网关模式下在边缘就挡住刷消息的客户端
+                                ch.pipeline().addLast(new RateLimitHandler(properties.getRateLimit()));
+                            }
+                            // 网关模式只转发到后端节点，不在本进程处理业务
+                            ch.pipeline().addLast(gateway ? new GatewayFrontendHandler(gatewayRouter)
+                                    : new GameServerHandler(dispatcher, properties.getOutbound(), idleSessionReaper, resumeService));
                         }
                     })
-                    .option(ChannelOption.SO_BACKLOG, 128)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
+                    .option(ChannelOption.SO_BACKLOG, properties.getBacklog())
+                    .childOption(ChannelOption.SO_KEEPALIVE, properties.isKeepAlive())
+                    .childOption(ChannelOption.TCP_NODELAY, properties.isTcpNoDelay())
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            properties.getOutbound().getLowWaterMark(), properties.getOutbound().getHighWaterMark()));
+            if (reusePort) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            if (properties.getReceiveBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_RCVBUF, properties.getReceiveBufferSize());
+            }
+            if (properties.getSendBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, properties.getSendBufferSize());
+            }
 
-            // 绑定端口并启动服务器
-            bootstrap.bind(port).sync();
-            log.info("游戏服务器启动成功，监听端口: {}，已启用身份验证", port);
+            if (gateway) {
+                gatewayRouter.start(workerGroup, useEpoll ? EpollSocketChannel.class : NioSocketChannel.class);
+            } else if (properties.getGateway().getLinkPort() > 0) {
+                nodeLinkServer.start(bossGroup, workerGroup, channelClass);
+            }
+
+            // 绑定端口并启动服务器，启用SO_REUSEPORT时每个acceptor线程绑定一个监听socket
+            int binds = reusePort ? acceptors : 1;
+            for (int i = 0; i < binds; i++) {
+                serverChannels.add(bootstrap.bind(properties.getPort()).sync().channel());
+            }
+            log.info("游戏服务器启动成功，模式: {}，监听端口: {}，传输层: {}，acceptor: {}，worker: {}，SO_REUSEPORT: {}",
+                    properties.getMode(), properties.getPort(), useEpoll ? "epoll" : "nio", binds,
+                    properties.getWorkerThreads() > 0 ? properties.getWorkerThreads() : "默认", reusePort);
         } catch (Exception e) {
             log.error("游戏服务器启动失败", e);
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            stop();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        nodeLinkServer.stop();
+        gatewayRouter.stop();
+        for (Channel channel : serverChannels) {
+            channel.close().syncUninterruptibly();
+        }
+        serverChannels.clear();
+        // 关闭事件循环会关闭其上所有客户端连接，等待结束保证之后不会再有消息进入分发器
+        Future<?> bossTermination = bossGroup != null ? bossGroup.shutdownGracefully() : null;
+        Future<?> workerTermination = workerGroup != null ? workerGroup.shutdownGracefully() : null;
+        if (bossTermination != null) {
+            bossTermination.syncUninterruptibly();
+        }
+        if (workerTermination != null) {
+            workerTermination.syncUninterruptibly();
+        }
+        // 等待已入队的消息处理完，之后玩家聚合不再被修改
+        dispatcher.shutdown();
+    }
+
+    /**
+     * 根据配置和运行环境决定是否使用epoll传输
+     */
+    private boolean useEpoll() {
+        switch (properties.getTransport()) {
+            case NIO:
+                return false;
+            case EPOLL:
+                if (!Epoll.isAvailable()) {
+                    log.warn("配置要求使用epoll传输，但当前环境不可用，回退到NIO", Epoll.unavailabilityCause());
+                    return false;
+                }
+                return true;
+            default:
+                return Epoll.isAvailable();
+        }
+    }
+
+    private int resolveAcceptorThreads(boolean reusePort) {
+        if (properties.getAcceptorThreads() > 0) {
+            return properties.getAcceptorThreads();
         }
+        return reusePort ? Runtime.getRuntime().availableProcessors() : 1;
     }
-}
\ No newline at end of file
+}
@@ -1,24 +1,59 @@
 package com.example.tdgameserver.network;
 
+import com.example.tdgameserver.protocol.CachedResponse;
+import com.example.tdgameserver.session.IdleSessionReaper;
 import com.example.tdgameserver.session.PlayerSession;
 import com.example.tdgameserver.session.SessionManager;
-import com.google.gson.Gson;
+import com.example.tdgameserver.session.SessionResumeService;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class GameServerHandler extends ChannelInboundHandlerAdapter {
+    private static final CachedResponse NOT_AUTHENTICATED = new CachedResponse(MessageId.RESP_LOGIN.getId(),
+            Response.error("请先进行身份验证，发送登录消息"));
+    private static final CachedResponse HEARTBEAT = new CachedResponse(MessageId.RESP_HEARTBEAT.getId(),
+            Response.success("pong"));
+    private static final CachedResponse HANDLER_NOT_FOUND = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("未找到消息处理器"));
+
+    private static final int HEARTBEAT_ID = MessageId.REQ_HEARTBEAT.getId();
+
     private final GameMessageHandlerRegistry handlerRegistry = GameMessageHandlerRegistry.getInstance();
     private final SessionManager sessionManager = SessionManager.getInstance();
-    private final Gson gson = new Gson();
-    
+    private final GameMessageDispatcher dispatcher;
+    private final GameServerProperties.Outbound outboundConfig;
+    private final IdleSessionReaper idleSessionReaper;
+    private final SessionResumeService resumeService;
+    private final GameMessageHandler processor = this::processMessage;
+
+    public GameServerHandler(GameMessageDispatcher dispatcher, GameServerProperties.Outbound outboundConfig,
+                             IdleSessionReaper idleSessionReaper) {
+        this(dispatcher, outboundConfig, idleSessionReaper, null);
+    }
+
+    /**
+     * @param resumeService 断线恢复，为null时连接断开即移除会话(经网关接入的连接由网关负责)
+     */
+    public GameServerHandler(GameMessageDispatcher dispatcher, GameServerProperties.Outbound outboundConfig,
+                             IdleSessionReaper idleSessionReaper, SessionResumeService resumeService) {
+        this.dispatcher = dispatcher;
+        this.outboundConfig = outboundConfig;
+        this.idleSessionReaper = idleSessionReaper;
+        this.resumeService = resumeService;
+    }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
-        PlayerSession session = new PlayerSession(ctx.channel());
+        PlayerSession session = new PlayerSession(ctx.channel(), outboundConfig);
         sessionManager.addSession(session);
+        idleSessionReaper.watch(session);
+        if (resumeService != null) {
+            resumeService.track(session);
+        }
         log.info("新客户端连接:{}，等待身份验证", ctx.channel().remoteAddress());
     }
 
@@ -32,87 +67,99 @@ public class GameServerHandler extends ChannelInboundHandlerAdapter {
             } else {
                 log.info("未认证客户端断开连接：{}", channel.remoteAddress());
             }
-            sessionManager.removeSession(session);
+            if (resumeService == null || !resumeService.park(session)) {
+                sessionManager.removeSession(session);
+            }
         }
     }
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        if (msg instanceof GameMessage) {
-            GameMessage gameMsg = (GameMessage) msg;
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // 出站缓冲区回落到低水位以下，继续写出积压的消息
+        if (ctx.channel().isWritable()) {
             PlayerSession session = sessionManager.getSessionByChannel(ctx.channel());
             if (session != null) {
-                session.updateLastActiveTime();
-                
-                if (!session.isAuthenticated()) {
-                    if (gameMsg.getMessageId() == MessageId.REQ_LOGIN.getId()) {
-                        handleGameMessage(session, gameMsg);
-                    } else {
-                        log.warn("未认证连接尝试发送非登录消息，messageId: {}", gameMsg.getMessageId());
-                        String errorMsg = "请先进行身份验证，发送登录消息";
-                        String responseJson = gson.toJson(new ErrorResponse(false, errorMsg));
-                        session.sendMessage(MessageId.RESP_LOGIN.getId(), responseJson.getBytes());
-                    }
-                } else {
-                    handleGameMessage(session, gameMsg);
-                }
+                session.getOutboundQueue().scheduleFlush();
             }
         }
+        ctx.fireChannelWritabilityChanged();
     }
 
-    public void handleGameMessage(PlayerSession session, GameMessage msg) {
-        int messageId = msg.getMessageId();
-        GameMessageHandler handler = handlerRegistry.getHandler(messageId);
-        if (session.getPlayerId() != null) {
-            log.info("收到消息:messageId = {},playerId = {}", msg.getMessageId(), session.getPlayerId());
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof GameMessage)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        GameMessage gameMsg = (GameMessage) msg;
+        PlayerSession session = sessionManager.getSessionByChannel(ctx.channel());
+        if (session == null) {
+            gameMsg.release();
+            return;
         }
-        if (handler != null) {
-            try {
-                handler.handle(session, msg);
-            } catch (Exception e) {
-                log.error("处理消息异常", e);
+        session.updateLastActiveTime();
+        // 心跳只用于刷新活跃时间，直接在I/O线程上回复
+        if (gameMsg.getMessageId() == HEARTBEAT_ID) {
+            if (resumeService != null && gameMsg.getPayloadLength() > 0) {
+                resumeService.acknowledge(session, gameMsg);
             }
-        } else {
-            log.warn("未找到消息处理器：messageId = {}", messageId);
-            String errorMsg = "未找到消息处理器";
-            String responseJson = gson.toJson(new ErrorResponse(false, errorMsg));
-            session.sendMessage(MessageId.ERROR_MSG.getId(), responseJson.getBytes());
+            session.sendResponse(HEARTBEAT, gameMsg.getSequence());
+            gameMsg.release();
+            return;
         }
-    }
-
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        log.error("连接异常", cause);
-        ctx.close();
-        channelInactive(ctx);
+        // 未注册的消息Id直接在I/O线程上拒绝，不占用业务线程
+        if (handlerRegistry.lookup(gameMsg.getMessageId()) == null) {
+            rejectUnknown(session, gameMsg);
+            gameMsg.release();
+            return;
+        }
+        // 交给分发器在业务线程上按玩家串行处理，过载时由分发器直接回复繁忙，消息的释放也由分发器负责
+        dispatcher.dispatchRequest(session, gameMsg, processor);
     }
 
     /**
-     * 错误响应类
+     * 在业务线程上处理消息，未认证的连接只允许发送登录和断线恢复消息
      */
-    private static class ErrorResponse {
-        private boolean success;
-        private String message;
-        
-        public ErrorResponse(boolean success, String message) {
-            this.success = success;
-            this.message = message;
-        }
-        
-        public boolean isSuccess() {
-            return success;
+    private void processMessage(PlayerSession session, GameMessage gameMsg) {
+        if (!session.isAuthenticated()) {
+            if (gameMsg.getMessageId() == MessageId.REQ_LOGIN.getId()
+                    || gameMsg.getMessageId() == MessageId.REQ_RESUME.getId()) {
+                handleGameMessage(session, gameMsg);
+            } else {
+                log.warn("未认证连接尝试发送非登录消息，messageId: {}", gameMsg.getMessageId());
+                session.sendResponse(NOT_AUTHENTICATED);
+            }
+        } else {
+            handleGameMessage(session, gameMsg);
         }
-        
-        public void setSuccess(boolean success) {
-            this.success = success;
+    }
+
+    public void handleGameMessage(PlayerSession session, GameMessage msg) {
+        GameMessageHandlerRegistry.Binding binding = handlerRegistry.lookup(msg.getMessageId());
+        if (binding == null) {
+            rejectUnknown(session, msg);
+            return;
         }
-        
-        public String getMessage() {
-            return message;
+        if (session.getPlayerId() != null) {
+            log.debug("收到消息:messageId = {},playerId = {}", msg.getMessageId(), session.getPlayerId());
         }
-        
-        public void setMessage(String message) {
-            this.message = message;
+        try {
+            binding.handle(session, msg);
+        } catch (Exception e) {
+            log.error("处理消息异常", e);
         }
     }
+
+    private void rejectUnknown(PlayerSession session, GameMessage msg) {
+        handlerRegistry.recordUnknown();
+        log.warn("未找到消息处理器：messageId = {}", msg.getMessageId());
+        session.sendResponse(HANDLER_NOT_FOUND, msg.getSequence());
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("连接异常", cause);
+        ctx.close();
+        channelInactive(ctx);
+    }
 }
@@ -0,0 +1,459 @@
+package com.example.tdgameserver.network;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 游戏服务器网络层配置
+ * 对应application.yml中的game.server配置项
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "game.server")
+public class GameServerProperties {
+
+    /**
+     * 运行模式：GAME(游戏节点，默认)、GATEWAY(网关，只转发到后端游戏节点)
+     */
+    private Mode mode = Mode.GAME;
+
+    /**
+     * 监听端口
+     */
+    private int port = 8888;
+
+    /**
+     * 传输层实现：AUTO(Linux下优先epoll，不可用时回退NIO)、EPOLL、NIO
+     */
+    private Transport transport = Transport.AUTO;
+
+    /**
+     * acceptor线程数，0表示自动：启用SO_REUSEPORT时每个CPU核心一个，否则为1
+     */
+    private int acceptorThreads = 0;
+
+    /**
+     * worker线程数，0表示使用Netty默认值(CPU核心数*2)
+     */
+    private int workerThreads = 0;
+
+    /**
+     * 全连接队列长度(SO_BACKLOG)
+     */
+    private int backlog = 1024;
+
+    /**
+     * 是否启用SO_REUSEPORT(仅epoll传输生效)
+     */
+    private boolean reusePort = true;
+
+    /**
+     * 是否启用TCP_NODELAY
+     */
+    private boolean tcpNoDelay = true;
+
+    /**
+     * 是否启用SO_KEEPALIVE
+     */
+    private boolean keepAlive = true;
+
+    /**
+     * 接收缓冲区大小(SO_RCVBUF)，0表示使用系统默认值
+     */
+    private int receiveBufferSize = 0;
+
+    /**
+     * 发送缓冲区大小(SO_SNDBUF)，0表示使用系统默认值
+     */
+    private int sendBufferSize = 0;
+
+    /**
+     * 单个消息帧的最大长度(字节，含8字节消息头)，超过则断开连接，不能超过16MB
+     */
+    private int maxFrameLength = 1024 * 1024;
+
+    /**
+     * 业务分发配置
+     */
+    private Dispatch dispatch = new Dispatch();
+
+    /**
+     * 下行写出配置
+     */
+    private Outbound outbound = new Outbound();
+
+    /**
+     * 帧压缩配置
+     */
+    private Compression compression = new Compression();
+
+    /**
+     * 心跳与空闲连接回收配置
+     */
+    private Idle idle = new Idle();
+
+    /**
+     * 断线重连恢复配置
+     */
+    private Resume resume = new Resume();
+
+    /**
+     * 单连接上行限流配置
+     */
+    private RateLimit rateLimit = new RateLimit();
+
+    /**
+     * 请求幂等配置
+     */
+    private Idempotency idempotency = new Idempotency();
+
+    /**
+     * 登录流程配置
+     */
+    private Login login = new Login();
+
+    /**
+     * 玩家数据写回配置
+     */
+    private Persistence persistence = new Persistence();
+
+    /**
+     * 读写分离配置
+     */
+    private Datasource datasource = new Datasource();
+
+    /**
+     * 网关与节点链路配置
+     */
+    private Gateway gateway = new Gateway();
+
+    public enum Mode {
+        GAME,
+        GATEWAY
+    }
+
+    public enum Transport {
+        AUTO,
+        EPOLL,
+        NIO
+    }
+
+    @Data
+    public static class Dispatch {
+        /**
+         * 业务处理线程数，0表示CPU核心数*4
+         */
+        private int threads = 0;
+
+        /**
+         * 等待调度的玩家队列上限
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * 单个玩家允许积压的消息数上限
+         */
+        private int maxPendingPerPlayer = 256;
+
+        /**
+         * 一个玩家一次连续处理的消息数上限
+         */
+        private int maxBatch = 16;
+
+        /**
+         * 是否按处理延迟自适应限制在途请求数(排队+处理中)，超过限制时按优先级拒绝
+         */
+        private boolean adaptiveLimit = true;
+
+        /**
+         * 在途请求数限制的初始值，0表示处理线程数*2
+         */
+        private int initialLimit = 0;
+
+        /**
+         * 在途请求数限制的下限，0表示处理线程数
+         */
+        private int minLimit = 0;
+
+        /**
+         * 在途请求数限制的上限
+         */
+        private int maxLimit = 5000;
+
+        /**
+         * 可容忍的延迟升高倍数，近期延迟超过长期基线的这个倍数时收缩限制
+         */
+        private double latencyTolerance = 1.5;
+    }
+
+    @Data
+    public static class Outbound {
+        /**
+         * 出站缓冲区低水位(字节)，回落到该值以下时通道重新可写
+         */
+        private int lowWaterMark = 32 * 1024;
+
+        /**
+         * 出站缓冲区高水位(字节)，超过后通道不可写，暂停写出
+         */
+        private int highWaterMark = 64 * 1024;
+
+        /**
+         * 单个会话积压软上限(字节)，超过后丢弃BULK优先级的消息
+         */
+        private long softLimitBytes = 256 * 1024;
+
+        /**
+         * 单个会话积压硬上限(字节)，超过后断开连接
+         */
+        private long hardLimitBytes = 1024 * 1024;
+    }
+
+    @Data
+    public static class Compression {
+        /**
+         * 是否允许压缩下行消息，客户端还需在登录时声明支持
+         */
+        private boolean enabled = true;
+
+        /**
+         * 消息体达到该长度(字节)才压缩，小消息压缩收益不抵CPU开销
+         */
+        private int threshold = 1024;
+
+        /**
+         * deflate压缩级别(1-9)
+         */
+        private int level = 6;
+    }
+
+    @Data
+    public static class Idle {
+        /**
+         * 已登录连接超过该时间(毫秒)没有收到任何消息(包括心跳)则关闭
+         */
+        private long timeoutMillis = 90_000;
+
+        /**
+         * 连接建立后超过该时间(毫秒)仍未登录则关闭
+         */
+        private long loginTimeoutMillis = 30_000;
+
+        /**
+         * 时间轮每格的时长(毫秒)，即超时检查的精度
+         */
+        private long tickMillis = 1000;
+
+        /**
+         * 时间轮格数
+         */
+        private int ticksPerWheel = 512;
+    }
+
+    @Data
+    public static class RateLimit {
+        /**
+         * 是否对每个连接的上行消息限流
+         */
+        private boolean enabled = true;
+
+        /**
+         * 普通请求每秒允许的条数和突发上限
+         */
+        private double requestsPerSecond = 50;
+        private int requestBurst = 100;
+
+        /**
+         * 登录和断线恢复请求每秒允许的条数和突发上限
+         */
+        private double loginsPerSecond = 0.5;
+        private int loginBurst = 5;
+
+        /**
+         * 心跳每秒允许的条数和突发上限
+         */
+        private double heartbeatsPerSecond = 2;
+        private int heartbeatBurst = 10;
+
+        /**
+         * 一秒内被限流丢弃的消息超过该数量时断开连接
+         */
+        private int maxDroppedPerSecond = 100;
+    }
+
+    @Data
+    public static class Resume {
+        /**
+         * 已登录的直连客户端断线后保留会话的时间(毫秒)，期间凭恢复令牌重连可以直接接回原会话，0表示不保留
+         */
+        private long graceMillis = 60_000;
+
+        /**
+         * 每个会话保留的未确认下行消息条数上限，超过后丢弃最早的，客户端落后太多时只能重新登录
+         */
+        private int maxBufferedMessages = 256;
+
+        /**
+         * 每个会话保留的未确认下行消息字节数上限
+         */
+        private long maxBufferedBytes = 256 * 1024;
+    }
+
+    @Data
+    public static class Idempotency {
+        /**
+         * 是否处理请求帧中的幂等键，关闭后带幂等键的请求按普通请求处理
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个玩家记住的最近幂等键数量，超过后淘汰最早的
+         */
+        private int maxKeysPerPlayer = 64;
+
+        /**
+         * 幂等键的有效期(毫秒)，过期后相同的键按新请求处理
+         */
+        private long ttlMillis = 300_000;
+    }
+
+    @Data
+    public static class Login {
+        /**
+         * 密码校验线程数，0表示CPU核心数
+         */
+        private int threads = 0;
+
+        /**
+         * 等待校验的登录请求上限，超过后直接返回服务器繁忙
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * PBKDF2迭代次数，调整后新设置的密码使用新值，已有的哈希按各自记录的次数校验
+         */
+        private int hashIterations = 100_000;
+
+        /**
+         * 按名字查询玩家的线程数
+         */
+        private int lookupThreads = 2;
+
+        /**
+         * 一次批量查询最多包含的名字数
+         */
+        private int batchSize = 64;
+
+        /**
+         * 凑批等待时间(毫秒)
+         */
+        private long batchWindowMillis = 2;
+
+        /**
+         * 玩家记录缓存时间(毫秒)
+         */
+        private long cacheTtlMillis = 30_000;
+
+        /**
+         * 不存在的名字缓存时间(毫秒)
+         */
+        private long negativeCacheTtlMillis = 5_000;
+
+        /**
+         * 缓存条目上限，超过后淘汰最早写入的条目
+         */
+        private int cacheMaxSize = 100_000;
+    }
+
+    @Data
+    public static class Persistence {
+        /**
+         * 脏数据定时写回数据库的间隔(毫秒)，玩家离线、交接和停服时会立即写回
+         */
+        private long flushIntervalMillis = 5_000;
+
+        /**
+         * 写回线程数，同一玩家的写回固定在同一线程上按顺序进行
+         */
+        private int flushThreads = 2;
+
+        /**
+         * 多行写入语句每条最多包含的行数，批量发放时也按此切分
+         */
+        private int batchSize = 500;
+    }
+
+    @Data
+    public static class Datasource {
+        /**
+         * 只读从库列表，为空时所有语句都走主库(spring.datasource)
+         */
+        private List<Replica> replicas = new ArrayList<>();
+
+        /**
+         * 从库允许的最大复制延迟(毫秒)，超过或心跳读取失败的从库不再接收查询，查询回到主库
+         */
+        private long maxLagMillis = 1000;
+
+        /**
+         * 主库写入、从库读取复制心跳的间隔(毫秒)
+         */
+        private long heartbeatIntervalMillis = 250;
+
+        /**
+         * 主库连接池大小
+         */
+        private int primaryPoolSize = 10;
+    }
+
+    @Data
+    public static class Replica {
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        /**
+         * 连接池大小
+         */
+        private int poolSize = 10;
+    }
+
+    @Data
+    public static class Gateway {
+        /**
+         * 游戏节点接受网关链路的端口，0表示不接受网关接入
+         */
+        private int linkPort = 0;
+
+        /**
+         * 后端游戏节点的链路地址列表(host:port)，仅网关模式使用，各网关的配置应保持一致
+         */
+        private List<String> nodes = new ArrayList<>();
+
+        /**
+         * 到每个节点的长连接数
+         */
+        private int linksPerNode = 2;
+
+        /**
+         * 一致性哈希环上每个节点的虚拟节点数
+         */
+        private int virtualNodes = 160;
+
+        /**
+         * 链路断开后的重连间隔(毫秒)
+         */
+        private long reconnectDelayMillis = 3000;
+
+        /**
+         * 节点停机时等待经网关接入的连接迁往其他节点的最长时间(毫秒)
+         */
+        private long drainTimeoutMillis = 10_000;
+    }
+}
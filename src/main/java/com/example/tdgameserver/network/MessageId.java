@@ -7,6 +7,18 @@ public enum MessageId {
     //登录相关
     REQ_LOGIN(1),
     RESP_LOGIN(2),
+
+    //心跳，未登录时也可发送
+    REQ_HEARTBEAT(3),
+    RESP_HEARTBEAT(4),
+
+    //同一账号在其他地方登录，旧连接被踢下线前收到的通知
+    PUSH_KICKED(5),
+
+    //断线重连：登录后下发恢复令牌，重连后凭令牌接回原会话并补发漏收的消息
+    PUSH_RESUME_TOKEN(6),
+    REQ_RESUME(7),
+    RESP_RESUME(8),
     
     //玩家相关
     REQ_CREATE_PLAYER(10),
@@ -72,4 +84,16 @@ public enum MessageId {
         this.id = id;
         this.desc = null;
     }
+
+    /**
+     * 按消息Id取枚举名称，未定义的Id返回数字本身
+     */
+    public static String nameOf(int id) {
+        for (MessageId messageId : values()) {
+            if (messageId.id == id) {
+                return messageId.name();
+            }
+        }
+        return String.valueOf(id);
+    }
 }
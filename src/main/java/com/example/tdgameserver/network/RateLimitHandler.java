@@ -0,0 +1,108 @@
+package com.example.tdgameserver.network;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单连接上行限流，紧跟在GameMessageDecoder之后
+ * 每个连接按消息类别(普通请求、登录、心跳)各一个令牌桶，以GCRA(理论到达时间)方式实现：
+ * 每个桶只有一个long状态，检查只做几次整数运算，不分配对象。超出的消息直接丢弃不回复，
+ * 一秒内丢弃过多说明客户端在持续刷消息，断开连接
+ */
+@Slf4j
+public class RateLimitHandler extends ChannelInboundHandlerAdapter {
+    private static final Counter DROPPED_REQUEST = Metrics.counter("game.ratelimit.dropped", "class", "request");
+    private static final Counter DROPPED_LOGIN = Metrics.counter("game.ratelimit.dropped", "class", "login");
+    private static final Counter DROPPED_HEARTBEAT = Metrics.counter("game.ratelimit.dropped", "class", "heartbeat");
+    private static final Counter CLOSED = Metrics.counter("game.ratelimit.closed");
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int LOGIN_ID = MessageId.REQ_LOGIN.getId();
+    private static final int RESUME_ID = MessageId.REQ_RESUME.getId();
+    private static final int HEARTBEAT_ID = MessageId.REQ_HEARTBEAT.getId();
+
+    private final long requestInterval;
+    private final long requestTolerance;
+    private final long loginInterval;
+    private final long loginTolerance;
+    private final long heartbeatInterval;
+    private final long heartbeatTolerance;
+    private final int maxDroppedPerSecond;
+
+    //各桶的理论到达时间：下一条消息最早的无欠账到达时刻
+    private long requestTat;
+    private long loginTat;
+    private long heartbeatTat;
+    private long dropWindowStart;
+    private int droppedInWindow;
+
+    public RateLimitHandler(GameServerProperties.RateLimit config) {
+        requestInterval = interval(config.getRequestsPerSecond());
+        requestTolerance = requestInterval * Math.max(0, config.getRequestBurst() - 1);
+        loginInterval = interval(config.getLoginsPerSecond());
+        loginTolerance = loginInterval * Math.max(0, config.getLoginBurst() - 1);
+        heartbeatInterval = interval(config.getHeartbeatsPerSecond());
+        heartbeatTolerance = heartbeatInterval * Math.max(0, config.getHeartbeatBurst() - 1);
+        maxDroppedPerSecond = config.getMaxDroppedPerSecond();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof GameMessage)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        int messageId = ((GameMessage) msg).getMessageId();
+        long now = System.nanoTime();
+        boolean allowed;
+        if (messageId == HEARTBEAT_ID) {
+            long tat = Math.max(heartbeatTat, now);
+            allowed = tat - now <= heartbeatTolerance;
+            if (allowed) {
+                heartbeatTat = tat + heartbeatInterval;
+            } else {
+                DROPPED_HEARTBEAT.increment();
+            }
+        } else if (messageId == LOGIN_ID || messageId == RESUME_ID) {
+            long tat = Math.max(loginTat, now);
+            allowed = tat - now <= loginTolerance;
+            if (allowed) {
+                loginTat = tat + loginInterval;
+            } else {
+                DROPPED_LOGIN.increment();
+            }
+        } else {
+            long tat = Math.max(requestTat, now);
+            allowed = tat - now <= requestTolerance;
+            if (allowed) {
+                requestTat = tat + requestInterval;
+            } else {
+                DROPPED_REQUEST.increment();
+            }
+        }
+        if (allowed) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ReferenceCountUtil.release(msg);
+        if (now - dropWindowStart > SECOND_NANOS) {
+            dropWindowStart = now;
+            droppedInWindow = 0;
+        }
+        if (++droppedInWindow > maxDroppedPerSecond && ctx.channel().isActive()) {
+            CLOSED.increment();
+            log.warn("客户端持续超出消息频率限制，断开连接：{}", ctx.channel().remoteAddress());
+            ctx.close();
+        }
+    }
+
+    private static long interval(double perSecond) {
+        return perSecond > 0 ? (long) (SECOND_NANOS / perSecond) : 0;
+    }
+}
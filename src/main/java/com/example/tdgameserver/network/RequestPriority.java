@@ -0,0 +1,48 @@
+package com.example.tdgameserver.network;
+
+/**
+ * 请求优先级
+ * 过载时按优先级拒绝：每一级只能占用在途请求数限制的一部分，低优先级的请求先被拒绝
+ */
+public enum RequestPriority {
+    /**
+     * 登录、断线恢复，拒绝后玩家无法进入游戏
+     */
+    CRITICAL(1.0),
+    /**
+     * 普通玩法请求
+     */
+    NORMAL(0.9),
+    /**
+     * 全量列表等大体积查询，过载时最先拒绝
+     */
+    LOW(0.5);
+
+    //可占用的限制比例
+    private final double share;
+
+    RequestPriority(double share) {
+        this.share = share;
+    }
+
+    public double getShare() {
+        return share;
+    }
+
+    /**
+     * 根据请求消息ID确定优先级
+     */
+    public static RequestPriority of(int messageId) {
+        if (messageId == MessageId.REQ_LOGIN.getId() || messageId == MessageId.REQ_RESUME.getId()) {
+            return CRITICAL;
+        }
+        if (messageId == MessageId.REQ_GET_ALL_PLAYERS.getId()
+                || messageId == MessageId.REQ_GET_BACKPACK.getId()
+                || messageId == MessageId.REQ_GET_BACKPACK_BY_TYPE.getId()
+                || messageId == MessageId.REQ_GET_PLAYER_OPERATORS.getId()
+                || messageId == MessageId.REQ_GET_PLAYER_STAGES.getId()) {
+            return LOW;
+        }
+        return NORMAL;
+    }
+}
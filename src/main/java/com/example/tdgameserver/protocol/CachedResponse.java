@@ -0,0 +1,44 @@
+package com.example.tdgameserver.protocol;
+
+import com.example.tdgameserver.network.Response;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 预编码的固定响应
+ * 内容不变的响应(如各类错误提示)在创建时按每种编码格式各编码一次，发送时只复制读写索引，不再重复序列化
+ */
+public class CachedResponse {
+    private final int messageId;
+    private final boolean success;
+    private final ByteBuf[] encoded = new ByteBuf[PayloadFormat.values().length];
+
+    public CachedResponse(int messageId, Response response) {
+        this.messageId = messageId;
+        this.success = response.isSuccess();
+        for (PayloadFormat format : PayloadFormat.values()) {
+            ByteBuf buffer = format.getCodec().encode(messageId, response);
+            try {
+                ByteBuf direct = Unpooled.directBuffer(buffer.readableBytes()).writeBytes(buffer);
+                encoded[format.ordinal()] = Unpooled.unreleasableBuffer(direct.asReadOnly());
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * 获取指定编码格式的消息体，返回共享内存的只读副本
+     */
+    public ByteBuf content(PayloadFormat format) {
+        return encoded[format.ordinal()].duplicate();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.tdgameserver.protocol;
+
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.util.MessageUtil;
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * JSON编解码器，连接的默认编码格式
+ * 响应先序列化到线程复用的StringBuilder，再按UTF-8直接编码进大小正好的池化缓冲区，
+ * 不生成中间的String和byte[]，也不像OutputStreamWriter那样每次分配编码缓冲区
+ */
+public class JsonMessageCodec implements MessageCodec {
+    public static final JsonMessageCodec INSTANCE = new JsonMessageCodec();
+
+    /**
+     * 全局共享的Gson实例，线程安全，所有JSON序列化都应使用它。
+     * 保持默认配置(包括对<、>、&、=、'的HTML转义)，输出和原来的new Gson()逐字节一致
+     */
+    public static final Gson GSON = new Gson();
+
+    private static final int INITIAL_CAPACITY = 256;
+    //序列化过超大响应后不再保留过大的StringBuilder
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final FastThreadLocal<StringBuilder> BUILDERS = new FastThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(INITIAL_CAPACITY);
+        }
+    };
+
+    private JsonMessageCodec() {
+    }
+
+    @Override
+    public PayloadFormat format() {
+        return PayloadFormat.JSON;
+    }
+
+    @Override
+    public <T> T decode(GameMessage message, Class<T> targetClass) {
+        return MessageUtil.convertMessage(message, targetClass);
+    }
+
+    @Override
+    public ByteBuf encode(int messageId, Response response) {
+        StringBuilder json = BUILDERS.get();
+        try {
+            GSON.toJson(response, Response.class, json);
+            ByteBuf buffer = ByteBufAllocator.DEFAULT.ioBuffer(ByteBufUtil.utf8Bytes(json));
+            ByteBufUtil.writeUtf8(buffer, json);
+            return buffer;
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("JSON响应序列化失败", e);
+        } finally {
+            if (json.capacity() > MAX_RETAINED_CAPACITY) {
+                BUILDERS.remove();
+            } else {
+                json.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.tdgameserver.protocol;
+
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.Response;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 消息体编解码器
+ * 每个连接持有一个，处理器通过它解析请求、编码响应，不关心具体使用JSON还是protobuf
+ */
+public interface MessageCodec {
+
+    /**
+     * 编码格式
+     */
+    PayloadFormat format();
+
+    /**
+     * 将请求消息体解析为请求实体
+     * @param message 收到的消息
+     * @param targetClass 请求实体类型
+     * @return 解析结果，失败返回null
+     */
+    <T> T decode(GameMessage message, Class<T> targetClass);
+
+    /**
+     * 将统一响应编码为消息体
+     * @param messageId 响应消息ID
+     * @param response 响应
+     * @return 消息体缓冲区，所有权转交给调用方
+     */
+    ByteBuf encode(int messageId, Response response);
+}
@@ -0,0 +1,47 @@
+package com.example.tdgameserver.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 消息体编码格式
+ */
+public enum PayloadFormat {
+    JSON(0),
+    PROTOBUF(1);
+
+    private final int id;
+
+    PayloadFormat(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public MessageCodec getCodec() {
+        return this == PROTOBUF ? ProtobufMessageCodec.INSTANCE : JsonMessageCodec.INSTANCE;
+    }
+
+    /**
+     * 根据协议编号获取编码格式，未知编号按JSON处理
+     */
+    public static PayloadFormat of(Integer id) {
+        if (id != null && id == PROTOBUF.id) {
+            return PROTOBUF;
+        }
+        return JSON;
+    }
+
+    /**
+     * 根据消息体内容判断编码格式：第一个字节为'{'则是JSON，否则按protobuf处理，空消息体按JSON处理。
+     * 不跳过空白：'\t'、'\n'、'\r'分别是protobuf字段1的几种标签，以它们开头的是protobuf消息；
+     * '{'是字段15的起始分组标签，proto3消息不会以它开头。JSON客户端发送的消息体不能有前导空白
+     */
+    public static PayloadFormat detect(ByteBuf content) {
+        if (!content.isReadable() || content.getByte(content.readerIndex()) == '{') {
+            return JSON;
+        }
+        return PROTOBUF;
+    }
+}
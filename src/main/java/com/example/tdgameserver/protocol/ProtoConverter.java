@@ -0,0 +1,221 @@
+package com.example.tdgameserver.protocol;
+
+import com.example.tdgameserver.entity.backpack.PlayerItem;
+import com.example.tdgameserver.entity.operator.PlayerOperator;
+import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.entity.stage.PlayerStage;
+import com.example.tdgameserver.handler.OperatorHandler;
+import com.example.tdgameserver.handler.PlayerHandler;
+import com.example.tdgameserver.network.MessageId;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.proto.BackpackReq;
+import com.example.tdgameserver.proto.GameResponse;
+import com.example.tdgameserver.proto.HeartbeatReq;
+import com.example.tdgameserver.proto.ItemReq;
+import com.example.tdgameserver.proto.LoginReq;
+import com.example.tdgameserver.proto.OperatorData;
+import com.example.tdgameserver.proto.OperatorReq;
+import com.example.tdgameserver.proto.PlayerInfo;
+import com.example.tdgameserver.proto.PlayerItemInfo;
+import com.example.tdgameserver.proto.PlayerItemList;
+import com.example.tdgameserver.proto.PlayerList;
+import com.example.tdgameserver.proto.PlayerOperatorInfo;
+import com.example.tdgameserver.proto.PlayerOperatorList;
+import com.example.tdgameserver.proto.PlayerStageInfo;
+import com.example.tdgameserver.proto.PlayerStageList;
+import com.example.tdgameserver.proto.ResumeReq;
+import com.example.tdgameserver.proto.StageReq;
+import com.example.tdgameserver.requestEntity.BackpackRequest;
+import com.example.tdgameserver.requestEntity.HeartbeatRequest;
+import com.example.tdgameserver.requestEntity.ItemRequest;
+import com.example.tdgameserver.requestEntity.OperatorRequest;
+import com.example.tdgameserver.requestEntity.ResumeRequest;
+import com.example.tdgameserver.requestEntity.StageRequest;
+import com.example.tdgameserver.session.ResumeInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * protobuf生成类与业务实体之间的转换
+ */
+@Slf4j
+public class ProtoConverter {
+
+    private ProtoConverter() {
+    }
+
+    // ------------------------------ 请求 ------------------------------
+
+    public static PlayerHandler.LoginRequest toLoginRequest(LoginReq req) {
+        PlayerHandler.LoginRequest request = new PlayerHandler.LoginRequest();
+        request.setUsername(req.getUsername());
+        request.setPassword(req.getPassword());
+        request.setProtocol(req.getProtocol());
+        request.setCompression(req.getCompression());
+        return request;
+    }
+
+    public static ResumeRequest toResumeRequest(ResumeReq req) {
+        ResumeRequest request = new ResumeRequest();
+        request.setToken(req.getToken());
+        request.setReceived(req.getReceived());
+        return request;
+    }
+
+    public static HeartbeatRequest toHeartbeatRequest(HeartbeatReq req) {
+        HeartbeatRequest request = new HeartbeatRequest();
+        request.setReceived(req.getReceived());
+        return request;
+    }
+
+    public static OperatorRequest toOperatorRequest(OperatorReq req) {
+        OperatorRequest request = new OperatorRequest();
+        request.setOperatorId(req.getOperatorId());
+        request.setSkillId(req.getSkillId());
+        List<ItemRequest> itemList = new ArrayList<>(req.getItemListCount());
+        for (ItemReq itemReq : req.getItemListList()) {
+            ItemRequest item = new ItemRequest();
+            item.setItemId(itemReq.getItemId());
+            item.setQuantity(itemReq.getQuantity());
+            itemList.add(item);
+        }
+        request.setItemList(itemList);
+        return request;
+    }
+
+    public static BackpackRequest toBackpackRequest(BackpackReq req) {
+        BackpackRequest request = new BackpackRequest();
+        request.setBackpackTypeId(req.getBackpackTypeId());
+        request.setItemId(req.getItemId());
+        request.setCount(req.getCount());
+        return request;
+    }
+
+    public static StageRequest toStageRequest(StageReq req) {
+        StageRequest request = new StageRequest();
+        request.setStageId(req.getStageId());
+        request.setStar(req.getStar());
+        request.setOperatorIds(new ArrayList<>(req.getOperatorIdsList()));
+        return request;
+    }
+
+    // ------------------------------ 响应 ------------------------------
+
+    /**
+     * 将统一响应转换为GameResponse，data的类型由响应消息ID决定
+     */
+    @SuppressWarnings("unchecked")
+    public static GameResponse toGameResponse(int messageId, Response response) {
+        GameResponse.Builder builder = GameResponse.newBuilder().setSuccess(response.isSuccess());
+        if (response.getMessage() != null) {
+            builder.setMessage(response.getMessage());
+        }
+        Object data = response.getData();
+        if (data == null) {
+            return builder.build();
+        }
+        if (data instanceof Player) {
+            builder.setPlayer(toPlayerInfo((Player) data));
+        } else if (data instanceof OperatorHandler.OperatorData) {
+            builder.setOperator(OperatorData.newBuilder()
+                    .setOperatorId(intValue(((OperatorHandler.OperatorData) data).getOperatorId())));
+        } else if (data instanceof ResumeInfo) {
+            ResumeInfo resume = (ResumeInfo) data;
+            builder.setResume(com.example.tdgameserver.proto.ResumeInfo.newBuilder()
+                    .setToken(resume.getToken())
+                    .setGraceMillis(resume.getGraceMillis()));
+        } else if (data instanceof List) {
+            setList(builder, messageId, (List<Object>) data);
+        } else {
+            log.warn("protobuf响应不支持的数据类型：{}，messageId = {}", data.getClass().getSimpleName(), messageId);
+        }
+        return builder.build();
+    }
+
+    private static void setList(GameResponse.Builder builder, int messageId, List<Object> list) {
+        if (messageId == MessageId.RESP_GET_BACKPACK.getId() || messageId == MessageId.RESP_GET_BACKPACK_BY_TYPE.getId()) {
+            PlayerItemList.Builder items = PlayerItemList.newBuilder();
+            for (Object item : list) {
+                items.addItems(toPlayerItemInfo((PlayerItem) item));
+            }
+            builder.setItems(items);
+        } else if (messageId == MessageId.RESP_GET_PLAYER_OPERATORS.getId()) {
+            PlayerOperatorList.Builder operators = PlayerOperatorList.newBuilder();
+            for (Object operator : list) {
+                operators.addOperators(toPlayerOperatorInfo((PlayerOperator) operator));
+            }
+            builder.setOperators(operators);
+        } else if (messageId == MessageId.RESP_GET_PLAYER_STAGES.getId()) {
+            PlayerStageList.Builder stages = PlayerStageList.newBuilder();
+            for (Object stage : list) {
+                stages.addStages(toPlayerStageInfo((PlayerStage) stage));
+            }
+            builder.setStages(stages);
+        } else if (messageId == MessageId.RESP_GET_ALL_PLAYERS.getId()) {
+            PlayerList.Builder players = PlayerList.newBuilder();
+            for (Object player : list) {
+                players.addPlayers(toPlayerInfo((Player) player));
+            }
+            builder.setPlayers(players);
+        } else {
+            log.warn("protobuf响应不支持的列表数据，messageId = {}", messageId);
+        }
+    }
+
+    public static PlayerInfo toPlayerInfo(Player player) {
+        PlayerInfo.Builder builder = PlayerInfo.newBuilder()
+                .setId(intValue(player.getId()))
+                .setCreateTime(intValue(player.getCreateTime()))
+                .setUpdateTime(intValue(player.getUpdateTime()));
+        if (player.getPlayerName() != null) {
+            builder.setPlayerName(player.getPlayerName());
+        }
+        return builder.build();
+    }
+
+    public static PlayerOperatorInfo toPlayerOperatorInfo(PlayerOperator operator) {
+        return PlayerOperatorInfo.newBuilder()
+                .setId(intValue(operator.getId()))
+                .setPlayerId(intValue(operator.getPlayerId()))
+                .setOperatorId(intValue(operator.getOperatorId()))
+                .setEliteLevel(intValue(operator.getEliteLevel()))
+                .setLevel(intValue(operator.getLevel()))
+                .setCurrentExp(intValue(operator.getCurrentExp()))
+                .setSkillLevel(intValue(operator.getSkillLevel()))
+                .setSkillMastery(intValue(operator.getSkillMastery()))
+                .setCreateTime(intValue(operator.getCreateTime()))
+                .setUpdateTime(intValue(operator.getUpdateTime()))
+                .build();
+    }
+
+    public static PlayerItemInfo toPlayerItemInfo(PlayerItem item) {
+        return PlayerItemInfo.newBuilder()
+                .setId(item.getId() != null ? item.getId() : 0L)
+                .setPlayerId(intValue(item.getPlayerId()))
+                .setItemId(intValue(item.getItemId()))
+                .setQuantity(intValue(item.getQuantity()))
+                .build();
+    }
+
+    public static PlayerStageInfo toPlayerStageInfo(PlayerStage stage) {
+        PlayerStageInfo.Builder builder = PlayerStageInfo.newBuilder()
+                .setId(stage.getId() != null ? stage.getId() : 0L)
+                .setPlayerId(stage.getPlayerId())
+                .setStageId(intValue(stage.getStageId()))
+                .setStar(intValue(stage.getStar()));
+        if (stage.getOperatorIds() != null) {
+            builder.setOperatorIds(stage.getOperatorIds());
+        }
+        if (stage.getPassTime() != null) {
+            builder.setPassTime(stage.getPassTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        return builder.build();
+    }
+
+    private static int intValue(Integer value) {
+        return value != null ? value : 0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.tdgameserver.protocol;
+
+import com.example.tdgameserver.handler.PlayerHandler;
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.proto.BackpackReq;
+import com.example.tdgameserver.proto.GameResponse;
+import com.example.tdgameserver.proto.HeartbeatReq;
+import com.example.tdgameserver.proto.LoginReq;
+import com.example.tdgameserver.proto.OperatorReq;
+import com.example.tdgameserver.proto.ResumeReq;
+import com.example.tdgameserver.proto.StageReq;
+import com.example.tdgameserver.requestEntity.BackpackRequest;
+import com.example.tdgameserver.requestEntity.HeartbeatRequest;
+import com.example.tdgameserver.requestEntity.OperatorRequest;
+import com.example.tdgameserver.requestEntity.ResumeRequest;
+import com.example.tdgameserver.requestEntity.StageRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * protobuf编解码器
+ * 请求直接在消息体的ByteBuffer视图上解析，响应直接序列化到池化缓冲区
+ */
+@Slf4j
+public class ProtobufMessageCodec implements MessageCodec {
+    public static final ProtobufMessageCodec INSTANCE = new ProtobufMessageCodec();
+
+    //请求实体类型 -> 解析函数
+    private final Map<Class<?>, RequestParser<?>> parsers = new HashMap<>();
+
+    private ProtobufMessageCodec() {
+        parsers.put(PlayerHandler.LoginRequest.class, buffer -> ProtoConverter.toLoginRequest(LoginReq.parseFrom(buffer)));
+        parsers.put(ResumeRequest.class, buffer -> ProtoConverter.toResumeRequest(ResumeReq.parseFrom(buffer)));
+        parsers.put(HeartbeatRequest.class, buffer -> ProtoConverter.toHeartbeatRequest(HeartbeatReq.parseFrom(buffer)));
+        parsers.put(OperatorRequest.class, buffer -> ProtoConverter.toOperatorRequest(OperatorReq.parseFrom(buffer)));
+        parsers.put(BackpackRequest.class, buffer -> ProtoConverter.toBackpackRequest(BackpackReq.parseFrom(buffer)));
+        parsers.put(StageRequest.class, buffer -> ProtoConverter.toStageRequest(StageReq.parseFrom(buffer)));
+    }
+
+    @Override
+    public PayloadFormat format() {
+        return PayloadFormat.PROTOBUF;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(GameMessage message, Class<T> targetClass) {
+        RequestParser<?> parser = parsers.get(targetClass);
+        if (parser == null) {
+            log.warn("未注册protobuf请求类型：{}", targetClass.getSimpleName());
+            return null;
+        }
+        try {
+            ByteBuf content = message.content();
+            return (T) parser.parse(content.nioBuffer(content.readerIndex(), content.readableBytes()));
+        } catch (Exception e) {
+            log.error("protobuf消息解析失败，messageId = {}，目标类型: {}，错误: {}",
+                    message.getMessageId(), targetClass.getSimpleName(), e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public ByteBuf encode(int messageId, Response response) {
+        GameResponse gameResponse = ProtoConverter.toGameResponse(messageId, response);
+        ByteBuf buffer = ByteBufAllocator.DEFAULT.ioBuffer(gameResponse.getSerializedSize());
+        try {
+            gameResponse.writeTo(new ByteBufOutputStream(buffer));
+            return buffer;
+        } catch (IOException e) {
+            buffer.release();
+            throw new IllegalStateException("protobuf响应序列化失败", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RequestParser<T> {
+        T parse(ByteBuffer buffer) throws IOException;
+    }
+}
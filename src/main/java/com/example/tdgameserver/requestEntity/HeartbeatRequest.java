@@ -0,0 +1,11 @@
+package com.example.tdgameserver.requestEntity;
+
+import lombok.Data;
+
+@Data
+public class HeartbeatRequest {
+    /**
+     * 本会话累计收到的下行帧数，用于确认下行消息，可为空
+     */
+    private Long received;
+}
@@ -0,0 +1,16 @@
+package com.example.tdgameserver.requestEntity;
+
+import lombok.Data;
+
+@Data
+public class ResumeRequest {
+    /**
+     * 最近一次下发的恢复令牌
+     */
+    private String token;
+
+    /**
+     * 本会话累计收到的下行帧数
+     */
+    private Long received;
+}
@@ -3,7 +3,9 @@ package com.example.tdgameserver.service;
 import com.example.tdgameserver.entity.backpack.Item;
 import com.example.tdgameserver.entity.backpack.BackpackType;
 import com.example.tdgameserver.entity.backpack.PlayerItem;
+import com.example.tdgameserver.requestEntity.ItemRequest;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +47,30 @@ public interface BackpackService {
      */
     boolean useItem(Integer playerId, Integer itemId, Integer quantity);
     
+    /**
+     * 一次扣除多种道具，全部足够才扣除，否则不做任何修改
+     * @param playerId 玩家ID
+     * @param items 道具及数量，同一道具出现多次时数量累加
+     * @return 扣除后这些道具的剩余数量，参数非法或有道具不足时返回null
+     */
+    List<PlayerItem> consumeItems(Integer playerId, List<ItemRequest> items);
+
+    /**
+     * 一次增加多种道具，全部可以增加才增加，否则不做任何修改
+     * @param playerId 玩家ID
+     * @param items 道具及数量，同一道具出现多次时数量累加
+     * @return 增加后这些道具的数量，参数非法、道具不存在或超出上限时返回null
+     */
+    List<PlayerItem> grantItems(Integer playerId, List<ItemRequest> items);
+
+    /**
+     * 批量给多个玩家发放相同的道具(邮件、活动、补偿)，不在线的玩家直接批量写入数据库
+     * @param playerIds 玩家ID列表
+     * @param items 道具及数量，同一道具出现多次时数量累加
+     * @return 发放成功的玩家数，参数非法或道具不存在时返回0
+     */
+    int grantItemsToPlayers(Collection<Integer> playerIds, List<ItemRequest> items);
+    
     /**
      * 检查玩家是否拥有足够数量的道具
      * @param playerId 玩家ID
@@ -54,12 +80,6 @@ public interface BackpackService {
      */
     boolean hasEnoughItems(Integer playerId, Integer itemId, Integer requiredQuantity);
     
-    /**
-     * 玩家离线时清理缓存
-     * @param playerId 玩家ID
-     */
-    void clearPlayerCache(Integer playerId);
-    
     /**
      * 获取道具配置
      * @param itemId 道具ID
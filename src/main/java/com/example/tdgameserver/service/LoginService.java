@@ -0,0 +1,33 @@
+package com.example.tdgameserver.service;
+
+import com.example.tdgameserver.entity.player.Player;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 登录服务接口
+ * 按名字查询玩家(合并并发查询、带短期缓存)后，在独立的有界线程池上校验密码哈希
+ */
+public interface LoginService {
+
+    /**
+     * 异步验证玩家登录
+     * @param playerName 玩家名称
+     * @param password 密码
+     * @return 验证成功完成为玩家信息，失败完成为null；校验线程池已满时以RejectedExecutionException异常完成
+     */
+    CompletableFuture<Player> authenticate(String playerName, String password);
+
+    /**
+     * 计算密码哈希，用于新建或修改密码
+     * @param password 明文密码
+     * @return 密码哈希
+     */
+    String hashPassword(String password);
+
+    /**
+     * 使某个名字的缓存失效，玩家信息变更后调用
+     * @param playerName 玩家名称
+     */
+    void invalidate(String playerName);
+}
@@ -0,0 +1,54 @@
+package com.example.tdgameserver.service;
+
+import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.entity.player.PlayerData;
+import com.example.tdgameserver.util.IntIntHashMap;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * 玩家数据服务接口
+ * 管理内存中的玩家数据聚合：登录时加载，业务读写直接在聚合上进行，脏数据定时批量写回数据库；
+ * 玩家离线后写回并释放，交接到其他节点前和停服时立即写回
+ */
+public interface PlayerDataService {
+
+    /**
+     * 登录成功后加载玩家数据，已在内存中时直接返回，在登录线程上调用
+     * @param player 登录查询到的玩家信息
+     * @return 玩家数据
+     */
+    PlayerData load(Player player);
+
+    /**
+     * 获取玩家数据，不在内存中时从数据库加载。只用于读取，修改用update
+     * @param playerId 玩家ID
+     * @return 玩家数据，玩家不存在时返回null
+     */
+    PlayerData get(Integer playerId);
+
+    /**
+     * 修改玩家数据。取到的聚合在修改前已被释放(玩家离线后写回并释放)时重新加载再执行，修改不会丢失
+     * @param playerId 玩家ID
+     * @param change 在聚合上执行的修改，可能执行多次，只有最后一次生效
+     * @return change的返回值，玩家不存在时返回null
+     */
+    <R> R update(Integer playerId, Function<PlayerData, R> change);
+
+    /**
+     * 立即把玩家的脏数据写回数据库，等待写回完成
+     * @param playerId 玩家ID
+     * @return 写回成功或没有需要写回的数据时返回true
+     */
+    boolean flush(Integer playerId);
+
+    /**
+     * 批量给玩家发放道具(邮件、活动、补偿)。内存中有数据的玩家直接在内存中增加，
+     * 其余玩家按批用多行语句累加到数据库，不加载到内存
+     * @param playerIds 玩家ID列表
+     * @param amounts 道具ID -> 增加数量，数量都大于0
+     * @return 发放成功的玩家数
+     */
+    int grantItems(Collection<Integer> playerIds, IntIntHashMap amounts);
+}
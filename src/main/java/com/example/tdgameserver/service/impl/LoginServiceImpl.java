@@ -0,0 +1,333 @@
+package com.example.tdgameserver.service.impl;
+
+import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.mapper.PlayerMapper;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.service.LoginService;
+import com.example.tdgameserver.util.PasswordHasher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 登录服务实现类
+ * 1. 按名字查询：先查短期缓存(包括不存在的名字)；未命中时同一名字的并发查询合并为一次，
+ *    不同名字在很短的窗口内凑成一批，用一条IN查询完成。数据库的名字比较不区分大小写，
+ *    缓存和合并查询统一用小写的名字作为键
+ * 2. 密码校验：PBKDF2计算在独立的有界线程池上进行，池满时直接拒绝，不拖垮业务线程；
+ *    旧的明文密码校验通过后升级为哈希。名字不存在或是明文密码时也做一次同样代价的哈希计算，
+ *    不能通过响应时间判断名字是否存在
+ */
+@Slf4j
+@Service
+public class LoginServiceImpl implements LoginService {
+
+    @Autowired
+    private PlayerMapper playerMapper;
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private GameServerProperties.Login config;
+    private PasswordHasher passwordHasher;
+    //名字不存在时用来校验的假哈希
+    private String dummyHash;
+    private ThreadPoolExecutor verifyExecutor;
+    private final List<Thread> lookupThreads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    //等待批量查询的名字
+    private final BlockingQueue<String> pendingNames = new LinkedBlockingQueue<>();
+    //正在查询中的名字，同名的并发查询共享一个结果
+    private final ConcurrentHashMap<String, CompletableFuture<Player>> inflight = new ConcurrentHashMap<>();
+    //名字 -> 玩家记录(不存在时player为null)
+    private final ConcurrentHashMap<String, CachedPlayer> cache = new ConcurrentHashMap<>();
+    //缓存条目的写入顺序，超过上限时从最早写入的开始淘汰
+    private final ConcurrentLinkedQueue<CachedPlayer> cacheOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger cacheOrderSize = new AtomicInteger();
+    //正在升级密码存储的玩家
+    private final Set<Integer> upgrading = ConcurrentHashMap.newKeySet();
+
+    private Counter cacheHits;
+    private Counter cacheMisses;
+    private Counter rejected;
+    private DistributionSummary batchSizes;
+    private Timer verifyTimer;
+
+    @PostConstruct
+    public void init() {
+        config = properties.getLogin();
+        passwordHasher = new PasswordHasher(config.getHashIterations());
+        dummyHash = passwordHasher.hash(Long.toHexString(System.nanoTime()));
+        int threads = config.getThreads() > 0 ? config.getThreads() : Runtime.getRuntime().availableProcessors();
+        AtomicInteger verifyIndex = new AtomicInteger();
+        verifyExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()), r -> {
+            Thread thread = new Thread(r, "game-login-" + verifyIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < config.getLookupThreads(); i++) {
+            Thread thread = new Thread(this::lookupLoop, "game-login-lookup-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            lookupThreads.add(thread);
+        }
+
+        cacheHits = Counter.builder("game.login.cache").tag("result", "hit")
+                .description("登录查询玩家缓存命中数").register(meterRegistry);
+        cacheMisses = Counter.builder("game.login.cache").tag("result", "miss")
+                .description("登录查询玩家缓存命中数").register(meterRegistry);
+        rejected = Counter.builder("game.login.rejected")
+                .description("校验线程池已满被拒绝的登录数").register(meterRegistry);
+        batchSizes = DistributionSummary.builder("game.login.lookup.batch")
+                .description("每次批量查询包含的名字数").register(meterRegistry);
+        verifyTimer = Timer.builder("game.login.verify")
+                .description("密码校验耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("game.login.cache.size", cache, Map::size)
+                .description("登录缓存条目数").register(meterRegistry);
+        Gauge.builder("game.login.verify.queued", verifyExecutor, e -> e.getQueue().size())
+                .description("等待校验的登录数").register(meterRegistry);
+        log.info("登录服务初始化完成，校验线程数: {}，查询线程数: {}", threads, config.getLookupThreads());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Thread thread : lookupThreads) {
+            thread.interrupt();
+        }
+        verifyExecutor.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<Player> authenticate(String playerName, String password) {
+        CompletableFuture<Player> result = new CompletableFuture<>();
+        lookup(playerName).whenComplete((player, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            try {
+                verifyExecutor.execute(() -> {
+                    try {
+                        result.complete(player != null ? verify(player, password) : verifyMissing(password));
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public String hashPassword(String password) {
+        return passwordHasher.hash(password);
+    }
+
+    @Override
+    public void invalidate(String playerName) {
+        if (playerName != null) {
+            cache.remove(cacheKey(playerName));
+        }
+    }
+
+    /**
+     * 按名字查询玩家，优先使用缓存，未命中时加入批量查询
+     */
+    private CompletableFuture<Player> lookup(String playerName) {
+        String key = cacheKey(playerName);
+        CachedPlayer cached = cache.get(key);
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(cached.player);
+        }
+        cacheMisses.increment();
+        return inflight.computeIfAbsent(key, name -> {
+            pendingNames.offer(name);
+            return new CompletableFuture<>();
+        });
+    }
+
+    /**
+     * 缓存和合并查询的键，数据库的名字比较不区分大小写
+     */
+    private static String cacheKey(String playerName) {
+        return playerName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 名字不存在时对假哈希做一次校验，耗时和存在的名字一样
+     */
+    private Player verifyMissing(String password) {
+        long start = System.nanoTime();
+        try {
+            passwordHasher.verify(password, dummyHash);
+            return null;
+        } finally {
+            verifyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Player verify(Player player, String password) {
+        long start = System.nanoTime();
+        try {
+            String stored = player.getPassword();
+            boolean matched = passwordHasher.verify(password, stored);
+            if (!PasswordHasher.isHashed(stored)) {
+                // 明文比较几乎不耗时，补一次哈希计算
+                passwordHasher.verify(password, dummyHash);
+            }
+            if (!matched) {
+                return null;
+            }
+            // 旧的明文密码(或迭代次数过低)校验通过后升级，同一玩家并发登录时只升级一次
+            if (passwordHasher.needsRehash(stored) && upgrading.add(player.getId())) {
+                try {
+                    // 其他并发登录已经完成了升级
+                    String key = cacheKey(player.getPlayerName());
+                    CachedPlayer current = cache.get(key);
+                    if (current != null && current.player != null && !passwordHasher.needsRehash(current.player.getPassword())) {
+                        return current.player;
+                    }
+                    String hash = passwordHasher.hash(password);
+                    playerMapper.updatePassword(player.getId(), hash);
+                    Player upgraded = new Player(player.getId(), player.getPlayerName(), hash,
+                            player.getCreateTime(), player.getUpdateTime());
+                    cachePut(key, upgraded);
+                    log.info("玩家 {} 的密码已升级为哈希存储", player.getPlayerName());
+                    return upgraded;
+                } finally {
+                    upgrading.remove(player.getId());
+                }
+            }
+            return player;
+        } finally {
+            verifyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void lookupLoop() {
+        int batchSize = config.getBatchSize();
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(config.getBatchWindowMillis());
+        List<String> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(pendingNames.take());
+                // 在窗口时间内凑批
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < batchSize) {
+                    pendingNames.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    String name = pendingNames.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (name == null) {
+                        break;
+                    }
+                    batch.add(name);
+                }
+                loadBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("批量查询玩家失败", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void loadBatch(List<String> names) {
+        batchSizes.record(names.size());
+        List<Player> players;
+        try {
+            players = playerMapper.selectByPlayerNames(names);
+        } catch (Exception e) {
+            for (String name : names) {
+                CompletableFuture<Player> future = inflight.remove(name);
+                if (future != null) {
+                    future.completeExceptionally(e);
+                }
+            }
+            throw e;
+        }
+        // 数据库的名字比较不区分大小写，这里保持一致
+        Map<String, Player> byName = new HashMap<>();
+        for (Player player : players) {
+            byName.put(cacheKey(player.getPlayerName()), player);
+        }
+        for (String name : names) {
+            Player player = byName.get(name);
+            cachePut(name, player);
+            CompletableFuture<Player> future = inflight.remove(name);
+            if (future != null) {
+                future.complete(player);
+            }
+        }
+    }
+
+    private void cachePut(String key, Player player) {
+        long ttl = player != null ? config.getCacheTtlMillis() : config.getNegativeCacheTtlMillis();
+        CachedPlayer entry = new CachedPlayer(key, player, System.currentTimeMillis() + ttl);
+        cache.put(key, entry);
+        cacheOrder.offer(entry);
+        cacheOrderSize.incrementAndGet();
+        // 超过上限时淘汰最早写入的条目；已被覆盖或失效的条目在缓存里不存在了，只出队
+        while (cacheOrderSize.get() > config.getCacheMaxSize()) {
+            CachedPlayer eldest = cacheOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            cacheOrderSize.decrementAndGet();
+            cache.remove(eldest.key, eldest);
+        }
+    }
+
+    private static final class CachedPlayer {
+        private final String key;
+        private final Player player;
+        private final long expiresAt;
+
+        private CachedPlayer(String key, Player player, long expiresAt) {
+            this.key = key;
+            this.player = player;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,19 +1,29 @@
 package com.example.tdgameserver.service.impl;
 
+import com.example.tdgameserver.config.ConfigService;
+import com.example.tdgameserver.entity.operator.Operator;
+import com.example.tdgameserver.entity.operator.OperatorLevel;
 import com.example.tdgameserver.entity.operator.OperatorLevelUpResult;
 import com.example.tdgameserver.entity.operator.PlayerOperator;
-import com.example.tdgameserver.mapper.PlayerOperatorMapper;
+import com.example.tdgameserver.entity.player.PlayerData;
+import com.example.tdgameserver.requestEntity.ItemRequest;
 import com.example.tdgameserver.requestEntity.OperatorRequest;
+import com.example.tdgameserver.service.BackpackService;
 import com.example.tdgameserver.service.OperatorService;
+import com.example.tdgameserver.service.PlayerDataService;
+import com.example.tdgameserver.util.IntIntHashMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * 干员服务实现类
- * 负责管理玩家拥有的干员信息，干员基础信息从配置文件中读取
+ * 负责管理玩家拥有的干员信息，干员基础信息从配置文件中读取；
+ * 玩家的干员在内存中的玩家数据上读写，由玩家数据服务写回数据库
  */
 @Service
 public class OperatorServiceImpl implements OperatorService {
@@ -22,144 +32,168 @@ public class OperatorServiceImpl implements OperatorService {
 
     private static final int MAX_LEVEL = 90;
 
+    /**
+     * 经验道具ID -> 每个提供的经验值(道具配置里还没有经验字段)
+     */
+    private static final Map<Integer, Integer> EXP_ITEMS = Map.of(1001, 200, 1002, 1000);
+
+    @Autowired
+    private PlayerDataService playerDataService;
+
+    @Autowired
+    private BackpackService backpackService;
+
     @Autowired
-    private PlayerOperatorMapper playerOperatorMapper;
+    private ConfigService configService;
+
+    //稀有度、精英化等级、等级 -> 升到该等级所需经验
+    private volatile IntIntHashMap levelExpCache = null;
     
     @Override
     public List<PlayerOperator> getPlayerOperators(Integer playerId) {
-        return playerOperatorMapper.selectByPlayerId(playerId);
+        PlayerData data = playerDataService.get(playerId);
+        return data != null ? data.getOperators() : new ArrayList<>();
     }
 
     @Override
-    @Transactional
     public boolean addPlayerOperator(Integer playerId, Integer operatorId) {
-        // 检查玩家是否已经拥有该干员
-        PlayerOperator existingOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        if (existingOperator != null) {
-            return false; // 玩家已经拥有该干员
-        }
-        
-        // 创建新的玩家干员关联
-        PlayerOperator playerOperator = new PlayerOperator(playerId, operatorId);
-        int result = playerOperatorMapper.insert(playerOperator);
-        return result > 0;
+        // 玩家已经拥有该干员时返回false
+        return Boolean.TRUE.equals(playerDataService.update(playerId,
+                data -> data.addOperator(new PlayerOperator(playerId, operatorId))));
     }
     
     @Override
-    @Transactional
     public boolean levelUpOperator(Integer playerId, Integer operatorId) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        if (playerOperator == null) {
-            return false; // 玩家不拥有该干员
-        }
-        
-        // 检查等级上限（假设最大等级为90）
-        if (playerOperator.getLevel() >= 90) {
-            return false; // 已达到最大等级
-        }
-        
-        // 升级干员
-        int newLevel = playerOperator.getLevel() + 1;
-        int result = playerOperatorMapper.updateLevel(playerOperator.getId(), newLevel);
-        return result > 0;
+        return updateOperator(playerId, operatorId, operator -> {
+            // 检查等级上限
+            if (operator.getLevel() >= MAX_LEVEL) {
+                return false; // 已达到最大等级
+            }
+            operator.setLevel(operator.getLevel() + 1);
+            return true;
+        });
     }
 
     @Override
     public OperatorLevelUpResult levelUpOperatorWithExpItems(Integer playerId, OperatorRequest request) {
-        return null;
+        if (request == null || request.getOperatorId() == null
+                || request.getItemList() == null || request.getItemList().isEmpty()) {
+            return new OperatorLevelUpResult("参数错误");
+        }
+        long totalExp = 0;
+        for (ItemRequest item : request.getItemList()) {
+            Integer exp = item != null ? EXP_ITEMS.get(item.getItemId()) : null;
+            if (exp == null || item.getQuantity() == null || item.getQuantity() <= 0) {
+                return new OperatorLevelUpResult("只能使用经验道具，且数量必须大于0");
+            }
+            totalExp += (long) exp * item.getQuantity();
+        }
+        if (totalExp > Integer.MAX_VALUE) {
+            return new OperatorLevelUpResult("经验道具数量过多");
+        }
+
+        Integer operatorId = request.getOperatorId();
+        PlayerOperator operator = getOperator(playerId, operatorId);
+        if (operator == null) {
+            return new OperatorLevelUpResult("玩家不拥有该干员");
+        }
+        if (operator.getLevel() >= MAX_LEVEL) {
+            return new OperatorLevelUpResult("已达到最大等级");
+        }
+
+        // 道具全部足够才扣除，有一种不足时一个都不扣
+        if (backpackService.consumeItems(playerId, request.getItemList()) == null) {
+            return new OperatorLevelUpResult("经验道具不足");
+        }
+
+        int exp = (int) totalExp;
+        Integer rarity = getOperatorRarity(operatorId);
+        OperatorLevelUpResult result = new OperatorLevelUpResult(null, null, null, exp);
+        boolean updated = updateOperator(playerId, operatorId, current -> {
+            int level = current.getLevel();
+            long currentExp = (long) current.getCurrentExp() + exp;
+            result.setOldLevel(level);
+            // 按等级配置逐级升级，没有下一级的配置时经验留在当前等级
+            while (level < MAX_LEVEL) {
+                int needExp = getNeedExp(rarity, current.getEliteLevel(), level + 1);
+                if (needExp < 0 || currentExp < needExp) {
+                    break;
+                }
+                currentExp -= needExp;
+                level++;
+            }
+            current.setLevel(level);
+            current.setCurrentExp((int) Math.min(currentExp, Integer.MAX_VALUE));
+            result.setNewLevel(level);
+            result.setCurrentExp(current.getCurrentExp());
+            return true;
+        });
+        return updated ? result : new OperatorLevelUpResult("玩家不拥有该干员");
     }
 
     @Override
-    @Transactional
     public boolean eliteOperator(Integer playerId, Integer operatorId) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        if (playerOperator == null) {
-            return false; // 玩家不拥有该干员
-        }
-        
-        // 检查精英化等级上限（假设最大精英化等级为2）
-        if (playerOperator.getEliteLevel() >= 2) {
-            return false; // 已达到最大精英化等级
-        }
-        
-        // 精英化干员
-        int newEliteLevel = playerOperator.getEliteLevel() + 1;
-        int result = playerOperatorMapper.updateEliteLevel(playerOperator.getId(), newEliteLevel);
-        return result > 0;
+        return updateOperator(playerId, operatorId, operator -> {
+            // 检查精英化等级上限
+            if (operator.getEliteLevel() >= MAX_ELITE_LEVEL) {
+                return false; // 已达到最大精英化等级
+            }
+            operator.setEliteLevel(operator.getEliteLevel() + 1);
+            return true;
+        });
     }
     
     @Override
-    @Transactional
     public boolean upgradeSkill(Integer playerId, Integer operatorId) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        if (playerOperator == null) {
-            return false; // 玩家不拥有该干员
-        }
-        
-        // 检查技能等级上限（假设最大技能等级为7）
-        if (playerOperator.getSkillLevel() >= 7) {
-            return false; // 已达到最大技能等级
-        }
-        
-        // 升级技能
-        int newSkillLevel = playerOperator.getSkillLevel() + 1;
-        int result = playerOperatorMapper.updateSkillLevel(playerOperator.getId(), newSkillLevel);
-        return result > 0;
+        return updateOperator(playerId, operatorId, operator -> {
+            // 检查技能等级上限（假设最大技能等级为7）
+            if (operator.getSkillLevel() >= 7) {
+                return false; // 已达到最大技能等级
+            }
+            operator.setSkillLevel(operator.getSkillLevel() + 1);
+            return true;
+        });
     }
     
     @Override
-    @Transactional
     public boolean masterSkill(Integer playerId, Integer operatorId) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        if (playerOperator == null) {
-            return false; // 玩家不拥有该干员
-        }
-        
-        // 检查技能专精等级上限（假设最大专精等级为3）
-        if (playerOperator.getSkillMastery() >= 3) {
-            return false; // 已达到最大专精等级
-        }
-        
-        // 专精技能
-        int newSkillMastery = playerOperator.getSkillMastery() + 1;
-        int result = playerOperatorMapper.updateSkillMastery(playerOperator.getId(), newSkillMastery);
-        return result > 0;
+        return updateOperator(playerId, operatorId, operator -> {
+            // 检查技能专精等级上限（假设最大专精等级为3）
+            if (operator.getSkillMastery() >= 3) {
+                return false; // 已达到最大专精等级
+            }
+            operator.setSkillMastery(operator.getSkillMastery() + 1);
+            return true;
+        });
     }
 
     
     @Override
     public boolean hasOperator(Integer playerId, Integer operatorId) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        return playerOperator != null;
+        return getOperator(playerId, operatorId) != null;
     }
     
     @Override
-    @Transactional
     public boolean addOperatorExp(Integer playerId, Integer operatorId, Integer exp) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
-        if (playerOperator == null) {
-            return false; // 玩家不拥有该干员
-        }
-        
         if (exp <= 0) {
             return false; // 经验值必须大于0
         }
-        
-        // 增加经验值
-        int result = playerOperatorMapper.addExp(playerOperator.getId(), exp);
-        return result > 0;
+        return updateOperator(playerId, operatorId, operator -> {
+            operator.setCurrentExp(operator.getCurrentExp() + exp);
+            return true;
+        });
     }
 
     
     @Override
     public boolean canLevelUp(Integer playerId, Integer operatorId) {
-        PlayerOperator playerOperator = playerOperatorMapper.selectByPlayerIdAndOperatorId(playerId, operatorId);
+        PlayerOperator playerOperator = getOperator(playerId, operatorId);
         if (playerOperator == null) {
             return false; // 玩家不拥有该干员
         }
         
         // 检查等级上限
-        if (playerOperator.getLevel() >= 90) {
+        if (playerOperator.getLevel() >= MAX_LEVEL) {
             return false; // 已达到最大等级
         }
         
@@ -168,4 +202,47 @@ public class OperatorServiceImpl implements OperatorService {
         // 暂时简化处理，只要有经验值就可以升级
         return playerOperator.getCurrentExp() > 0;
     }
+
+    private Integer getOperatorRarity(Integer operatorId) {
+        Operator operator = configService.getConfig("operators_config", operatorId, Operator.class);
+        return operator != null ? operator.getRarity() : null;
+    }
+
+    /**
+     * @return 升到该等级所需经验，没有配置时返回-1
+     */
+    private int getNeedExp(Integer rarity, Integer eliteLevel, int level) {
+        if (rarity == null || eliteLevel == null) {
+            return -1;
+        }
+        IntIntHashMap levelExp = levelExpCache;
+        if (levelExp == null) {
+            levelExp = new IntIntHashMap();
+            for (OperatorLevel config : configService.getConfigList("operator_levels_config", OperatorLevel.class)) {
+                if (config.getRarity() != null && config.getEliteLevel() != null
+                        && config.getLevel() != null && config.getNeedExp() != null) {
+                    levelExp.put(levelKey(config.getRarity(), config.getEliteLevel(), config.getLevel()), config.getNeedExp());
+                }
+            }
+            levelExpCache = levelExp;
+        }
+        return levelExp.get(levelKey(rarity, eliteLevel, level), -1);
+    }
+
+    private static int levelKey(int rarity, int eliteLevel, int level) {
+        return rarity * 10_000 + eliteLevel * 1_000 + level;
+    }
+
+    private PlayerOperator getOperator(Integer playerId, Integer operatorId) {
+        PlayerData data = playerDataService.get(playerId);
+        return data != null ? data.getOperator(operatorId) : null;
+    }
+
+    /**
+     * 在内存中修改玩家的干员，由玩家数据服务定时写回
+     * @return 玩家不拥有该干员或检查未通过时返回false
+     */
+    private boolean updateOperator(Integer playerId, Integer operatorId, Predicate<PlayerOperator> change) {
+        return Boolean.TRUE.equals(playerDataService.update(playerId, data -> data.updateOperator(operatorId, change)));
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,480 @@
+package com.example.tdgameserver.service.impl;
+
+import com.example.tdgameserver.datasource.ReplicaRouting;
+import com.example.tdgameserver.entity.backpack.PlayerItem;
+import com.example.tdgameserver.entity.operator.PlayerOperator;
+import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.entity.player.PlayerData;
+import com.example.tdgameserver.entity.stage.PlayerStage;
+import com.example.tdgameserver.mapper.PlayerItemMapper;
+import com.example.tdgameserver.mapper.PlayerMapper;
+import com.example.tdgameserver.mapper.PlayerOperatorMapper;
+import com.example.tdgameserver.mapper.PlayerStageMapper;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.service.PlayerDataService;
+import com.example.tdgameserver.session.PlayerSession;
+import com.example.tdgameserver.session.SessionManager;
+import com.example.tdgameserver.util.IntIntHashMap;
+import com.example.tdgameserver.util.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 玩家数据服务实现类
+ * 聚合按玩家Id保存在内存中，并发的加载合并为一次。写回按玩家Id固定到某个写回线程，同一玩家的写回按顺序进行；
+ * 每个玩家的脏行按表分组，用BATCH执行器的多行INSERT ... ON DUPLICATE KEY UPDATE在一个事务里写入，
+ * 语句在提交时一起发出。写回失败时重新标记脏行，下次再写。
+ * 道具按数量变化累加写入，其他节点对不在其内存中的玩家直接累加到数据库的发放不会被覆盖。
+ * 玩家离线后写回并在没有新的修改时释放聚合，释放后仍持有旧引用的处理器修改时重新加载。
+ * 聚合是写回的来源，加载总是走主库：从库上的旧数据被加载后会在下次写回时覆盖其他节点刚写入的新数据
+ */
+@Slf4j
+@Service
+public class PlayerDataServiceImpl implements PlayerDataService {
+    private static final int LOAD_LOCK_STRIPES = 256;
+
+    @Autowired
+    private PlayerMapper playerMapper;
+
+    @Autowired
+    private PlayerOperatorMapper playerOperatorMapper;
+
+    @Autowired
+    private PlayerItemMapper playerItemMapper;
+
+    @Autowired
+    private PlayerStageMapper playerStageMapper;
+
+    @Autowired
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SessionManager sessionManager = SessionManager.getInstance();
+    private final ConcurrentHashMap<Integer, PlayerData> players = new ConcurrentHashMap<>();
+    //已提交写回任务、尚未执行的玩家，避免写回慢时重复提交
+    private final Set<Integer> queued = ConcurrentHashMap.newKeySet();
+    private final SingleFlight singleFlight = new SingleFlight("player-data");
+    //按玩家Id分段的加载锁：加载和释放持所在段的读锁，批量发放持这批玩家所在段的写锁，
+    //避免加载读到发放前的数据后又被写回覆盖，也避免发放修改已释放的聚合。只有同段的加载会等待发放
+    private final ReentrantReadWriteLock[] loadLocks = new ReentrantReadWriteLock[LOAD_LOCK_STRIPES];
+    //BATCH执行器的Mapper，在事务内只缓存语句，提交时一起发出
+    private PlayerOperatorMapper batchOperatorMapper;
+    private PlayerItemMapper batchItemMapper;
+    private PlayerStageMapper batchStageMapper;
+    private int batchSize;
+    private ScheduledExecutorService ticker;
+    private ExecutorService[] flushers;
+    private Counter loads;
+    private Counter flushSucceeded;
+    private Counter flushFailed;
+    private Counter flushedRows;
+    private Timer flushTimer;
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < loadLocks.length; i++) {
+            loadLocks[i] = new ReentrantReadWriteLock();
+        }
+        GameServerProperties.Persistence config = properties.getPersistence();
+        batchSize = Math.max(1, config.getBatchSize());
+        SqlSessionTemplate batchSession = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.BATCH);
+        batchOperatorMapper = batchSession.getMapper(PlayerOperatorMapper.class);
+        batchItemMapper = batchSession.getMapper(PlayerItemMapper.class);
+        batchStageMapper = batchSession.getMapper(PlayerStageMapper.class);
+        flushers = new ExecutorService[Math.max(1, config.getFlushThreads())];
+        for (int i = 0; i < flushers.length; i++) {
+            String name = "game-data-flush-" + (i + 1);
+            flushers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "game-data-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, config.getFlushIntervalMillis(), config.getFlushIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+
+        Gauge.builder("game.playerdata.loaded", players, Map::size)
+                .description("内存中的玩家数据数").register(meterRegistry);
+        loads = Counter.builder("game.playerdata.loads")
+                .description("从数据库加载玩家数据的次数").register(meterRegistry);
+        flushSucceeded = Counter.builder("game.playerdata.flush").tag("result", "success")
+                .description("玩家数据写回次数").register(meterRegistry);
+        flushFailed = Counter.builder("game.playerdata.flush").tag("result", "failure")
+                .description("玩家数据写回次数").register(meterRegistry);
+        flushedRows = Counter.builder("game.playerdata.flush.rows")
+                .description("写回的脏行数").register(meterRegistry);
+        flushTimer = Timer.builder("game.playerdata.flush.time")
+                .description("单个玩家写回耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        sessionManager.registerSessionCloseListener(this::onPlayerOffline);
+        log.info("玩家数据服务初始化完成，写回间隔: {}ms，写回线程数: {}", config.getFlushIntervalMillis(), flushers.length);
+    }
+
+    /**
+     * 停服时写回所有玩家数据。GameServer依赖本服务，先于本服务销毁，这里执行时连接和分发器都已停止
+     */
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        for (ExecutorService flusher : flushers) {
+            flusher.shutdown();
+        }
+        try {
+            for (ExecutorService flusher : flushers) {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int failed = 0;
+        for (PlayerData data : players.values()) {
+            if (!flushData(data)) {
+                failed++;
+            }
+        }
+        log.info("停服写回玩家数据完成，玩家数: {}，失败: {}", players.size(), failed);
+    }
+
+    @Override
+    public PlayerData load(Player player) {
+        PlayerData data = players.get(player.getId());
+        return data != null ? data : singleFlight.execute("load", () -> loadFromDb(player.getId(), player), player.getId());
+    }
+
+    @Override
+    public PlayerData get(Integer playerId) {
+        if (playerId == null) {
+            return null;
+        }
+        PlayerData data = players.get(playerId);
+        return data != null ? data : singleFlight.execute("load", () -> loadFromDb(playerId, null), playerId);
+    }
+
+    @Override
+    public <R> R update(Integer playerId, Function<PlayerData, R> change) {
+        while (true) {
+            PlayerData data = get(playerId);
+            if (data == null) {
+                return null;
+            }
+            try {
+                return change.apply(data);
+            } catch (PlayerData.ReleasedException e) {
+                // 取到的聚合刚被释放，移除后重新加载
+                players.remove(playerId, data);
+            }
+        }
+    }
+
+    @Override
+    public boolean flush(Integer playerId) {
+        PlayerData data = players.get(playerId);
+        return data == null || flushOn(playerId, data);
+    }
+
+    /**
+     * 在该玩家的写回线程上写回并等待完成
+     */
+    private boolean flushOn(int playerId, PlayerData data) {
+        try {
+            // 在该玩家的写回线程上执行，和定时写回按顺序进行
+            Future<Boolean> result = flusherFor(playerId).submit(() -> flushData(data));
+            return result.get();
+        } catch (RejectedExecutionException e) {
+            return flushData(data);
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public int grantItems(Collection<Integer> playerIds, IntIntHashMap amounts) {
+        int playersPerChunk = Math.max(1, batchSize / Math.max(1, amounts.size()));
+        List<Integer> chunk = new ArrayList<>(playersPerChunk);
+        int granted = 0;
+        for (Integer playerId : playerIds) {
+            if (playerId == null) {
+                continue;
+            }
+            chunk.add(playerId);
+            if (chunk.size() == playersPerChunk) {
+                granted += grantChunk(chunk, amounts);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            granted += grantChunk(chunk, amounts);
+        }
+        log.info("批量发放道具完成，道具种类: {}，玩家数: {}，成功: {}", amounts.size(), playerIds.size(), granted);
+        return granted;
+    }
+
+    /**
+     * 发放给一组玩家：内存中有数据的在内存中增加，由写回带到数据库；其余的在一个事务里多行累加到数据库。
+     * 期间持有这组玩家所在段的加载写锁，这组玩家不会在累加提交前被加载，内存中的聚合也不会被释放。
+     * 网关模式下玩家可能在其他节点的内存中，这里同样累加到数据库：那个节点写回道具时只累加它自己的数量变化，
+     * 不会覆盖这次发放，但它内存中的数量要等玩家数据重新加载(重新登录)后才包含这次发放
+     */
+    private int grantChunk(List<Integer> playerIds, IntIntHashMap amounts) {
+        List<PlayerItem> rows = new ArrayList<>();
+        int inMemory = 0;
+        int offline = 0;
+        // 按段号顺序加锁，多个批量发放同时进行时不会互相死锁
+        int[] stripes = playerIds.stream().mapToInt(PlayerDataServiceImpl::stripe).distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            loadLocks[stripe].writeLock().lock();
+        }
+        try {
+            for (Integer playerId : playerIds) {
+                PlayerData data = players.get(playerId);
+                if (data == null) {
+                    amounts.forEach((itemId, quantity) -> rows.add(item(playerId, itemId, quantity)));
+                    offline++;
+                } else if (data.grantItems(amounts) == null) {
+                    log.warn("玩家 {} 的道具数量超出上限，跳过批量发放", playerId);
+                } else {
+                    inMemory++;
+                }
+            }
+            if (!rows.isEmpty()) {
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (List<PlayerItem> part : partition(rows)) {
+                        batchItemMapper.batchAddQuantity(part);
+                    }
+                });
+                flushedRows.increment(rows.size());
+            }
+            return inMemory + offline;
+        } catch (RuntimeException e) {
+            log.error("批量发放道具写入数据库失败，未发放的玩家数: {}", offline, e);
+            return inMemory;
+        } finally {
+            for (int stripe : stripes) {
+                loadLocks[stripe].writeLock().unlock();
+            }
+        }
+    }
+
+    private PlayerData loadFromDb(int playerId, Player player) {
+        PlayerData data = players.get(playerId);
+        if (data != null) {
+            return data;
+        }
+        ReentrantReadWriteLock.ReadLock lock = loadLocks[stripe(playerId)].readLock();
+        lock.lock();
+        try {
+            if (player == null) {
+                player = playerMapper.selectByPlayerId(playerId);
+                if (player == null) {
+                    return null;
+                }
+            }
+            loads.increment();
+            Player row = player;
+            data = ReplicaRouting.onPrimary(() -> new PlayerData(row,
+                    playerOperatorMapper.selectByPlayerId(playerId),
+                    playerItemMapper.selectByPlayerId(playerId),
+                    playerStageMapper.selectByPlayerId(playerId)));
+            PlayerData existing = players.putIfAbsent(playerId, data);
+            return existing != null ? existing : data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int stripe(int playerId) {
+        return (playerId & Integer.MAX_VALUE) % LOAD_LOCK_STRIPES;
+    }
+
+    private void onPlayerOffline(PlayerSession session) {
+        Integer playerId = session.getPlayerId();
+        // 被接管或被踢下线的旧会话关闭时玩家仍在线，数据继续留在内存
+        if (playerId != null && sessionManager.getSessionsByPlayerId(playerId) == null && players.containsKey(playerId)) {
+            schedule(playerId);
+        }
+    }
+
+    /**
+     * 定时检查：有脏数据或玩家已离线的提交写回
+     */
+    private void tick() {
+        try {
+            for (PlayerData data : players.values()) {
+                if (data.isDirty() || sessionManager.getSessionsByPlayerId(data.getPlayerId()) == null) {
+                    schedule(data.getPlayerId());
+                }
+            }
+        } catch (Exception e) {
+            log.error("玩家数据定时写回检查失败", e);
+        }
+    }
+
+    private void schedule(int playerId) {
+        if (!queued.add(playerId)) {
+            return;
+        }
+        try {
+            flusherFor(playerId).execute(() -> {
+                queued.remove(playerId);
+                flushAndRelease(playerId);
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(playerId);
+        }
+    }
+
+    private ExecutorService flusherFor(int playerId) {
+        return flushers[(playerId & Integer.MAX_VALUE) % flushers.length];
+    }
+
+    /**
+     * 写回玩家数据，玩家已离线且没有新的修改时释放聚合
+     */
+    private void flushAndRelease(int playerId) {
+        PlayerData data = players.get(playerId);
+        if (data == null || !flushData(data)) {
+            return;
+        }
+        if (sessionManager.getSessionsByPlayerId(playerId) == null && release(playerId, data)) {
+            log.debug("玩家 {} 已离线，释放内存中的玩家数据", playerId);
+        }
+    }
+
+    /**
+     * 没有新的修改时标记聚合已释放并从内存中移除，持加载读锁，和批量发放互斥。
+     * 还在执行的处理器(如离线玩家队列中剩下的消息)之后修改时会重新加载，修改不会写进已释放的聚合而丢失
+     */
+    private boolean release(int playerId, PlayerData data) {
+        ReentrantReadWriteLock.ReadLock lock = loadLocks[stripe(playerId)].readLock();
+        lock.lock();
+        try {
+            return data.markReleased() && players.remove(playerId, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把脏行按表分组在一个事务里写入，失败时重新标记
+     * @return 写回成功或没有脏行时返回true
+     */
+    private boolean flushData(PlayerData data) {
+        PlayerData.DirtyRows rows = data.takeDirty();
+        if (rows.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> write(data.getPlayerId(), rows));
+            flushSucceeded.increment();
+            flushedRows.increment(rows.size());
+            if (!rows.getItems().isEmpty()) {
+                fillItemRowIds(data);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            data.restoreDirty(rows);
+            flushFailed.increment();
+            log.error("玩家 {} 的数据写回失败，稍后重试，脏行数: {}", data.getPlayerId(), rows.size(), e);
+            return false;
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 查询新增道具写回后的行id，只用于返回给客户端的道具行，失败时下次写回再查
+     */
+    private void fillItemRowIds(PlayerData data) {
+        List<Integer> itemIds = data.getItemsWithoutRowId();
+        if (itemIds.isEmpty()) {
+            return;
+        }
+        try {
+            for (List<Integer> part : partition(itemIds)) {
+                data.setItemRowIds(ReplicaRouting.onPrimary(
+                        () -> playerItemMapper.selectByPlayerIdAndItemIds(data.getPlayerId(), part)));
+            }
+        } catch (RuntimeException e) {
+            log.warn("玩家 {} 新增道具的行id查询失败", data.getPlayerId(), e);
+        }
+    }
+
+    private void write(int playerId, PlayerData.DirtyRows rows) {
+        for (List<PlayerOperator> part : partition(rows.getOperators())) {
+            batchOperatorMapper.batchUpsert(part);
+        }
+        for (List<PlayerItem> part : partition(rows.getItems())) {
+            batchItemMapper.batchAddQuantity(part);
+        }
+        for (List<Integer> part : partition(rows.getRemovedItems())) {
+            batchItemMapper.deleteEmptyByPlayerIdAndItemIds(playerId, part);
+        }
+        for (List<PlayerStage> part : partition(rows.getStages())) {
+            batchStageMapper.batchUpsert(part);
+        }
+    }
+
+    /**
+     * 按每条语句的行数上限切分
+     */
+    private <T> List<List<T>> partition(List<T> rows) {
+        List<List<T>> parts = new ArrayList<>((rows.size() + batchSize - 1) / batchSize);
+        for (int i = 0; i < rows.size(); i += batchSize) {
+            parts.add(rows.subList(i, Math.min(rows.size(), i + batchSize)));
+        }
+        return parts;
+    }
+
+    private static PlayerItem item(int playerId, int itemId, int quantity) {
+        PlayerItem item = new PlayerItem();
+        item.setPlayerId(playerId);
+        item.setItemId(itemId);
+        item.setQuantity(quantity);
+        return item;
+    }
+}
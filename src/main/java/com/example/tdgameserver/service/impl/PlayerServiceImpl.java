@@ -2,7 +2,9 @@ package com.example.tdgameserver.service.impl;
 
 import com.example.tdgameserver.entity.player.Player;
 import com.example.tdgameserver.mapper.PlayerMapper;
+import com.example.tdgameserver.service.LoginService;
 import com.example.tdgameserver.service.PlayerService;
+import com.example.tdgameserver.util.SingleFlight;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -16,10 +18,16 @@ public class PlayerServiceImpl implements PlayerService {
     
     @Autowired
     private PlayerMapper playerMapper;
+
+    @Autowired
+    private LoginService loginService;
+
+    //合并并发的相同玩家查询
+    private final SingleFlight singleFlight = new SingleFlight("player");
     
     @Override
     public Player getPlayerById(Integer playerId) {
-        return playerMapper.selectByPlayerId(playerId);
+        return singleFlight.execute("getPlayerById", () -> playerMapper.selectByPlayerId(playerId), playerId);
     }
     
     @Override
@@ -36,10 +44,11 @@ public class PlayerServiceImpl implements PlayerService {
         }
         
         // 创建新玩家（这里简化处理，实际应该生成唯一的playerId）
-        Player newPlayer = new Player(null, playerName, password);
+        Player newPlayer = new Player(null, playerName, loginService.hashPassword(password));
         int result = playerMapper.insert(newPlayer);
         
         if (result > 0) {
+            loginService.invalidate(playerName);
             // 重新查询获取完整的玩家信息（包括生成的ID）
             return playerMapper.selectByPlayerName(playerName);
         }
@@ -49,26 +58,34 @@ public class PlayerServiceImpl implements PlayerService {
     
     @Override
     public boolean updatePlayer(Player player) {
-        return playerMapper.update(player) > 0;
+        // 名字可能被修改，新旧名字的登录缓存都要失效
+        Player existing = playerMapper.selectByPlayerId(player.getId());
+        boolean updated = playerMapper.update(player) > 0;
+        if (existing != null) {
+            loginService.invalidate(existing.getPlayerName());
+        }
+        loginService.invalidate(player.getPlayerName());
+        return updated;
     }
     
     @Override
     public boolean deletePlayer(Integer playerId) {
-        return playerMapper.deleteByPlayerId(playerId) > 0;
+        Player existing = playerMapper.selectByPlayerId(playerId);
+        boolean deleted = playerMapper.deleteByPlayerId(playerId) > 0;
+        if (existing != null) {
+            loginService.invalidate(existing.getPlayerName());
+        }
+        return deleted;
     }
     
     @Override
     public List<Player> getAllPlayers() {
-        return playerMapper.selectAll();
+        return singleFlight.execute("getAllPlayers", playerMapper::selectAll);
     }
     
     @Override
     public Player authenticatePlayer(String playerName, String password) {
-        Player player = playerMapper.selectByPlayerName(playerName);
-        if (player != null && password.equals(player.getPassword())) {
-            return player;
-        }
-        return null;
+        return loginService.authenticate(playerName, password).join();
     }
 
     @Override
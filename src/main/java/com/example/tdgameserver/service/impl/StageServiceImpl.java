@@ -3,23 +3,26 @@ package com.example.tdgameserver.service.impl;
 import com.example.tdgameserver.config.ConfigService;
 import com.example.tdgameserver.entity.stage.Stage;
 import com.example.tdgameserver.entity.stage.PlayerStage;
-import com.example.tdgameserver.mapper.PlayerStageMapper;
+import com.example.tdgameserver.entity.player.PlayerData;
+import com.example.tdgameserver.service.PlayerDataService;
 import com.example.tdgameserver.service.StageService;
 import com.example.tdgameserver.requestEntity.StageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
 /**
  * 关卡服务实现类
+ * 通关记录在内存中的玩家数据上读写，由玩家数据服务写回数据库
  */
 @Service
 public class StageServiceImpl implements StageService {
 
     @Autowired
-    private PlayerStageMapper playerStageMapper;
+    private PlayerDataService playerDataService;
 
     @Autowired
     private ConfigService configService;
@@ -35,12 +38,14 @@ public class StageServiceImpl implements StageService {
     
     @Override
     public List<PlayerStage> getPlayerStages(int playerId) {
-        return playerStageMapper.selectByPlayerId(playerId);
+        PlayerData data = playerDataService.get(playerId);
+        return data != null ? data.getStages() : new ArrayList<>();
     }
     
     @Override
     public PlayerStage getPlayerStage(int playerId, Integer stageId) {
-        return playerStageMapper.selectByPlayerIdAndStageId(playerId, stageId);
+        PlayerData data = playerDataService.get(playerId);
+        return data != null ? data.getStage(stageId) : null;
     }
     
     @Override
@@ -61,28 +66,17 @@ public class StageServiceImpl implements StageService {
                 .map(String::valueOf)
                 .collect(Collectors.joining(","));
         
-        // 查询是否已有通关记录
-        PlayerStage existingRecord = getPlayerStage(playerId, request.getStageId());
-        
-        if (existingRecord != null) {
-            // 更新记录（如果新星级更高）
-            if (request.getStar() > existingRecord.getStar()) {
-                existingRecord.setStar(request.getStar());
-                existingRecord.setOperatorIds(operatorIdsStr);
-                existingRecord.setPassTime(LocalDateTime.now());
-                return playerStageMapper.update(existingRecord) > 0;
+        Boolean saved = playerDataService.update(playerId, data -> data.updateStage(request.getStageId(), record -> {
+            // 已有记录时只在新星级更高时更新
+            if (record.getStar() != null && request.getStar() <= record.getStar()) {
+                return false; // 星级没有提升，但也不算失败
             }
-            return true; // 星级没有提升，但也不算失败
-        } else {
-            // 插入新记录
-            PlayerStage newRecord = new PlayerStage();
-            newRecord.setPlayerId(playerId);
-            newRecord.setStageId(request.getStageId());
-            newRecord.setStar(request.getStar());
-            newRecord.setOperatorIds(operatorIdsStr);
-            newRecord.setPassTime(LocalDateTime.now());
-            return playerStageMapper.insert(newRecord) > 0;
-        }
+            record.setStar(request.getStar());
+            record.setOperatorIds(operatorIdsStr);
+            record.setPassTime(LocalDateTime.now());
+            return true;
+        }));
+        return saved != null;
     }
     
     @Override
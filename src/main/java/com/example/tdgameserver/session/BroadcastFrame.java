@@ -0,0 +1,76 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.EncodedFrame;
+import com.example.tdgameserver.network.FrameCompression;
+import com.example.tdgameserver.network.FrameHeader;
+import com.example.tdgameserver.network.GameMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+
+/**
+ * 广播帧
+ * 同一条广播消息按接收连接的帧格式(是否压缩、是否带序号)最多编码4个版本，每个版本只编码一次，
+ * 各接收者拿到的是共享帧的retainedDuplicate。只在发起广播的线程上使用，用完调用release()
+ */
+final class BroadcastFrame {
+    private static final int COMPRESSED = 2;
+    private static final int SEQUENCED = 1;
+
+    private final GameMessage message;
+    private final ByteBuf[] variants = new ByteBuf[4];
+    private ByteBuf compressedPayload;
+    private boolean compressionTried;
+
+    /**
+     * @param message 广播的消息，引用计数由BroadcastFrame接管
+     */
+    BroadcastFrame(GameMessage message) {
+        this.message = message;
+    }
+
+    /**
+     * 取适合该连接的帧
+     */
+    EncodedFrame frameFor(Channel channel) {
+        boolean compressed = FrameCompression.shouldCompress(channel, message.getPayloadLength()) && compressedPayload() != null;
+        boolean sequenced = FrameHeader.isSequenced(channel);
+        int index = (compressed ? COMPRESSED : 0) | (sequenced ? SEQUENCED : 0);
+        ByteBuf frame = variants[index];
+        if (frame == null) {
+            frame = encode(compressed ? compressedPayload : message.content(), compressed, sequenced);
+            variants[index] = frame;
+        }
+        return new EncodedFrame(message.getMessageId(), frame.retainedDuplicate());
+    }
+
+    void release() {
+        for (ByteBuf frame : variants) {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+        if (compressedPayload != null) {
+            compressedPayload.release();
+        }
+        message.release();
+    }
+
+    private ByteBuf compressedPayload() {
+        if (!compressionTried) {
+            compressionTried = true;
+            compressedPayload = FrameCompression.deflate(ByteBufAllocator.DEFAULT, message.content());
+        }
+        return compressedPayload;
+    }
+
+    private ByteBuf encode(ByteBuf body, boolean compressed, boolean sequenced) {
+        int flags = (compressed ? FrameHeader.FLAG_COMPRESSED : 0) | (sequenced ? FrameHeader.FLAG_SEQUENCED : 0);
+        int length = body.readableBytes();
+        //广播帧会被多个连接同时读取，编码成一块连续的缓冲区
+        ByteBuf frame = ByteBufAllocator.DEFAULT.directBuffer(FrameHeader.HEADER_LENGTH + FrameHeader.extensionLength(flags) + length);
+        FrameHeader.write(frame, message.getMessageId(), flags, length, 0);
+        frame.writeBytes(body, body.readerIndex(), length);
+        return frame;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameMessageHandler;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.network.MessageId;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.protocol.CachedResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.Unpooled;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 请求幂等缓存
+ * 客户端在请求帧头带上幂等键(FLAG_IDEMPOTENT)后，按玩家记住最近的键和处理该请求时发出的响应。
+ * 客户端重试带相同键和消息Id的请求时直接补发记录的响应，不再执行处理器，避免重复扣道具、重复升级。
+ * 只缓存成功处理的请求：回复了失败响应的请求不记录，重试时重新执行。
+ * 只对已登录的会话生效，键按玩家保存，断线恢复和重复登录后仍然有效，玩家离线时清除
+ */
+@Slf4j
+@Component
+public class IdempotencyCache {
+    private static final CachedResponse IN_PROGRESS = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("请求正在处理中，请稍后重试"));
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SessionManager sessionManager = SessionManager.getInstance();
+    private final ConcurrentHashMap<Integer, PlayerKeys> players = new ConcurrentHashMap<>();
+    private boolean enabled;
+    private int maxKeysPerPlayer;
+    private long ttlMillis;
+    private Counter executed;
+    private Counter replayed;
+    private Counter inProgress;
+
+    @PostConstruct
+    public void init() {
+        GameServerProperties.Idempotency config = properties.getIdempotency();
+        enabled = config.isEnabled();
+        maxKeysPerPlayer = Math.max(1, config.getMaxKeysPerPlayer());
+        ttlMillis = config.getTtlMillis();
+        executed = meterRegistry.counter("game.idempotency.requests", "result", "executed");
+        replayed = meterRegistry.counter("game.idempotency.requests", "result", "replayed");
+        inProgress = meterRegistry.counter("game.idempotency.requests", "result", "in_progress");
+        sessionManager.registerSessionCloseListener(this::onPlayerOffline);
+    }
+
+    private void onPlayerOffline(PlayerSession session) {
+        Integer playerId = session.getPlayerId();
+        // 被接管或被踢下线的旧会话关闭时玩家仍在线，保留已记录的键
+        if (playerId != null && sessionManager.getSessionsByPlayerId(playerId) == null) {
+            players.remove(playerId);
+        }
+    }
+
+    /**
+     * 处理请求：不带幂等键或会话未登录时直接交给处理器；键已记录时补发记录的响应；
+     * 否则执行处理器并记录期间发出的响应。在分发线程上调用
+     */
+    public void handle(PlayerSession session, GameMessage message, GameMessageHandler processor) {
+        long key = message.getIdempotencyKey();
+        Integer playerId = session.getPlayerId();
+        if (!enabled || key == 0 || playerId == null || !session.isAuthenticated()) {
+            processor.handle(session, message);
+            return;
+        }
+        PlayerKeys keys = players.computeIfAbsent(playerId, id -> new PlayerKeys(maxKeysPerPlayer));
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (keys) {
+            entry = keys.get(key);
+            if (entry != null && (entry.expireAt <= now || entry.messageId != message.getMessageId())) {
+                // 过期，或客户端把同一个键用在了别的请求上，按新请求处理
+                keys.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(message.getMessageId(), now + ttlMillis);
+                keys.put(key, entry);
+            } else if (entry.responses != null) {
+                replay(session, message, entry.responses);
+                return;
+            } else {
+                inProgress.increment();
+                session.sendResponse(IN_PROGRESS, message.getSequence());
+                return;
+            }
+        }
+
+        executed.increment();
+        ResponseRecorder recorder = new ResponseRecorder();
+        session.setResponseRecorder(recorder);
+        boolean completed = false;
+        try {
+            processor.handle(session, message);
+            completed = true;
+        } finally {
+            session.setResponseRecorder(null);
+            synchronized (keys) {
+                if (completed && !recorder.isFailed()) {
+                    entry.responses = recorder.getMessages();
+                } else {
+                    // 处理器异常或回复了失败(可能是数据库等暂时性故障)，不缓存失败的响应，允许客户端重试
+                    keys.remove(key, entry);
+                }
+            }
+        }
+    }
+
+    private void replay(PlayerSession session, GameMessage request, List<ResponseRecorder.Recorded> responses) {
+        replayed.increment();
+        log.debug("玩家 {} 重复的请求：messageId = {}，补发记录的响应 {} 条", session.getPlayerId(),
+                request.getMessageId(), responses.size());
+        for (ResponseRecorder.Recorded response : responses) {
+            session.sendMessage(new GameMessage(response.messageId, response.reply ? request.getSequence() : 0,
+                    Unpooled.wrappedBuffer(response.payload)));
+        }
+    }
+
+    /**
+     * 一个玩家最近的幂等键，按插入顺序淘汰，访问时加对象锁
+     */
+    private static final class PlayerKeys extends LinkedHashMap<Long, Entry> {
+        private final int maxKeys;
+
+        PlayerKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            if (size() <= maxKeys) {
+                return false;
+            }
+            // 淘汰时跳过仍在处理中的键，否则处理完成前的重试会被再执行一次
+            Iterator<Map.Entry<Long, Entry>> iterator = entrySet().iterator();
+            while (iterator.hasNext() && size() > maxKeys) {
+                if (iterator.next().getValue().responses != null) {
+                    iterator.remove();
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Entry {
+        final int messageId;
+        final long expireAt;
+        //处理完成前为null
+        List<ResponseRecorder.Recorded> responses;
+
+        Entry(int messageId, long expireAt) {
+            this.messageId = messageId;
+            this.expireAt = expireAt;
+        }
+    }
+}
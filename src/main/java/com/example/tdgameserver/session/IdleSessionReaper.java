@@ -0,0 +1,110 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.GameServerProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空闲连接回收
+ * 每个会话在时间轮上挂一个超时任务，到期时检查最后活跃时间：仍在活跃则按剩余时间重新挂上，
+ * 否则关闭连接，由channelInactive走正常的会话清理流程(移除会话、触发关闭监听器释放玩家缓存)。
+ * 收到消息时只更新时间戳，不操作时间轮
+ */
+@Slf4j
+@Component
+public class IdleSessionReaper {
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private HashedWheelTimer timer;
+    private long idleTimeoutMillis;
+    private long loginTimeoutMillis;
+    private Counter idleReaped;
+    private Counter loginReaped;
+
+    @PostConstruct
+    public void init() {
+        GameServerProperties.Idle config = properties.getIdle();
+        idleTimeoutMillis = config.getTimeoutMillis();
+        loginTimeoutMillis = config.getLoginTimeoutMillis();
+        timer = new HashedWheelTimer(new DefaultThreadFactory("game-idle-reaper", true),
+                config.getTickMillis(), TimeUnit.MILLISECONDS, config.getTicksPerWheel());
+        idleReaped = Counter.builder("game.session.reaped")
+                .description("因超时被回收的连接数")
+                .tag("reason", "idle")
+                .register(meterRegistry);
+        loginReaped = Counter.builder("game.session.reaped")
+                .description("因超时被回收的连接数")
+                .tag("reason", "login")
+                .register(meterRegistry);
+        log.info("空闲连接回收已启动，空闲超时: {}ms，登录超时: {}ms", idleTimeoutMillis, loginTimeoutMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.stop();
+    }
+
+    /**
+     * 开始监控新连接
+     */
+    public void watch(PlayerSession session) {
+        IdleCheck check = new IdleCheck(session, System.currentTimeMillis());
+        session.setIdleTimeout(timer.newTimeout(check, Math.min(idleTimeoutMillis, loginTimeoutMillis), TimeUnit.MILLISECONDS));
+    }
+
+    private final class IdleCheck implements TimerTask {
+        private final PlayerSession session;
+        private final long connectedAt;
+
+        private IdleCheck(PlayerSession session, long connectedAt) {
+            this.session = session;
+            this.connectedAt = connectedAt;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (!session.isActive()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long remaining;
+            if (session.isAuthenticated()) {
+                remaining = idleTimeoutMillis - (now - session.getLastActiveTime());
+                if (remaining <= 0) {
+                    idleReaped.increment();
+                    log.info("玩家连接空闲超时，关闭连接：playerId = {}，地址: {}", session.getPlayerId(), session.getChannel().remoteAddress());
+                    session.getChannel().close();
+                    return;
+                }
+            } else {
+                // 未登录的连接从建立连接开始计时，心跳不能延长登录期限
+                remaining = loginTimeoutMillis - (now - connectedAt);
+                if (remaining <= 0) {
+                    loginReaped.increment();
+                    log.info("连接未在规定时间内完成登录，关闭连接：{}", session.getChannel().remoteAddress());
+                    session.getChannel().close();
+                    return;
+                }
+                // 登录期限内也可能已登录，届时按空闲超时检查
+                remaining = Math.min(remaining, idleTimeoutMillis);
+            }
+            session.setIdleTimeout(timer.newTimeout(this, remaining, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.MessageId;
+
+/**
+ * 下行消息优先级
+ * 同一会话中高优先级的消息先于低优先级的消息写出
+ */
+public enum OutboundPriority {
+    /**
+     * 战斗、对局等实时推送
+     */
+    HIGH,
+    /**
+     * 普通请求的响应
+     */
+    NORMAL,
+    /**
+     * 全量列表等大体积响应，积压过多时可丢弃
+     */
+    BULK;
+
+    /**
+     * 根据消息ID确定默认优先级
+     */
+    public static OutboundPriority of(int messageId) {
+        if (messageId == MessageId.RESP_GET_BACKPACK.getId()
+                || messageId == MessageId.RESP_GET_BACKPACK_BY_TYPE.getId()
+                || messageId == MessageId.RESP_GET_PLAYER_OPERATORS.getId()
+                || messageId == MessageId.RESP_GET_PLAYER_STAGES.getId()
+                || messageId == MessageId.RESP_GET_ALL_PLAYERS.getId()) {
+            return BULK;
+        }
+        return NORMAL;
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.EncodedFrame;
+import com.example.tdgameserver.network.FrameHeader;
+import com.example.tdgameserver.network.GameMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * 会话下行队列
+ * 任意线程发送的消息先按优先级入队，再由事件循环统一写出并只flush一次，
+ * 把同一tick内的多次写合并为一次系统调用；通道不可写时暂停写出，等待可写后继续。
+ * 积压的字节数(队列+通道出站缓冲区)超过软上限时丢弃BULK消息，丢弃的是请求的响应时改发一条带同样序号的繁忙响应，
+ * 超过硬上限时断开慢速客户端。
+ * 挂了重放缓冲区的会话，写出的帧同时记入缓冲区，连接断开后未写出和新来的消息也转入缓冲区，等待断线恢复时补发
+ */
+@Slf4j
+public class OutboundQueue {
+    private static final Counter DROPPED_BULK = Metrics.counter("game.outbound.dropped.bulk");
+    private static final Counter SLOW_CONSUMER_CLOSED = Metrics.counter("game.outbound.slow.consumer.closed");
+
+    private final Channel channel;
+    private final long softLimitBytes;
+    private final long hardLimitBytes;
+    //按请求序号生成代替被丢弃响应的繁忙响应
+    private final IntFunction<GameMessage> busyReply;
+    @SuppressWarnings("unchecked")
+    private final Queue<GameMessage>[] lanes = new Queue[OutboundPriority.values().length];
+    //队列中尚未写入通道的字节数
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+    private volatile ReplayBuffer replay;
+
+    public OutboundQueue(Channel channel, long softLimitBytes, long hardLimitBytes, IntFunction<GameMessage> busyReply) {
+        this.channel = channel;
+        this.softLimitBytes = softLimitBytes;
+        this.hardLimitBytes = hardLimitBytes;
+        this.busyReply = busyReply;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * 消息入队，消息的引用计数由队列接管
+     */
+    public void enqueue(GameMessage message, OutboundPriority priority) {
+        if (offer(message, priority)) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 消息入队但不调度写出，由调用方随后在事件循环中调用flushNow()，用于广播时按事件循环批量写出
+     * @return 消息是否入队(被丢弃或连接已断开时返回false)
+     */
+    boolean offer(GameMessage message, OutboundPriority priority) {
+        if (!channel.isActive()) {
+            ReplayBuffer buffer = replay;
+            if (buffer != null) {
+                buffer.append(message);
+            } else {
+                message.release();
+            }
+            return false;
+        }
+        long pending = pendingBytes();
+        if (pending > hardLimitBytes) {
+            message.release();
+            SLOW_CONSUMER_CLOSED.increment();
+            log.warn("客户端下行积压 {} 字节，超过上限，断开连接：{}", pending, channel.remoteAddress());
+            channel.close();
+            return false;
+        }
+        if (priority == OutboundPriority.BULK && pending > softLimitBytes) {
+            message.release();
+            DROPPED_BULK.increment();
+            log.warn("客户端下行积压 {} 字节，丢弃大体积消息：messageId = {}", pending, message.getMessageId());
+            int sequence = message.getSequence();
+            // 请求的响应不能无声丢弃，否则客户端一直等不到回复；回复繁忙让客户端稍后重试
+            return sequence != 0 && offer(busyReply.apply(sequence), OutboundPriority.NORMAL);
+        }
+        queuedBytes.addAndGet(frameSize(message));
+        lanes[priority.ordinal()].offer(message);
+        return true;
+    }
+
+    /**
+     * 通道重新可写或有新消息时，调度一次写出
+     */
+    public void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            // 即使当前就在事件循环中也延后执行，合并本tick内后续的写
+            channel.eventLoop().execute(drainTask);
+        }
+    }
+
+    /**
+     * 积压的总字节数(队列+通道出站缓冲区)
+     */
+    public long pendingBytes() {
+        ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        long channelPending = outboundBuffer != null ? outboundBuffer.totalPendingWriteBytes() : 0;
+        return queuedBytes.get() + channelPending;
+    }
+
+    /**
+     * 释放队列中所有未写出的消息，会话关闭时调用
+     */
+    public void discard() {
+        for (Queue<GameMessage> lane : lanes) {
+            GameMessage message;
+            while ((message = lane.poll()) != null) {
+                queuedBytes.addAndGet(-frameSize(message));
+                message.release();
+            }
+        }
+    }
+
+    /**
+     * 释放队列和重放缓冲区中的所有消息，会话移除时调用
+     */
+    public void close() {
+        ReplayBuffer buffer = replay;
+        replay = null;
+        if (buffer != null) {
+            buffer.clear();
+        }
+        discard();
+    }
+
+    /**
+     * 按优先级取出队列中所有未写出的消息交给consumer，消息的引用计数随之转交，
+     * 会话迁到其他节点时调用，只能在通道的事件循环中调用
+     */
+    public void drainTo(BiConsumer<GameMessage, OutboundPriority> consumer) {
+        OutboundPriority[] priorities = OutboundPriority.values();
+        for (int i = 0; i < lanes.length; i++) {
+            GameMessage message;
+            while ((message = lanes[i].poll()) != null) {
+                queuedBytes.addAndGet(-frameSize(message));
+                consumer.accept(message, priorities[i]);
+            }
+        }
+    }
+
+    void setReplay(ReplayBuffer replay) {
+        this.replay = replay;
+    }
+
+    ReplayBuffer getReplay() {
+        return replay;
+    }
+
+    /**
+     * 摘下重放缓冲区，队列中未写出的消息先转入缓冲区，只能在通道的事件循环中调用
+     */
+    ReplayBuffer detachReplay() {
+        ReplayBuffer buffer = replay;
+        if (buffer != null) {
+            drainTo((message, priority) -> buffer.append(message));
+            replay = null;
+        }
+        return buffer;
+    }
+
+    private void drain() {
+        flushScheduled.set(false);
+        flushNow();
+    }
+
+    /**
+     * 立即写出队列中的消息，只能在通道的事件循环中调用
+     */
+    void flushNow() {
+        ReplayBuffer buffer = replay;
+        if (!channel.isActive()) {
+            if (buffer != null) {
+                drainTo((message, priority) -> buffer.append(message));
+            } else {
+                discard();
+            }
+            return;
+        }
+        boolean written = false;
+        GameMessage message;
+        while (channel.isWritable() && (message = poll()) != null) {
+            queuedBytes.addAndGet(-frameSize(message));
+            if (buffer != null) {
+                buffer.record(message);
+            }
+            channel.write(message, channel.voidPromise());
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    private GameMessage poll() {
+        for (Queue<GameMessage> lane : lanes) {
+            GameMessage message = lane.poll();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private static int frameSize(GameMessage message) {
+        if (message instanceof EncodedFrame) {
+            return ((EncodedFrame) message).getFrameLength();
+        }
+        return FrameHeader.HEADER_LENGTH + message.getPayloadLength();
+    }
+}
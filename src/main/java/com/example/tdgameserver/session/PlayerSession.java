@@ -1,26 +1,82 @@
 package com.example.tdgameserver.session;
 
+import com.example.tdgameserver.network.DispatchLane;
+import com.example.tdgameserver.network.FrameCompression;
 import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.network.MessageId;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.protocol.CachedResponse;
+import com.example.tdgameserver.protocol.JsonMessageCodec;
+import com.example.tdgameserver.protocol.MessageCodec;
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.FastThreadLocal;
 import lombok.Data;
 
 @Data
 public class PlayerSession {
+    //下行积压过多、大体积响应被丢弃时代替它回复
+    private static final CachedResponse OUTBOUND_BUSY = new CachedResponse(MessageId.ERROR_MSG.getId(),
+            Response.error("服务器繁忙，请稍后重试"));
+    //分发线程上正在处理的请求，会话自己的请求才带回序号，处理器给其他玩家发的消息不受影响
+    private static final FastThreadLocal<CurrentRequest> CURRENT_REQUEST = new FastThreadLocal<CurrentRequest>() {
+        @Override
+        protected CurrentRequest initialValue() {
+            return new CurrentRequest();
+        }
+    };
+
     private Integer playerId;
     private Channel channel;
-    private Integer lastActiveTimes;
+    private volatile long lastActiveTime;      // 最后一次收到消息的时间(毫秒)
     private boolean authenticated = false;  // 身份验证状态
     private String username;                // 用户名（验证通过后设置）
     private Integer currentMatchId;            // 当前对局ID
+    private final DispatchLane dispatchLane = new DispatchLane(); // 消息串行处理队列
+    private final OutboundQueue outboundQueue;                    // 下行消息队列
+    private volatile MessageCodec codec = JsonMessageCodec.INSTANCE; // 消息体编解码器，登录时协商
+    private volatile Timeout idleTimeout;      // 空闲检查任务，会话移除时取消
+    private volatile String resumeToken;       // 断线恢复令牌，登录后下发
+    private volatile Timeout resumeTimeout;    // 断线后保留期满的清理任务
+    private volatile ResponseRecorder responseRecorder; // 正在处理带幂等键的请求时记录发出的响应
 
-    public PlayerSession(Channel channel){
+    public PlayerSession(Channel channel, GameServerProperties.Outbound outboundConfig){
         this.channel = channel;
-        this.lastActiveTimes = (int) System.currentTimeMillis();
+        this.outboundQueue = new OutboundQueue(channel, outboundConfig.getSoftLimitBytes(), outboundConfig.getHardLimitBytes(),
+                sequence -> new GameMessage(OUTBOUND_BUSY.getMessageId(), sequence, OUTBOUND_BUSY.content(codec.format())));
+        this.lastActiveTime = System.currentTimeMillis();
         this.authenticated = false;  // 默认未认证
     }
 
+    /**
+     * 开始在当前线程上处理本会话的请求，由分发器在调用处理器前设置，处理期间的响应带回该序号
+     */
+    public void beginRequest(int sequence) {
+        CurrentRequest current = CURRENT_REQUEST.get();
+        current.session = this;
+        current.sequence = sequence;
+    }
+
+    /**
+     * 请求处理完毕，与beginRequest成对调用
+     */
+    public void endRequest() {
+        CurrentRequest current = CURRENT_REQUEST.get();
+        current.session = null;
+        current.sequence = 0;
+    }
+
+    /**
+     * 当前线程上正在处理的本会话请求的序号；其他线程(定时任务、其他玩家的处理器)上为0，发出的是推送
+     */
+    public int getRequestSequence() {
+        CurrentRequest current = CURRENT_REQUEST.get();
+        return current.session == this ? current.sequence : 0;
+    }
+
     public void updateLastActiveTime(){
-        this.lastActiveTimes = (int) System.currentTimeMillis();
+        this.lastActiveTime = System.currentTimeMillis();
     }
 
     /**
@@ -41,6 +97,13 @@ public class PlayerSession {
         this.playerId = null;
     }
 
+    /**
+     * 开启下行帧压缩，客户端在登录时声明支持后调用
+     */
+    public void enableCompression() {
+        channel.attr(FrameCompression.ENABLED).set(Boolean.TRUE);
+    }
+
     /**
      * 检查会话是否有效（连接活跃且已认证）
      */
@@ -50,10 +113,7 @@ public class PlayerSession {
 
     //发送字节数组消息
     public void sendMessage(int messageId,byte[] payload){
-        if(channel != null && channel.isActive()){
-            GameMessage message = new GameMessage(messageId,payload);
-            channel.writeAndFlush(message);
-        }
+        sendMessage(new GameMessage(messageId,payload));
     }
 
     //发送字符串消息
@@ -62,14 +122,56 @@ public class PlayerSession {
     }
 
 
-    //发送GameMessage对象
+    //按连接协商的编码格式回复当前正在处理的请求
+    public void sendResponse(int messageId, Response response){
+        sendResponse(messageId, response, getRequestSequence());
+    }
+
+    //回复指定序号的请求，用于异步完成的请求(如登录)
+    public void sendResponse(int messageId, Response response, int sequence){
+        recordOutcome(response.isSuccess());
+        sendMessage(new GameMessage(messageId, sequence, codec.encode(messageId, response)));
+    }
+
+    //回复预编码的固定响应，不做序列化
+    public void sendResponse(CachedResponse response){
+        sendResponse(response, getRequestSequence());
+    }
+
+    //回复指定序号的请求，用于分发之前(I/O线程上)直接拒绝或异步完成的请求
+    public void sendResponse(CachedResponse response, int sequence){
+        recordOutcome(response.isSuccess());
+        sendMessage(new GameMessage(response.getMessageId(), sequence, response.content(codec.format())));
+    }
+
+    //发送GameMessage对象，按消息ID确定优先级，消息的引用计数由本方法接管
     public void sendMessage(GameMessage message){
-        if(channel != null && channel.isActive()){
-            channel.writeAndFlush(message);
+        sendMessage(message, OutboundPriority.of(message.getMessageId()));
+    }
+
+    //按指定优先级发送GameMessage对象，消息进入下行队列，由事件循环合并写出
+    public void sendMessage(GameMessage message, OutboundPriority priority){
+        ResponseRecorder recorder = responseRecorder;
+        if (recorder != null) {
+            recorder.record(message);
+        }
+        outboundQueue.enqueue(message, priority);
+    }
+
+    //处理带幂等键的请求时回复了失败，记录的响应不再补发，重试时重新执行
+    private void recordOutcome(boolean success){
+        ResponseRecorder recorder = responseRecorder;
+        if (!success && recorder != null) {
+            recorder.fail();
         }
     }
 
     public boolean isActive(){
         return channel != null && channel.isActive();
     }
+
+    private static final class CurrentRequest {
+        PlayerSession session;
+        int sequence;
+    }
 }
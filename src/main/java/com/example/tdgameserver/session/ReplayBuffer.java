@@ -0,0 +1,132 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.EncodedFrame;
+import com.example.tdgameserver.network.FrameHeader;
+import com.example.tdgameserver.network.GameMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话的下行重放缓冲区
+ * 给写出的每一帧按顺序编号(从连接建立起算，断线恢复后接着上一个连接的编号)，登录后保留尚未被客户端确认的帧，
+ * 断线重连时按客户端回报的已收帧数补发之后的帧。条数或字节数超过上限时丢弃最早的帧，
+ * 客户端落后于最早保留的帧时无法恢复
+ */
+class ReplayBuffer {
+    private final int maxMessages;
+    private final long maxBytes;
+    private final ArrayDeque<GameMessage> frames = new ArrayDeque<>();
+    //最后一帧的编号，即已计数的帧数
+    private long lastIndex;
+    private long bytes;
+    private boolean retaining;
+
+    ReplayBuffer(int maxMessages, long maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 记录一帧已写出，消息仍由调用方写出，缓冲区持有它的retainedDuplicate
+     */
+    synchronized void record(GameMessage message) {
+        lastIndex++;
+        if (retaining) {
+            add(message.retainedDuplicate());
+        }
+    }
+
+    /**
+     * 追加一帧未能写出的消息(连接已断开)，消息的引用计数由缓冲区接管
+     */
+    synchronized void append(GameMessage message) {
+        lastIndex++;
+        if (retaining) {
+            add(message);
+        } else {
+            message.release();
+        }
+    }
+
+    /**
+     * 开始保留帧，登录成功下发恢复令牌时调用
+     */
+    synchronized void startRetaining() {
+        retaining = true;
+    }
+
+    /**
+     * 客户端确认已收到前received帧，释放这些帧
+     */
+    synchronized void acknowledge(long received) {
+        long first = lastIndex - frames.size() + 1;
+        while (first <= received && !frames.isEmpty()) {
+            release(frames.poll());
+            first++;
+        }
+    }
+
+    /**
+     * 恢复的连接从上一个连接的编号接着计数，只能在写出任何帧之前调用
+     * @return 已经写出过帧时返回false
+     */
+    synchronized boolean continueFrom(long index) {
+        if (lastIndex != 0) {
+            return false;
+        }
+        lastIndex = index;
+        return true;
+    }
+
+    /**
+     * 取出第received帧之后的所有帧用于补发，引用计数随之转交，其余的释放，之后不再保留
+     * @return 客户端落后于最早保留的帧或超前于已写出的帧时返回null
+     */
+    synchronized List<GameMessage> takeAfter(long received) {
+        long first = lastIndex - frames.size() + 1;
+        if (received < first - 1 || received > lastIndex) {
+            clear();
+            return null;
+        }
+        acknowledge(received);
+        List<GameMessage> missed = new ArrayList<>(frames);
+        frames.clear();
+        bytes = 0;
+        retaining = false;
+        return missed;
+    }
+
+    /**
+     * 释放所有保留的帧并停止保留，之后追加的消息直接释放
+     */
+    synchronized void clear() {
+        retaining = false;
+        GameMessage message;
+        while ((message = frames.poll()) != null) {
+            message.release();
+        }
+        bytes = 0;
+    }
+
+    private void add(GameMessage message) {
+        frames.add(message);
+        bytes += frameSize(message);
+        while (frames.size() > maxMessages || (bytes > maxBytes && frames.size() > 1)) {
+            release(frames.poll());
+        }
+    }
+
+    private void release(GameMessage message) {
+        bytes -= frameSize(message);
+        message.release();
+    }
+
+    private static int frameSize(GameMessage message) {
+        if (message instanceof EncodedFrame) {
+            return ((EncodedFrame) message).getFrameLength();
+        }
+        return FrameHeader.HEADER_LENGTH + message.getPayloadLength();
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.EncodedFrame;
+import com.example.tdgameserver.network.GameMessage;
+import io.netty.buffer.ByteBufUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 记录处理一个请求期间发给该会话的消息，用于幂等请求的重复回复
+ * 只记录处理线程自己发出的消息，其他线程同时发给该玩家的推送和预编码的广播帧不记录。
+ * 消息体拷贝成字节数组保存，不持有池化缓冲区。
+ * 处理器捕获异常后回复错误而不是抛出，回复过失败响应的请求标记为失败，不缓存其响应
+ */
+public class ResponseRecorder {
+    private final Thread thread = Thread.currentThread();
+    private final List<Recorded> messages = new ArrayList<>(2);
+    private boolean failed;
+
+    void record(GameMessage message) {
+        if (Thread.currentThread() != thread || message instanceof EncodedFrame) {
+            return;
+        }
+        messages.add(new Recorded(message.getMessageId(), message.getSequence() != 0, ByteBufUtil.getBytes(message.content())));
+    }
+
+    void fail() {
+        if (Thread.currentThread() == thread) {
+            failed = true;
+        }
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+
+    List<Recorded> getMessages() {
+        return messages;
+    }
+
+    static final class Recorded {
+        final int messageId;
+        //是否是对请求的回复(带请求序号)，重复回复时换成新请求的序号
+        final boolean reply;
+        final byte[] payload;
+
+        Recorded(int messageId, boolean reply, byte[] payload) {
+            this.messageId = messageId;
+            this.reply = reply;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.tdgameserver.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 下发给客户端的恢复令牌
+ */
+@Data
+@AllArgsConstructor
+public class ResumeInfo {
+    private String token;
+    private long graceMillis;   // 断线后会话保留的时间(毫秒)
+}
@@ -1,16 +1,32 @@
 package com.example.tdgameserver.session;
 
+import com.example.tdgameserver.gateway.LinkChildChannel;
+import com.example.tdgameserver.network.EncodedFrame;
 import com.example.tdgameserver.network.GameMessage;
 import com.example.tdgameserver.network.MessageId;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.protocol.CachedResponse;
 import com.example.tdgameserver.session.PlayerSession;
+import com.example.tdgameserver.util.ShardedIntObjectMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+import io.netty.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * 会话管理器
@@ -20,12 +36,18 @@ import java.util.function.Consumer;
 @Slf4j
 public class SessionManager {
     private static final SessionManager INSTANCE = new SessionManager();
+    private static final Counter BROADCAST_MESSAGES = Metrics.counter("game.broadcast.messages");
+    private static final Counter BROADCAST_RECIPIENTS = Metrics.counter("game.broadcast.recipients");
 
-    //通道->会话
+    private static final AttributeKey<PlayerSession> SESSION_KEY = AttributeKey.valueOf("playerSession");
+    private static final CachedResponse KICKED = new CachedResponse(MessageId.PUSH_KICKED.getId(),
+            Response.error("账号已在其他地方登录"));
+
+    //通道->会话，包括未登录的连接；会话本身挂在通道属性上，读路径不查这里
     private final ConcurrentHashMap<Channel,PlayerSession> channelSessions = new ConcurrentHashMap<>();
 
     //玩家id -> 会话
-    private final ConcurrentHashMap<Integer,PlayerSession> playerSessions = new ConcurrentHashMap<>();
+    private final ShardedIntObjectMap<PlayerSession> playerSessions = new ShardedIntObjectMap<>();
 
     // 使用CopyOnWriteArrayList来存储监听器，保证线程安全
     private final CopyOnWriteArrayList<Consumer<PlayerSession>> sessionCloseListeners = new CopyOnWriteArrayList<>();
@@ -61,22 +83,56 @@ public class SessionManager {
     }
 
     public void addSession(PlayerSession session){
+        session.getChannel().attr(SESSION_KEY).set(session);
+        channelSessions.put(session.getChannel(), session);
         if (session.getPlayerId() != null) {
-            playerSessions.put(session.getPlayerId(), session);
+            bindPlayerId(session.getPlayerId(), session);
         }
-        channelSessions.put(session.getChannel(),session);
     }
 
+    /**
+     * 绑定玩家Id，同一玩家已有其他会话时原子地替换，并把旧会话踢下线。
+     * 旧会话的消息队列由调用方先用GameMessageDispatcher.retire停用
+     */
     public void bindPlayerId(Integer playerId, PlayerSession session){
         session.setPlayerId(playerId);
-        playerSessions.put(playerId,session);
+        PlayerSession previous = playerSessions.put(playerId, session);
+        if (session.getChannel() instanceof LinkChildChannel) {
+            // 经网关接入的连接，通知网关按玩家Id路由
+            ((LinkChildChannel) session.getChannel()).notifyBound(playerId);
+        }
+        if (previous != null && previous != session) {
+            log.info("玩家 {} 重复登录，踢掉旧连接：{}", playerId, previous.getChannel().remoteAddress());
+            previous.sendResponse(KICKED, 0);
+            // 排在下行队列的写出任务之后关闭，让通知先发出去
+            Channel channel = previous.getChannel();
+            channel.eventLoop().execute(channel::close);
+        }
+    }
+
+    /**
+     * 断线恢复：新连接的会话接替旧会话，玩家仍绑定在旧会话上时才替换，不踢下线也不通知关闭监听器
+     * @return 玩家已在其他地方重新登录时返回false
+     */
+    public boolean replacePlayerSession(PlayerSession previous, PlayerSession session) {
+        Integer playerId = previous.getPlayerId();
+        return playerId != null && playerSessions.replace(playerId, previous, session);
     }
 
     public void removeSession(PlayerSession session) {
+        // 异常关闭时可能被调用两次，只处理一次
+        if (!channelSessions.remove(session.getChannel(), session)) {
+            return;
+        }
         if (session.getPlayerId() != null) {
-            playerSessions.remove(session.getPlayerId());
+            // 只移除自己的映射，已被新登录替换的不动
+            playerSessions.remove(session.getPlayerId(), session);
+        }
+        session.getOutboundQueue().close();
+        Timeout idleTimeout = session.getIdleTimeout();
+        if (idleTimeout != null) {
+            idleTimeout.cancel();
         }
-        channelSessions.remove(session.getChannel());
         
         // 触发所有会话关闭监听器
         for (Consumer<PlayerSession> listener : sessionCloseListeners) {
@@ -89,36 +145,60 @@ public class SessionManager {
     }
 
     public PlayerSession getSessionByChannel(Channel channel){
-        return channelSessions.get(channel);
+        return channel.attr(SESSION_KEY).get();
     }
 
     public PlayerSession getSessionsByPlayerId(Integer playerId){
         return playerSessions.get(playerId);
     }
 
-    //向指定玩家发送消息
+    //向指定玩家推送消息(高优先级)，消息的引用计数由本方法接管；断线等待重连的玩家，消息留待重连后补发
     public void sendMessage(Integer playerId, GameMessage message){
         PlayerSession session = getSessionsByPlayerId(playerId);
-        if(session != null && session.isActive()){
-            session.sendMessage(message);
+        if(session != null){
+            session.sendMessage(message, OutboundPriority.HIGH);
+        } else {
+            message.release();
         }
     }
 
-    //向所有在线玩家广播消息
+    /**
+     * 在线玩家数
+     */
+    public int getOnlinePlayerCount(){
+        return playerSessions.size();
+    }
+
+    //向所有连接广播消息
     public void broadcastMessage(GameMessage message){
-        Collection<PlayerSession> sessions = channelSessions.values();
-        for(PlayerSession session : sessions){
-            if(session.isActive()){
-                session.sendMessage(message);
-            }
-        }
+        fanOut(channelSessions.values(), null, message);
     }
 
     //向指定玩家列表广播消息
     public void broadcastMessage(Collection<Integer> playerIds,GameMessage message){
+        List<PlayerSession> sessions = new ArrayList<>(playerIds.size());
         for(Integer playerId : playerIds){
-            sendMessage(playerId, message);
+            PlayerSession session = getSessionsByPlayerId(playerId);
+            if (session != null) {
+                sessions.add(session);
+            }
         }
+        fanOut(sessions, null, message);
+    }
+
+    /**
+     * 向满足条件的已登录玩家广播消息
+     * @param audience 接收者过滤条件，例如同一对局的玩家
+     */
+    public void broadcastMessage(GameMessage message, Predicate<PlayerSession> audience){
+        fanOut(playerSessions.values(), audience, message);
+    }
+
+    /**
+     * 向同一对局中的玩家广播消息
+     */
+    public void broadcastToMatch(Integer matchId, GameMessage message){
+        broadcastMessage(message, session -> matchId.equals(session.getCurrentMatchId()));
     }
 
     /**
@@ -127,10 +207,67 @@ public class SessionManager {
      * @param data 消息数据
      */
     public void broadcast(MessageId messageId, byte[] data) {
-        GameMessage message = new GameMessage(messageId.getId(), data);
-        for (PlayerSession session : playerSessions.values()) {
-            if (session.isActive()) {
-                session.sendMessage(message);
+        fanOut(playerSessions.values(), null, new GameMessage(messageId.getId(), data));
+    }
+
+    /**
+     * 广播扇出：消息按接收连接的帧格式只编码一次，接收者按所在事件循环分组，
+     * 每个事件循环只提交一个任务，把帧放入各连接的下行队列后统一写出
+     */
+    private void fanOut(Collection<PlayerSession> sessions, Predicate<PlayerSession> audience, GameMessage message) {
+        BroadcastFrame frame = new BroadcastFrame(message);
+        int recipients = 0;
+        try {
+            Map<EventLoop, LoopBatch> batches = new IdentityHashMap<>();
+            for (PlayerSession session : sessions) {
+                if (!session.isActive() || (audience != null && !audience.test(session))) {
+                    continue;
+                }
+                Channel channel = session.getChannel();
+                batches.computeIfAbsent(channel.eventLoop(), loop -> new LoopBatch())
+                        .add(session, frame.frameFor(channel));
+                recipients++;
+            }
+            for (Map.Entry<EventLoop, LoopBatch> entry : batches.entrySet()) {
+                try {
+                    entry.getKey().execute(entry.getValue());
+                } catch (RejectedExecutionException e) {
+                    // 事件循环已关闭
+                    entry.getValue().discard();
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        BROADCAST_MESSAGES.increment();
+        BROADCAST_RECIPIENTS.increment(recipients);
+    }
+
+    /**
+     * 同一事件循环上的一批广播接收者
+     */
+    private static final class LoopBatch implements Runnable {
+        private final List<PlayerSession> sessions = new ArrayList<>();
+        private final List<EncodedFrame> frames = new ArrayList<>();
+
+        void add(PlayerSession session, EncodedFrame frame) {
+            sessions.add(session);
+            frames.add(frame);
+        }
+
+        void discard() {
+            for (EncodedFrame frame : frames) {
+                frame.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < sessions.size(); i++) {
+                sessions.get(i).getOutboundQueue().offer(frames.get(i), OutboundPriority.HIGH);
+            }
+            for (PlayerSession session : sessions) {
+                session.getOutboundQueue().flushNow();
             }
         }
     }
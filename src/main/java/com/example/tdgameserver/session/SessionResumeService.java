@@ -0,0 +1,252 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.FrameCompression;
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameMessageDispatcher;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.network.MessageId;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.protocol.CachedResponse;
+import com.example.tdgameserver.requestEntity.HeartbeatRequest;
+import com.example.tdgameserver.requestEntity.ResumeRequest;
+import com.example.tdgameserver.util.MessageUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 断线重连恢复
+ * 直连客户端登录后下发恢复令牌，并开始在重放缓冲区保留下行帧。连接断开时会话不立即移除，
+ * 在保留期内挂起(玩家数据缓存不释放，发给该玩家的消息进入重放缓冲区)；客户端在新连接上凭令牌和已收帧数重连，
+ * 直接接回原会话并补发漏收的帧，不用重新登录和加载玩家数据。保留期满仍未重连才走正常的会话移除流程。
+ * 旧会话的挂起、接管和过期都在旧连接的事件循环上进行，相互之间不需要加锁
+ */
+@Slf4j
+@Component
+public class SessionResumeService {
+    private static final CachedResponse RESUME_FAILED = new CachedResponse(MessageId.RESP_RESUME.getId(),
+            Response.error("恢复会话失败，请重新登录"));
+    private static final CachedResponse KICKED = new CachedResponse(MessageId.PUSH_KICKED.getId(),
+            Response.error("账号已在其他地方登录"));
+
+    @Autowired
+    private GameServerProperties properties;
+
+    @Autowired
+    private GameMessageDispatcher dispatcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SessionManager sessionManager = SessionManager.getInstance();
+    private final SecureRandom random = new SecureRandom();
+    //恢复令牌 -> 会话，包括在线的和断线挂起的
+    private final ConcurrentHashMap<String, PlayerSession> tokens = new ConcurrentHashMap<>();
+    private HashedWheelTimer timer;
+    private long graceMillis;
+    private Counter parked;
+    private Counter resumed;
+    private Counter failed;
+    private Counter expired;
+
+    @PostConstruct
+    public void init() {
+        graceMillis = properties.getResume().getGraceMillis();
+        timer = new HashedWheelTimer(new DefaultThreadFactory("game-resume-timer", true),
+                properties.getIdle().getTickMillis(), TimeUnit.MILLISECONDS, properties.getIdle().getTicksPerWheel());
+        parked = meterRegistry.counter("game.session.resume", "result", "parked");
+        resumed = meterRegistry.counter("game.session.resume", "result", "resumed");
+        failed = meterRegistry.counter("game.session.resume", "result", "failed");
+        expired = meterRegistry.counter("game.session.resume", "result", "expired");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.stop();
+    }
+
+    public boolean isEnabled() {
+        return graceMillis > 0;
+    }
+
+    /**
+     * 新连接开始给写出的帧计数，在channelActive中调用
+     */
+    public void track(PlayerSession session) {
+        if (isEnabled()) {
+            GameServerProperties.Resume config = properties.getResume();
+            session.getOutboundQueue().setReplay(new ReplayBuffer(config.getMaxBufferedMessages(), config.getMaxBufferedBytes()));
+        }
+    }
+
+    /**
+     * 登录成功后下发恢复令牌，之后写出的帧保留到客户端确认为止
+     * @return 未开启断线恢复或连接不支持时返回null
+     */
+    public ResumeInfo issue(PlayerSession session) {
+        ReplayBuffer buffer = session.getOutboundQueue().getReplay();
+        if (buffer == null) {
+            return null;
+        }
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        String previous = session.getResumeToken();
+        if (previous != null) {
+            tokens.remove(previous, session);
+        }
+        buffer.startRetaining();
+        session.setResumeToken(token);
+        tokens.put(token, session);
+        return new ResumeInfo(token, graceMillis);
+    }
+
+    /**
+     * 心跳中带了已收帧数时释放已确认的帧，在I/O线程上调用
+     */
+    public void acknowledge(PlayerSession session, GameMessage heartbeat) {
+        ReplayBuffer buffer = session.getOutboundQueue().getReplay();
+        if (buffer == null || session.getResumeToken() == null) {
+            return;
+        }
+        HeartbeatRequest request = MessageUtil.convertMessage(session, heartbeat, HeartbeatRequest.class);
+        if (request != null && request.getReceived() != null) {
+            buffer.acknowledge(request.getReceived());
+        }
+    }
+
+    /**
+     * 连接断开时挂起已登录的会话，在channelInactive中调用
+     * @return 会话已挂起返回true，调用方不再移除会话
+     */
+    public boolean park(PlayerSession session) {
+        String token = session.getResumeToken();
+        if (token == null) {
+            return false;
+        }
+        if (tokens.get(token) != session || sessionManager.getSessionsByPlayerId(session.getPlayerId()) != session) {
+            // 已被接管或被重复登录踢下线
+            tokens.remove(token, session);
+            return false;
+        }
+        if (session.getResumeTimeout() != null) {
+            // exceptionCaught之后channelInactive会再调用一次
+            return true;
+        }
+        // 队列中未写出的消息转入重放缓冲区
+        session.getOutboundQueue().flushNow();
+        Timeout idleTimeout = session.getIdleTimeout();
+        if (idleTimeout != null) {
+            idleTimeout.cancel();
+        }
+        session.setResumeTimeout(timer.newTimeout(timeout -> session.getChannel().eventLoop().execute(() -> {
+            if (tokens.remove(token, session)) {
+                expired.increment();
+                log.info("玩家 {} 断线后未在保留期内重连，移除会话", session.getPlayerId());
+                sessionManager.removeSession(session);
+            }
+        }), graceMillis, TimeUnit.MILLISECONDS));
+        parked.increment();
+        log.info("玩家 {} 断线，会话保留 {}ms 等待重连", session.getPlayerId(), graceMillis);
+        return true;
+    }
+
+    /**
+     * 在新连接上凭令牌接回原会话，在新会话的业务线程上调用。
+     * 接管完成前挂起新会话的消息队列，客户端紧跟在REQ_RESUME后面发送的请求等接管完成再处理
+     */
+    public void resume(PlayerSession session, ResumeRequest request) {
+        int sequence = session.getRequestSequence();
+        PlayerSession previous = request.getToken() == null ? null : tokens.get(request.getToken());
+        if (previous == null || request.getReceived() == null || session.isAuthenticated()) {
+            failed.increment();
+            session.sendResponse(RESUME_FAILED, sequence);
+            return;
+        }
+        Runnable resumeLane = dispatcher.suspend(session);
+        previous.getChannel().eventLoop().execute(() -> {
+            try {
+                takeOver(previous, session, request.getToken(), request.getReceived(), sequence);
+            } finally {
+                resumeLane.run();
+            }
+        });
+    }
+
+    /**
+     * 在旧连接的事件循环上接管：先把恢复响应和漏收的帧放进新会话的下行队列，再把玩家切到新会话，
+     * 之后发给该玩家的消息都排在补发的帧之后
+     */
+    private void takeOver(PlayerSession previous, PlayerSession session, String token, long received, int sequence) {
+        if (!tokens.remove(token, previous)) {
+            // 已过期或被另一个连接接管
+            failed.increment();
+            session.sendResponse(RESUME_FAILED, sequence);
+            return;
+        }
+        Timeout resumeTimeout = previous.getResumeTimeout();
+        if (resumeTimeout != null) {
+            resumeTimeout.cancel();
+        }
+        ReplayBuffer replay = previous.getOutboundQueue().detachReplay();
+        List<GameMessage> missed = replay == null ? null : replay.takeAfter(received);
+        ReplayBuffer buffer = session.getOutboundQueue().getReplay();
+        if (missed == null || buffer == null || !buffer.continueFrom(received)) {
+            if (missed != null) {
+                missed.forEach(GameMessage::release);
+            }
+            failed.increment();
+            log.info("玩家 {} 的重连落后过多或不是新连接上的第一条消息，无法恢复", previous.getPlayerId());
+            session.sendResponse(RESUME_FAILED, sequence);
+            finish(previous);
+            return;
+        }
+
+        session.setCodec(previous.getCodec());
+        if (Boolean.TRUE.equals(previous.getChannel().attr(FrameCompression.ENABLED).get())) {
+            session.enableCompression();
+        }
+        session.setAuthenticated(previous.getUsername(), previous.getPlayerId());
+        session.setCurrentMatchId(previous.getCurrentMatchId());
+        ResumeInfo info = issue(session);
+        session.sendMessage(new GameMessage(MessageId.RESP_RESUME.getId(), sequence, session.getCodec().encode(
+                MessageId.RESP_RESUME.getId(), Response.success("恢复会话成功", info))), OutboundPriority.HIGH);
+        for (GameMessage message : missed) {
+            session.sendMessage(message, OutboundPriority.HIGH);
+        }
+        if (sessionManager.replacePlayerSession(previous, session)) {
+            resumed.increment();
+            log.info("玩家 {} 重连恢复会话：{}，补发消息 {} 条", session.getPlayerId(),
+                    session.getChannel().remoteAddress(), missed.size());
+        } else {
+            // 断线期间已在其他连接上重新登录
+            session.sendResponse(KICKED, 0);
+            session.getChannel().eventLoop().execute(session.getChannel()::close);
+        }
+        finish(previous);
+    }
+
+    /**
+     * 移除被接管或无法恢复的旧会话，玩家已切到新会话时关闭监听器不会释放玩家数据
+     */
+    private void finish(PlayerSession previous) {
+        if (previous.isActive()) {
+            previous.getChannel().close();
+        } else {
+            sessionManager.removeSession(previous);
+        }
+    }
+}
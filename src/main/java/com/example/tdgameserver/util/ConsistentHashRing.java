@@ -0,0 +1,96 @@
+package com.example.tdgameserver.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * 一致性哈希环
+ * 每个成员按名字在环上放置若干虚拟节点，键落在顺时针方向遇到的第一个虚拟节点所属的成员上。
+ * 增减成员只影响相邻区间的键；环构建后只读，可以在多个线程上并发查询
+ */
+public class ConsistentHashRing<T> {
+    private final int[] points;    // 虚拟节点位置，升序
+    private final Object[] owners; // 与points一一对应的成员
+    private final int memberCount;
+
+    /**
+     * @param members 成员列表
+     * @param nameOf 成员名字，决定虚拟节点的位置，同名成员在不同进程上得到相同的环
+     * @param virtualNodes 每个成员的虚拟节点数，越多分布越均匀
+     */
+    public ConsistentHashRing(List<T> members, Function<T, String> nameOf, int virtualNodes) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("一致性哈希环至少需要一个成员");
+        }
+        int replicas = Math.max(1, virtualNodes);
+        long[] entries = new long[members.size() * replicas];
+        int n = 0;
+        for (int m = 0; m < members.size(); m++) {
+            String name = nameOf.apply(members.get(m));
+            for (int i = 0; i < replicas; i++) {
+                // 高32位放位置，低32位放成员下标，排序后按位置有序
+                int point = hash(name + '#' + i);
+                entries[n++] = ((long) point << 32) | m;
+            }
+        }
+        Arrays.sort(entries);
+        points = new int[n];
+        owners = new Object[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = (int) (entries[i] >> 32);
+            owners[i] = members.get((int) entries[i]);
+        }
+        memberCount = members.size();
+    }
+
+    /**
+     * 键所属的成员
+     */
+    public T route(int key) {
+        return route(key, null);
+    }
+
+    /**
+     * 键所属的成员，跳过不可用的成员继续顺时针查找，全部不可用时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public T route(int key, Predicate<T> available) {
+        int index = Arrays.binarySearch(points, mix(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (int i = 0; i < points.length; i++) {
+            T owner = (T) owners[(index + i) % points.length];
+            if (available == null || available.test(owner)) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    private static int hash(String name) {
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        return mix((int) crc.getValue());
+    }
+
+    /**
+     * murmur3的finalizer，把连续的玩家Id打散到整个环上
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.tdgameserver.util;
+
+import java.util.Arrays;
+
+/**
+ * int -> int 的开放寻址哈希表
+ * 键和值分别存放在两个int数组里，线性探测，删除时把后面的元素回移填补空位，不留删除标记。
+ * 查找和修改都不装箱、不分配对象。键0用单独的字段保存。非线程安全，由调用方加锁
+ */
+public class IntIntHashMap {
+    private static final int EMPTY = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    //不含键0的元素数
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    public IntIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize 预计元素数，负载不超过1/2
+     */
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Math.max(4, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1);
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return hasZeroKey ? size + 1 : size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return key == EMPTY ? hasZeroKey : keys[indexOf(key)] == key;
+    }
+
+    /**
+     * @return 不存在时返回defaultValue
+     */
+    public int get(int key, int defaultValue) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : defaultValue;
+    }
+
+    public void put(int key, int value) {
+        if (key == EMPTY) {
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int index = indexOf(key);
+        if (keys[index] == key) {
+            values[index] = value;
+            return;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+    }
+
+    /**
+     * @return 是否存在并已移除
+     */
+    public boolean remove(int key) {
+        if (key == EMPTY) {
+            boolean existed = hasZeroKey;
+            hasZeroKey = false;
+            zeroValue = 0;
+            return existed;
+        }
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            return false;
+        }
+        size--;
+        // 回移同一探测链上后面的元素，保证查找不会提前遇到空位
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slot(keys[next]);
+            // home不在(hole, next]区间内的元素可以移到hole
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        values[hole] = 0;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = 0;
+    }
+
+    /**
+     * 遍历所有键值，遍历期间不能修改
+     */
+    public void forEach(Consumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(EMPTY, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * 所有键值都满足predicate时返回true，遇到不满足的立即返回false
+     */
+    public boolean allMatch(Predicate predicate) {
+        if (hasZeroKey && !predicate.test(EMPTY, zeroValue)) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && !predicate.test(keys[i], values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 键所在的槽位，不存在时为应插入的空槽位
+     */
+    private int indexOf(int key) {
+        int index = slot(key);
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private int slot(int key) {
+        //打散连续的道具Id
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(int key, int value);
+    }
+
+    @FunctionalInterface
+    public interface Predicate {
+        boolean test(int key, int value);
+    }
+}
@@ -1,10 +1,18 @@
 package com.example.tdgameserver.util;
 
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.protocol.JsonMessageCodec;
+import com.example.tdgameserver.session.PlayerSession;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -14,7 +22,7 @@ import java.util.List;
 @Slf4j
 public class MessageUtil {
     
-    private static final Gson gson = new Gson();
+    private static final Gson gson = JsonMessageCodec.GSON;
     
     /**
      * 通用消息转换方法
@@ -51,6 +59,54 @@ public class MessageUtil {
         return null;
     }
 
+    /**
+     * 按连接协商的编码格式(JSON或protobuf)解析请求
+     *
+     * @param session 玩家会话
+     * @param message 收到的消息
+     * @param targetClass 要转换的目标类
+     * @param <T> 目标类型
+     * @return 转换后的对象实例，转换失败返回null
+     */
+    public static <T> T convertMessage(PlayerSession session, GameMessage message, Class<T> targetClass) {
+        return session.getCodec().decode(message, targetClass);
+    }
+
+    /**
+     * 直接在消息体缓冲区上解析JSON，不产生中间的byte[]和String
+     *
+     * @param message 收到的消息
+     * @param targetClass 要转换的目标类
+     * @param <T> 目标类型
+     * @return 转换后的对象实例，转换失败返回null
+     */
+    public static <T> T convertMessage(GameMessage message, Class<T> targetClass) {
+        ByteBuf content = message.content();
+        int start = content.forEachByte(b -> b == ' ' || b == '\t' || b == '\r' || b == '\n');
+        if (start < 0) {
+            log.warn("消息内容为空");
+            return null;
+        }
+        if (content.getByte(start) != '{') {
+            log.warn("消息内容不是有效的JSON格式: {}", message.getPayloadAsString());
+            return null;
+        }
+
+        // duplicate()共享底层内存，只是独立的读写索引，不影响消息本身
+        try (Reader reader = new InputStreamReader(new ByteBufInputStream(content.duplicate()), StandardCharsets.UTF_8)) {
+            T result = gson.fromJson(reader, targetClass);
+            if (result != null) {
+                log.info("成功转换消息为 {} 类型", targetClass.getSimpleName());
+                return result;
+            }
+            log.warn("消息转换结果为空，消息内容: {}", message.getPayloadAsString());
+        } catch (Exception e) {
+            log.error("消息转换失败，消息内容: {}, 目标类型: {}, 错误: {}",
+                     message.getPayloadAsString(), targetClass.getSimpleName(), e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * 转换消息为列表类型
      * 将收到的消息转换为指定类型的列表
@@ -0,0 +1,132 @@
+package com.example.tdgameserver.util;
+
+import io.netty.util.collection.IntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 按int键分片的并发Map
+ * 每个分片是一个不装箱的IntObjectHashMap，由各自的读写锁保护，不同分片之间互不竞争
+ */
+public class ShardedIntObjectMap<V> {
+    private static final int DEFAULT_SHARDS = 64;
+
+    private final Shard<V>[] shards;
+    private final int mask;
+
+    public ShardedIntObjectMap() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param shardCount 分片数，向上取整为2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedIntObjectMap(int shardCount) {
+        int size = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard<>();
+        }
+        mask = size - 1;
+    }
+
+    public V get(int key) {
+        Shard<V> shard = shardFor(key);
+        long stamp = shard.lock.readLock();
+        try {
+            return shard.map.get(key);
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 写入并返回被替换的旧值，替换是原子的
+     */
+    public V put(int key, V value) {
+        Shard<V> shard = shardFor(key);
+        long stamp = shard.lock.writeLock();
+        try {
+            return shard.map.put(key, value);
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 仅当当前值是expected(同一对象)时替换为value
+     */
+    public boolean replace(int key, V expected, V value) {
+        Shard<V> shard = shardFor(key);
+        long stamp = shard.lock.writeLock();
+        try {
+            if (shard.map.get(key) != expected) {
+                return false;
+            }
+            shard.map.put(key, value);
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 仅当当前值是expected(同一对象)时移除
+     */
+    public boolean remove(int key, V expected) {
+        Shard<V> shard = shardFor(key);
+        long stamp = shard.lock.writeLock();
+        try {
+            if (shard.map.get(key) != expected) {
+                return false;
+            }
+            shard.map.remove(key);
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard<V> shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                size += shard.map.size();
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 所有值的快照
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        for (Shard<V> shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                values.addAll(shard.map.values());
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return values;
+    }
+
+    private Shard<V> shardFor(int key) {
+        //打散连续的玩家Id
+        int h = key * 0x9E3779B9;
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Shard<V> {
+        private final StampedLock lock = new StampedLock();
+        private final IntObjectHashMap<V> map = new IntObjectHashMap<>();
+    }
+}
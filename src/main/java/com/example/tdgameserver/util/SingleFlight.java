@@ -0,0 +1,101 @@
+package com.example.tdgameserver.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 相同读请求合并(single-flight)
+ * 以(方法名, 参数)为键，同一时刻只有第一个调用方真正执行查询，其余并发调用方等待并共享同一个结果或异常。
+ * 查询结束即移除，不做缓存，之后的调用重新执行。共享的结果对象会返回给多个调用方，调用方不能修改它
+ */
+public class SingleFlight {
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter coalesced;
+
+    /**
+     * @param name 指标的service标签，区分不同服务的合并情况
+     */
+    public SingleFlight(String name) {
+        this.executed = Metrics.counter("game.singleflight.calls", "service", name, "result", "executed");
+        this.coalesced = Metrics.counter("game.singleflight.calls", "service", name, "result", "coalesced");
+    }
+
+    /**
+     * 执行查询，已有相同的查询在进行时等待它的结果
+     * @param method 方法名
+     * @param loader 实际的查询
+     * @param args 查询参数，需实现equals和hashCode
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String method, Supplier<T> loader, Object... args) {
+        Key key = new Key(method, args);
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            coalesced.increment();
+            return (T) await(inFlight);
+        }
+        executed.increment();
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static final class Key {
+        private final String method;
+        private final Object[] args;
+        private final int hash;
+
+        Key(String method, Object[] args) {
+            this.method = method;
+            this.args = args;
+            this.hash = 31 * method.hashCode() + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return method.equals(other.method) && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -4,7 +4,7 @@
 CREATE TABLE `player` (
     `player_id` INT NOT NULL AUTO_INCREMENT COMMENT '玩家ID，主键，自增',
     `player_name` VARCHAR(50) NOT NULL COMMENT '玩家名称',
-    `password` VARCHAR(255) NOT NULL COMMENT '玩家密码',
+    `password` VARCHAR(255) NOT NULL COMMENT '玩家密码，PBKDF2加盐哈希(旧的明文密码在登录成功后自动升级)',
     `create_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     `update_time` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     PRIMARY KEY (`player_id`),
@@ -0,0 +1,7 @@
+-- 复制心跳表
+-- 每个游戏节点定时在主库写入自己的当前时间，从库上读到的时间即复制已经追上的时刻，用于判断从库延迟
+CREATE TABLE `replication_heartbeat` (
+    `node` VARCHAR(128) NOT NULL COMMENT '游戏节点(主机名:端口)',
+    `beat_millis` BIGINT NOT NULL COMMENT '节点写入时的时间戳（毫秒）',
+    PRIMARY KEY (`node`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='复制心跳表';
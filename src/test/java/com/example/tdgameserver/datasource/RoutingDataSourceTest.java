@@ -0,0 +1,177 @@
+package com.example.tdgameserver.datasource;
+
+import com.example.tdgameserver.mapper.PlayerItemMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 读写分离路由测试：一个主库和两个从库都是内嵌的H2实例，库里玩家1的道具1001数量分别为1、2、3，
+ * 读到的数量即说明查询落在哪个库上。复制由测试直接改写从库上的心跳时刻来模拟
+ */
+class RoutingDataSourceTest {
+    private static final String NODE = "test-node";
+    private static final int PRIMARY = 1;
+    private static final int REPLICA_1 = 2;
+    private static final int REPLICA_2 = 3;
+
+    private HikariDataSource primary;
+    private HikariDataSource replica1;
+    private HikariDataSource replica2;
+    private RoutingDataSource routing;
+    private PlayerItemMapper mapper;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        primary = embedded("primary", prefix + "-p", PRIMARY);
+        replica1 = embedded("replica-1", prefix + "-r1", REPLICA_1);
+        replica2 = embedded("replica-2", prefix + "-r2", REPLICA_2);
+        // 心跳间隔足够长，只由测试调用beat()
+        routing = new RoutingDataSource(primary, List.of(replica1, replica2), 1000, 3_600_000, NODE,
+                new SimpleMeterRegistry());
+        routing.afterPropertiesSet();
+
+        SqlSessionFactoryBean factory = new SqlSessionFactoryBean();
+        factory.setDataSource(routing);
+        factory.setMapperLocations(new ClassPathResource("mapper/PlayerItemMapper.xml"));
+        Configuration configuration = new Configuration();
+        configuration.setMapUnderscoreToCamelCase(true);
+        factory.setConfiguration(configuration);
+        factory.setPlugins(new ReadOnlyRoutingInterceptor());
+        mapper = new SqlSessionTemplate(factory.getObject()).getMapper(PlayerItemMapper.class);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(routing));
+    }
+
+    @AfterEach
+    void tearDown() {
+        routing.close();
+    }
+
+    @Test
+    void caughtUpReplicaServesReadOnlyQueries() throws Exception {
+        long now = System.currentTimeMillis();
+        replicate(replica1, now);
+        replicate(replica2, now - 60_000);
+        routing.beat();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(REPLICA_1, readOnlyQuantity());
+        }
+    }
+
+    @Test
+    void laggingReplicasFallBackToPrimary() throws Exception {
+        replicate(replica1, System.currentTimeMillis() - 60_000);
+        replicate(replica2, System.currentTimeMillis() - 60_000);
+        routing.beat();
+
+        assertEquals(PRIMARY, readOnlyQuantity());
+    }
+
+    @Test
+    void replicaWithoutHeartbeatIsNotUsed() {
+        routing.beat();
+
+        assertEquals(PRIMARY, readOnlyQuantity());
+    }
+
+    @Test
+    void transactionUsesPrimary() throws Exception {
+        replicate(replica1, System.currentTimeMillis());
+        routing.beat();
+
+        Integer quantity = transactionTemplate.execute(status -> readOnlyQuantity());
+        assertEquals(PRIMARY, quantity);
+    }
+
+    @Test
+    void readAfterNewerThanReplicaUsesPrimary() throws Exception {
+        long replicated = System.currentTimeMillis();
+        replicate(replica1, replicated);
+        routing.beat();
+
+        assertEquals(PRIMARY, ReplicaRouting.readAfter(replicated, this::readOnlyQuantity));
+        assertEquals(REPLICA_1, ReplicaRouting.readAfter(replicated - 1, this::readOnlyQuantity));
+    }
+
+    @Test
+    void onPrimaryAndWriteQueriesUsePrimary() throws Exception {
+        replicate(replica1, System.currentTimeMillis());
+        routing.beat();
+
+        assertEquals(PRIMARY, ReplicaRouting.onPrimary(this::readOnlyQuantity));
+        assertEquals(PRIMARY, mapper.selectByPlayerIdAndItemId(1, 1001).getQuantity());
+    }
+
+    @Test
+    void unreachableReplicaIsNotUsed() throws Exception {
+        replicate(replica1, System.currentTimeMillis());
+        routing.beat();
+        execute(replica1, "DROP TABLE replication_heartbeat");
+        routing.beat();
+
+        assertEquals(PRIMARY, readOnlyQuantity());
+    }
+
+    /**
+     * selectByPlayerId标注了@ReadOnly
+     */
+    private int readOnlyQuantity() {
+        return mapper.selectByPlayerId(1).get(0).getQuantity();
+    }
+
+    private static HikariDataSource embedded(String poolName, String database, int quantity) throws Exception {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(poolName);
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + database + ";MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setMaximumPoolSize(2);
+        execute(dataSource,
+                "CREATE TABLE replication_heartbeat (node VARCHAR(128) PRIMARY KEY, beat_millis BIGINT NOT NULL)",
+                "CREATE TABLE player_item (id INT AUTO_INCREMENT PRIMARY KEY, player_id INT NOT NULL, item_id INT NOT NULL, "
+                        + "quantity INT NOT NULL, UNIQUE KEY uk_player_item (player_id, item_id))",
+                "INSERT INTO player_item (player_id, item_id, quantity) VALUES (1, 1001, " + quantity + ")");
+        return dataSource;
+    }
+
+    /**
+     * 模拟从库复制到了主库的beatMillis时刻
+     */
+    private static void replicate(DataSource replica, long beatMillis) throws Exception {
+        try (Connection connection = replica.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "MERGE INTO replication_heartbeat (node, beat_millis) KEY (node) VALUES (?, ?)")) {
+            statement.setString(1, NODE);
+            statement.setLong(2, beatMillis);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void execute(DataSource dataSource, String... sql) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String s : sql) {
+                statement.execute(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.tdgameserver.gateway;
+
+import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.entity.player.PlayerData;
+import com.example.tdgameserver.network.FrameCompression;
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameMessageDecoder;
+import com.example.tdgameserver.network.GameMessageDispatcher;
+import com.example.tdgameserver.network.GameMessageEncoder;
+import com.example.tdgameserver.network.GameMessageHandlerRegistry;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.network.MessageId;
+import com.example.tdgameserver.network.Response;
+import com.example.tdgameserver.service.PlayerDataService;
+import com.example.tdgameserver.session.IdempotencyCache;
+import com.example.tdgameserver.session.IdleSessionReaper;
+import com.example.tdgameserver.session.SessionManager;
+import com.example.tdgameserver.util.ConsistentHashRing;
+import com.example.tdgameserver.util.IntIntHashMap;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 网关集成测试：在本机临时端口上启动若干个游戏节点(NodeLinkServer)和一个网关(GatewayRouter)，
+ * 客户端经网关登录和请求。节点上的测试处理器在响应里带回处理它的节点的链路端口，据此判断请求落在哪个节点上。
+ * 处理器注册表和SessionManager是进程内单例，各节点共用；注册表冻结后不能再注册，测试类需要独占一个JVM
+ */
+class GatewayRoutingTest {
+    private static final int NODES = 3;
+    //登录前按连接Id(从1开始)选节点，玩家Id与连接Id错开，否则登录节点总是所属节点
+    private static final int FIRST_PLAYER = 10_001;
+    private static final int PLAYERS = 24;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int LOGIN = MessageId.REQ_LOGIN.getId();
+    private static final int WHERE = MessageId.REQ_GET_PLAYER_INFO.getId();
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Client> clients = new ArrayList<>();
+    private GameServerProperties gatewayProperties;
+    private GatewayRouter router;
+    private NioEventLoopGroup gatewayGroup;
+    private NioEventLoopGroup clientGroup;
+    private int gatewayPort;
+    private ConsistentHashRing<String> ring;
+
+    @BeforeAll
+    static void registerHandlers() {
+        GameMessageHandlerRegistry registry = GameMessageHandlerRegistry.getInstance();
+        // 登录：消息体为玩家Id
+        registry.registerHandler(LOGIN, (session, message) -> {
+            int playerId = Integer.parseInt(message.getPayloadAsString());
+            session.setAuthenticated("player" + playerId, playerId);
+            SessionManager.getInstance().bindPlayerId(playerId, session);
+            session.sendResponse(MessageId.RESP_LOGIN.getId(), Response.success(nodeOf(session.getChannel()), playerId));
+        });
+        registry.registerHandler(WHERE, (session, message) ->
+                session.sendResponse(MessageId.RESP_GET_PLAYER_INFO.getId(),
+                        Response.success(nodeOf(session.getChannel()), session.getPlayerId())));
+        registry.freeze(new SimpleMeterRegistry());
+        FrameCompression.configure(new GameServerProperties().getCompression());
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            Node node = new Node();
+            nodes.add(node);
+            addresses.add(node.address());
+        }
+        ring = new ConsistentHashRing<>(addresses, address -> address, new GameServerProperties().getGateway().getVirtualNodes());
+
+        gatewayProperties = new GameServerProperties();
+        gatewayProperties.setMode(GameServerProperties.Mode.GATEWAY);
+        gatewayProperties.getGateway().setNodes(addresses);
+        gatewayProperties.getGateway().setReconnectDelayMillis(100);
+        router = new GatewayRouter();
+        ReflectionTestUtils.setField(router, "properties", gatewayProperties);
+        ReflectionTestUtils.setField(router, "meterRegistry", new SimpleMeterRegistry());
+        gatewayGroup = new NioEventLoopGroup(2);
+        router.start(gatewayGroup, NioSocketChannel.class);
+        Channel server = new ServerBootstrap()
+                .group(gatewayGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(
+                                new GameMessageDecoder(gatewayProperties.getMaxFrameLength()),
+                                new GameMessageEncoder(),
+                                new GatewayFrontendHandler(router));
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+        gatewayPort = ((InetSocketAddress) server.localAddress()).getPort();
+        int links = gatewayProperties.getGateway().getLinksPerNode();
+        for (Node node : nodes) {
+            awaitTrue(() -> node.server.linkCount() == links, "网关链路未全部建立");
+        }
+        clientGroup = new NioEventLoopGroup(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (Client client : clients) {
+            client.channel.close();
+        }
+        router.stop();
+        clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        gatewayGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        for (Node node : nodes) {
+            node.stop();
+        }
+    }
+
+    @Test
+    void playersAreRoutedToTheirHomeNodeAfterLogin() throws Exception {
+        int rehomed = 0;
+        for (int playerId = FIRST_PLAYER; playerId < FIRST_PLAYER + PLAYERS; playerId++) {
+            Client client = connect();
+            String loginNode = client.login(playerId);
+            String home = ring.route(playerId);
+            if (!loginNode.equals(home)) {
+                rehomed++;
+            }
+            // 登录在哪个节点完成都不影响之后的请求：BIND后网关把连接连同已认证的会话迁到所属节点
+            for (int i = 0; i < 3; i++) {
+                JsonObject reply = client.request(WHERE);
+                assertTrue(reply.get("success").getAsBoolean(), "迁移后会话应保持已认证: " + reply);
+                assertEquals(home, reply.get("message").getAsString());
+                assertEquals(playerId, reply.get("data").getAsInt());
+            }
+        }
+        // 登录前按连接Id选节点，总有一部分玩家需要迁移，否则上面没有覆盖到BIND迁移
+        assertTrue(rehomed > 0, "没有玩家发生迁移");
+        assertTrue(rehomed < PLAYERS);
+    }
+
+    @Test
+    void requestsSentDuringRehomeAreDeliveredInOrder() throws Exception {
+        for (int playerId = FIRST_PLAYER; playerId < FIRST_PLAYER + PLAYERS; playerId++) {
+            Client client = connect();
+            // 不等登录响应就连续发送：网关收到BIND之前的请求仍由登录节点处理，迁移期间的请求缓存后按顺序补发给所属节点
+            int loginSequence = client.send(LOGIN, String.valueOf(playerId));
+            List<Integer> sequences = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                sequences.add(client.send(WHERE, ""));
+            }
+            Reply login = client.take();
+            assertEquals(loginSequence, login.sequence);
+            String loginNode = login.json().get("message").getAsString();
+            String home = ring.route(playerId);
+            boolean movedHome = loginNode.equals(home);
+            for (int sequence : sequences) {
+                Reply reply = client.take();
+                assertEquals(sequence, reply.sequence);
+                assertTrue(reply.json().get("success").getAsBoolean(), "迁移后会话应保持已认证: " + reply);
+                String node = reply.json().get("message").getAsString();
+                // 迁到所属节点之后不会再回到登录节点
+                movedHome |= node.equals(home);
+                assertEquals(movedHome ? home : loginNode, node);
+            }
+            assertEquals(home, client.request(WHERE).get("message").getAsString());
+        }
+    }
+
+    @Test
+    void lostLinkClosesOnlyClientsOnThatNode() throws Exception {
+        List<Client> loggedIn = new ArrayList<>();
+        for (int playerId = FIRST_PLAYER; playerId < FIRST_PLAYER + PLAYERS; playerId++) {
+            Client client = connect();
+            client.login(playerId);
+            client.request(WHERE);
+            loggedIn.add(client);
+        }
+        Node lost = nodes.get(0);
+        String lostAddress = lost.address();
+        lost.stop();
+
+        for (int i = 0; i < loggedIn.size(); i++) {
+            int playerId = FIRST_PLAYER + i;
+            Client client = loggedIn.get(i);
+            if (ring.route(playerId).equals(lostAddress)) {
+                awaitTrue(() -> !client.channel.isActive(), "断开链路上的客户端连接应被关闭");
+            } else {
+                assertTrue(client.channel.isActive());
+                assertEquals(ring.route(playerId), client.request(WHERE).get("message").getAsString());
+            }
+        }
+
+        // 被断开的玩家重新连接后落到其余可用节点上
+        int playerId = firstPlayerOn(lostAddress);
+        Client reconnected = connect();
+        String loginNode = reconnected.login(playerId);
+        assertNotEquals(lostAddress, loginNode);
+        String fallback = ring.route(playerId, address -> !address.equals(lostAddress));
+        assertEquals(fallback, reconnected.request(WHERE).get("message").getAsString());
+    }
+
+    private int firstPlayerOn(String address) {
+        for (int playerId = FIRST_PLAYER; playerId < FIRST_PLAYER + PLAYERS; playerId++) {
+            if (ring.route(playerId).equals(address)) {
+                return playerId;
+            }
+        }
+        throw new AssertionError("没有玩家属于节点 " + address);
+    }
+
+    private Client connect() throws InterruptedException {
+        Client client = new Client();
+        client.channel = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(
+                                new GameMessageDecoder(gatewayProperties.getMaxFrameLength()),
+                                new GameMessageEncoder(),
+                                new SimpleChannelInboundHandler<GameMessage>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, GameMessage message) {
+                                        client.replies.add(new Reply(message.getMessageId(), message.getSequence(),
+                                                message.getPayloadAsString()));
+                                    }
+                                });
+                    }
+                })
+                .connect("127.0.0.1", gatewayPort).sync().channel();
+        clients.add(client);
+        return client;
+    }
+
+    private static String nodeOf(Channel channel) {
+        return "127.0.0.1:" + ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, message);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 一个游戏节点：独立的事件循环、分发器和链路监听端，链路端口由系统分配
+     */
+    private static final class Node {
+        private final NioEventLoopGroup group = new NioEventLoopGroup(2);
+        private final GameMessageDispatcher dispatcher = new GameMessageDispatcher();
+        private final IdleSessionReaper idleSessionReaper = new IdleSessionReaper();
+        private final NodeLinkServer server = new NodeLinkServer();
+        private boolean stopped;
+
+        Node() throws InterruptedException {
+            GameServerProperties properties = new GameServerProperties();
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            IdempotencyCache idempotencyCache = new IdempotencyCache();
+            ReflectionTestUtils.setField(idempotencyCache, "properties", properties);
+            ReflectionTestUtils.setField(idempotencyCache, "meterRegistry", meterRegistry);
+            idempotencyCache.init();
+            ReflectionTestUtils.setField(dispatcher, "properties", properties);
+            ReflectionTestUtils.setField(dispatcher, "meterRegistry", meterRegistry);
+            ReflectionTestUtils.setField(dispatcher, "idempotencyCache", idempotencyCache);
+            dispatcher.init();
+            ReflectionTestUtils.setField(idleSessionReaper, "properties", properties);
+            ReflectionTestUtils.setField(idleSessionReaper, "meterRegistry", meterRegistry);
+            idleSessionReaper.init();
+            SessionHandoffService handoffService = new SessionHandoffService();
+            ReflectionTestUtils.setField(handoffService, "playerDataService", new InMemoryPlayerData());
+            ReflectionTestUtils.setField(handoffService, "dispatcher", dispatcher);
+            ReflectionTestUtils.setField(handoffService, "meterRegistry", meterRegistry);
+            handoffService.init();
+            ReflectionTestUtils.setField(server, "properties", properties);
+            ReflectionTestUtils.setField(server, "dispatcher", dispatcher);
+            ReflectionTestUtils.setField(server, "idleSessionReaper", idleSessionReaper);
+            ReflectionTestUtils.setField(server, "handoffService", handoffService);
+            ReflectionTestUtils.setField(server, "meterRegistry", meterRegistry);
+            server.start(group, group, NioServerSocketChannel.class);
+        }
+
+        String address() {
+            return "127.0.0.1:" + server.boundLinkPort();
+        }
+
+        /**
+         * 直接关闭事件循环，链路随之断开，不经过排空
+         */
+        void stop() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            dispatcher.shutdown();
+            idleSessionReaper.shutdown();
+        }
+    }
+
+    private static final class Client {
+        private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        private Channel channel;
+        private int sequence;
+
+        int send(int messageId, String payload) {
+            int sent = ++sequence;
+            channel.writeAndFlush(new GameMessage(messageId, sent, Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8)));
+            return sent;
+        }
+
+        Reply take() throws InterruptedException {
+            Reply reply = replies.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(reply, "等待响应超时");
+            return reply;
+        }
+
+        /**
+         * @return 处理登录的节点
+         */
+        String login(int playerId) throws InterruptedException {
+            JsonObject reply = request(LOGIN, String.valueOf(playerId));
+            assertTrue(reply.get("success").getAsBoolean(), "登录失败: " + reply);
+            return reply.get("message").getAsString();
+        }
+
+        JsonObject request(int messageId) throws InterruptedException {
+            return request(messageId, "");
+        }
+
+        JsonObject request(int messageId, String payload) throws InterruptedException {
+            int sent = send(messageId, payload);
+            Reply reply = take();
+            assertEquals(sent, reply.sequence);
+            assertFalse(replies.size() > 0, "收到多余的响应");
+            return reply.json();
+        }
+    }
+
+    private static final class Reply {
+        private final int messageId;
+        private final int sequence;
+        private final String payload;
+
+        Reply(int messageId, int sequence, String payload) {
+            this.messageId = messageId;
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+
+        JsonObject json() {
+            return JsonParser.parseString(payload).getAsJsonObject();
+        }
+
+        @Override
+        public String toString() {
+            return "Reply{messageId=" + messageId + ", sequence=" + sequence + ", payload=" + payload + '}';
+        }
+    }
+
+    /**
+     * 节点交出会话前会写回玩家数据，测试中没有数据库，写回总是成功
+     */
+    private static final class InMemoryPlayerData implements PlayerDataService {
+        @Override
+        public PlayerData load(Player player) {
+            return null;
+        }
+
+        @Override
+        public PlayerData get(Integer playerId) {
+            return null;
+        }
+
+        @Override
+        public <R> R update(Integer playerId, Function<PlayerData, R> change) {
+            return null;
+        }
+
+        @Override
+        public boolean flush(Integer playerId) {
+            return true;
+        }
+
+        @Override
+        public int grantItems(Collection<Integer> playerIds, IntIntHashMap amounts) {
+            return 0;
+        }
+    }
+}
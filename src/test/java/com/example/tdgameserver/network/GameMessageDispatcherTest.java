@@ -0,0 +1,173 @@
+package com.example.tdgameserver.network;
+
+import com.example.tdgameserver.session.IdempotencyCache;
+import com.example.tdgameserver.session.PlayerSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分发器的测试：响应带回的请求序号，被拒绝的请求回复繁忙，停用会话消息队列(重复登录踢掉旧会话)
+ */
+class GameMessageDispatcherTest {
+    private GameMessageDispatcher dispatcher;
+    private PlayerSession session;
+    private final List<Integer> handled = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        GameServerProperties properties = new GameServerProperties();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IdempotencyCache idempotencyCache = new IdempotencyCache();
+        ReflectionTestUtils.setField(idempotencyCache, "properties", properties);
+        ReflectionTestUtils.setField(idempotencyCache, "meterRegistry", meterRegistry);
+        idempotencyCache.init();
+        dispatcher = new GameMessageDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "properties", properties);
+        ReflectionTestUtils.setField(dispatcher, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(dispatcher, "idempotencyCache", idempotencyCache);
+        dispatcher.init();
+        session = new PlayerSession(new EmbeddedChannel(), properties.getOutbound());
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void onlyRepliesOnTheDispatchThreadCarryTheRequestSequence() throws Exception {
+        PlayerSession other = new PlayerSession(new EmbeddedChannel(), new GameServerProperties().getOutbound());
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(session, message(7), (s, m) -> {
+            s.sendResponse(MessageId.RESP_GET_PLAYER_INFO.getId(), Response.success("reply"));
+            // 处理器给其他玩家发的消息，以及同一时刻其他线程给本玩家发的消息，都是推送
+            other.sendResponse(MessageId.RESP_GET_PLAYER_INFO.getId(), Response.success("push"));
+            Thread pusher = new Thread(() -> s.sendResponse(MessageId.RESP_GET_PLAYER_INFO.getId(), Response.success("push")));
+            pusher.start();
+            try {
+                pusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(7, 0), sequences(session));
+        assertEquals(List.of(0), sequences(other));
+        assertEquals(0, session.getRequestSequence());
+    }
+
+    @Test
+    void retireWaitsForRunningHandlerAndDiscardsQueuedMessages() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(session, message(1), (s, m) -> {
+            started.countDown();
+            await(release);
+            handled.add(m.getSequence());
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        GameMessage queued = message(2);
+        dispatcher.dispatch(session, queued, (s, m) -> handled.add(m.getSequence()));
+
+        CompletableFuture<Void> retired = dispatcher.retire(session);
+        assertFalse(retired.isDone(), "处理器还在执行");
+        GameMessage late = message(3);
+        assertFalse(dispatcher.dispatch(session, late, (s, m) -> handled.add(m.getSequence())));
+        assertEquals(0, late.refCnt());
+
+        release.countDown();
+        retired.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(1), handled);
+        assertEquals(0, queued.refCnt());
+        assertEquals(0, session.getDispatchLane().size());
+    }
+
+    @Test
+    void retireCompletesOnSuspendedLaneAndResumeDoesNotRunQueuedMessages() throws Exception {
+        CompletableFuture<Runnable> resume = new CompletableFuture<>();
+        dispatcher.dispatch(session, message(1), (s, m) -> {
+            handled.add(m.getSequence());
+            resume.complete(dispatcher.suspend(s));
+        });
+        GameMessage queued = message(2);
+        dispatcher.dispatch(session, queued, (s, m) -> handled.add(m.getSequence()));
+        Runnable resumeLane = resume.get(5, TimeUnit.SECONDS);
+
+        dispatcher.retire(session).get(5, TimeUnit.SECONDS);
+        resumeLane.run();
+        // 恢复后如果重新调度了，会在这段时间内处理掉积压的消息
+        Thread.sleep(100);
+        assertEquals(List.of(1), handled);
+        assertEquals(0, queued.refCnt());
+    }
+
+    @Test
+    void rejectedAndDiscardedRequestsAreAnsweredBusy() throws Exception {
+        ReflectionTestUtils.setField(dispatcher, "maxPendingPerPlayer", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatchRequest(session, message(1), (s, m) -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.dispatchRequest(session, message(2), (s, m) -> handled.add(m.getSequence())));
+        // 队列已满
+        assertFalse(dispatcher.dispatchRequest(session, message(3), (s, m) -> handled.add(m.getSequence())));
+
+        CompletableFuture<Void> retired = dispatcher.retire(session);
+        assertFalse(dispatcher.dispatchRequest(session, message(4), (s, m) -> handled.add(m.getSequence())));
+        release.countDown();
+        retired.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(), handled);
+        List<Integer> busy = new ArrayList<>();
+        session.getOutboundQueue().drainTo((message, priority) -> {
+            assertEquals(MessageId.ERROR_MSG.getId(), message.getMessageId());
+            busy.add(message.getSequence());
+            message.release();
+        });
+        assertEquals(List.of(2, 3, 4), busy.stream().sorted().toList());
+        AdaptiveConcurrencyLimiter limiter = (AdaptiveConcurrencyLimiter) ReflectionTestUtils.getField(dispatcher, "limiter");
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static List<Integer> sequences(PlayerSession session) {
+        List<Integer> sequences = new ArrayList<>();
+        session.getOutboundQueue().drainTo((message, priority) -> {
+            sequences.add(message.getSequence());
+            message.release();
+        });
+        return sequences;
+    }
+
+    private static GameMessage message(int sequence) {
+        return new GameMessage(MessageId.REQ_GET_PLAYER_INFO.getId(), sequence, Unpooled.buffer().writeInt(sequence));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.tdgameserver.protocol;
+
+import com.example.tdgameserver.proto.LoginReq;
+import com.example.tdgameserver.proto.ResumeReq;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 按首字节识别登录消息的编码格式
+ */
+class PayloadFormatTest {
+
+    @Test
+    void protobufLoginStartingWithWhitespaceByteIsProtobuf() {
+        // 字段1为字符串时标签是0x0A('\n')
+        byte[] login = LoginReq.newBuilder().setUsername("player").setPassword("secret").build().toByteArray();
+        assertEquals('\n', login[0]);
+        assertEquals(PayloadFormat.PROTOBUF, PayloadFormat.detect(Unpooled.wrappedBuffer(login)));
+
+        // 字段1为整数时标签是0x08，字段2为整数时是0x10；只设置字段2的令牌为空的恢复请求
+        byte[] resume = ResumeReq.newBuilder().setReceived(9).build().toByteArray();
+        assertEquals(PayloadFormat.PROTOBUF, PayloadFormat.detect(Unpooled.wrappedBuffer(resume)));
+    }
+
+    @Test
+    void jsonObjectIsJson() {
+        byte[] json = "{\"username\":\"player\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals(PayloadFormat.JSON, PayloadFormat.detect(Unpooled.wrappedBuffer(json)));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.detect(Unpooled.EMPTY_BUFFER));
+    }
+
+    @Test
+    void detectRespectsReaderIndex() {
+        byte[] framed = "\n{}".getBytes(StandardCharsets.UTF_8);
+        assertEquals(PayloadFormat.PROTOBUF, PayloadFormat.detect(Unpooled.wrappedBuffer(framed)));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.detect(Unpooled.wrappedBuffer(framed).skipBytes(1)));
+    }
+}
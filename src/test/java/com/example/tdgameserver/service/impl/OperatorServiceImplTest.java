@@ -0,0 +1,156 @@
+package com.example.tdgameserver.service.impl;
+
+import com.example.tdgameserver.config.ConfigService;
+import com.example.tdgameserver.entity.backpack.PlayerItem;
+import com.example.tdgameserver.entity.operator.Operator;
+import com.example.tdgameserver.entity.operator.OperatorLevel;
+import com.example.tdgameserver.entity.operator.OperatorLevelUpResult;
+import com.example.tdgameserver.entity.operator.PlayerOperator;
+import com.example.tdgameserver.entity.player.Player;
+import com.example.tdgameserver.entity.player.PlayerData;
+import com.example.tdgameserver.requestEntity.ItemRequest;
+import com.example.tdgameserver.requestEntity.OperatorRequest;
+import com.example.tdgameserver.service.PlayerDataService;
+import com.example.tdgameserver.util.IntIntHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用经验道具升级干员：道具全部足够才扣除
+ */
+class OperatorServiceImplTest {
+    private static final int PLAYER_ID = 1;
+    private static final int OPERATOR_ID = 1001;
+    private static final int EXP_CARD = 1001;
+    private static final int ADVANCED_EXP_CARD = 1002;
+
+    private PlayerData data;
+    private OperatorServiceImpl operatorService;
+
+    @BeforeEach
+    void setUp() {
+        data = new PlayerData(new Player(PLAYER_ID, "player", null),
+                List.of(new PlayerOperator(PLAYER_ID, OPERATOR_ID)),
+                List.of(playerItem(EXP_CARD, 3), playerItem(ADVANCED_EXP_CARD, 1)),
+                List.of());
+        PlayerDataService playerDataService = new SinglePlayerData(data);
+        BackpackServiceImpl backpackService = new BackpackServiceImpl();
+        ReflectionTestUtils.setField(backpackService, "playerDataService", playerDataService);
+        operatorService = new OperatorServiceImpl();
+        ReflectionTestUtils.setField(operatorService, "playerDataService", playerDataService);
+        ReflectionTestUtils.setField(operatorService, "backpackService", backpackService);
+        ReflectionTestUtils.setField(operatorService, "configService", new LevelConfig());
+    }
+
+    @Test
+    void partialShortfallConsumesNothing() {
+        // 经验卡足够，高级经验卡只有1张
+        OperatorLevelUpResult result = operatorService.levelUpOperatorWithExpItems(PLAYER_ID,
+                request(itemRequest(EXP_CARD, 2), itemRequest(ADVANCED_EXP_CARD, 2)));
+
+        assertFalse(result.isSuccess());
+        assertEquals(3, data.getItemQuantity(EXP_CARD));
+        assertEquals(1, data.getItemQuantity(ADVANCED_EXP_CARD));
+        PlayerOperator operator = data.getOperator(OPERATOR_ID);
+        assertEquals(1, operator.getLevel());
+        assertEquals(0, operator.getCurrentExp());
+        assertFalse(data.isDirty());
+    }
+
+    @Test
+    void consumesItemsAndLevelsUpByConfig() {
+        // 3张经验卡共600经验：升到2级用100，升到3级用200，剩300不够升到4级
+        OperatorLevelUpResult result = operatorService.levelUpOperatorWithExpItems(PLAYER_ID,
+                request(itemRequest(EXP_CARD, 3)));
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, result.getOldLevel());
+        assertEquals(3, result.getNewLevel());
+        assertEquals(300, result.getCurrentExp());
+        assertEquals(600, result.getTotalExpUsed());
+        assertEquals(0, data.getItemQuantity(EXP_CARD));
+        assertEquals(3, data.getOperator(OPERATOR_ID).getLevel());
+    }
+
+    private static OperatorRequest request(ItemRequest... items) {
+        OperatorRequest request = new OperatorRequest();
+        request.setOperatorId(OPERATOR_ID);
+        request.setItemList(List.of(items));
+        return request;
+    }
+
+    private static ItemRequest itemRequest(int itemId, int quantity) {
+        ItemRequest item = new ItemRequest();
+        item.setItemId(itemId);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    private static PlayerItem playerItem(int itemId, int quantity) {
+        PlayerItem item = new PlayerItem();
+        item.setPlayerId(PLAYER_ID);
+        item.setItemId(itemId);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    private static final class LevelConfig extends ConfigService {
+        @Override
+        public <T> List<T> getConfigList(String tableName, Class<T> clazz) {
+            return List.of(clazz.cast(new OperatorLevel(6, 0, 2, 100)),
+                    clazz.cast(new OperatorLevel(6, 0, 3, 200)),
+                    clazz.cast(new OperatorLevel(6, 0, 4, 350)));
+        }
+
+        @Override
+        public <T> T getConfig(String tableName, int id, Class<T> clazz) {
+            Operator operator = new Operator();
+            operator.setId(id);
+            operator.setRarity(6);
+            return clazz.cast(operator);
+        }
+    }
+
+    private static final class SinglePlayerData implements PlayerDataService {
+        private final PlayerData data;
+
+        SinglePlayerData(PlayerData data) {
+            this.data = data;
+        }
+
+        @Override
+        public PlayerData load(Player player) {
+            return data;
+        }
+
+        @Override
+        public PlayerData get(Integer playerId) {
+            return data.getPlayerId() == playerId ? data : null;
+        }
+
+        @Override
+        public <R> R update(Integer playerId, Function<PlayerData, R> change) {
+            PlayerData current = get(playerId);
+            return current != null ? change.apply(current) : null;
+        }
+
+        @Override
+        public boolean flush(Integer playerId) {
+            return true;
+        }
+
+        @Override
+        public int grantItems(Collection<Integer> playerIds, IntIntHashMap amounts) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.tdgameserver.session;
+
+import com.example.tdgameserver.network.GameMessage;
+import com.example.tdgameserver.network.GameServerProperties;
+import com.example.tdgameserver.network.MessageId;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 下行积压超过软上限时丢弃大体积消息
+ */
+class OutboundQueueTest {
+
+    @Test
+    void droppedBulkReplyIsReplacedWithBusyReply() {
+        GameServerProperties.Outbound config = new GameServerProperties().getOutbound();
+        config.setSoftLimitBytes(64);
+        PlayerSession session = new PlayerSession(new EmbeddedChannel(), config);
+        // 先积压一条普通响应，超过软上限
+        session.sendMessage(new GameMessage(MessageId.RESP_GET_PLAYER_INFO.getId(), 1, Unpooled.wrappedBuffer(new byte[128])));
+
+        GameMessage reply = new GameMessage(MessageId.RESP_GET_BACKPACK.getId(), 2, Unpooled.wrappedBuffer(new byte[128]));
+        session.sendMessage(reply);
+        GameMessage push = new GameMessage(MessageId.RESP_GET_ALL_PLAYERS.getId(), 0, Unpooled.wrappedBuffer(new byte[128]));
+        session.sendMessage(push);
+
+        assertEquals(0, reply.refCnt());
+        assertEquals(0, push.refCnt());
+        List<String> queued = new ArrayList<>();
+        session.getOutboundQueue().drainTo((message, priority) -> {
+            queued.add(message.getMessageId() + "/" + message.getSequence() + "/" + priority);
+            message.release();
+        });
+        // 响应换成了带同样序号的繁忙响应，推送直接丢弃
+        assertEquals(List.of(MessageId.RESP_GET_PLAYER_INFO.getId() + "/1/NORMAL",
+                MessageId.ERROR_MSG.getId() + "/2/NORMAL"), queued);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.tdgameserver.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 背包道具数量查询的基准测试：原先按"玩家Id:道具Id"字符串为键的全服ConcurrentHashMap，
+ * 对比每个玩家一个IntIntHashMap；以及从全服缓存中清除一个玩家和直接丢弃其IntIntHashMap的耗时。
+ * 不随单元测试运行，先编译测试代码再用JMH启动：
+ * <pre>
+ * mvn -B test-compile dependency:build-classpath -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main IntIntHashMapBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntIntHashMapBenchmark {
+    private static final int FIRST_ITEM_ID = 1000;
+
+    @State(Scope.Thread)
+    public static class Inventories {
+        @Param({"2000"})
+        int players;
+
+        @Param({"60"})
+        int itemsPerPlayer;
+
+        Map<String, Integer> stringKeyed;
+        IntIntHashMap[] inventories;
+        int cursor;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            stringKeyed = new ConcurrentHashMap<>();
+            inventories = new IntIntHashMap[players];
+            for (int player = 0; player < players; player++) {
+                inventories[player] = new IntIntHashMap();
+                for (int i = 0; i < itemsPerPlayer; i++) {
+                    stringKeyed.put(player + ":" + (FIRST_ITEM_ID + i), i + 1);
+                    inventories[player].put(FIRST_ITEM_ID + i, i + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 每次清除前补回被清除的玩家，补回的耗时不计入
+     */
+    @State(Scope.Thread)
+    public static class EvictedInventories extends Inventories {
+        int evicted = -1;
+
+        @Setup(Level.Invocation)
+        public void refill() {
+            if (evicted < 0) {
+                return;
+            }
+            inventories[evicted] = new IntIntHashMap();
+            for (int i = 0; i < itemsPerPlayer; i++) {
+                stringKeyed.put(evicted + ":" + (FIRST_ITEM_ID + i), i + 1);
+                inventories[evicted].put(FIRST_ITEM_ID + i, i + 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public int lookupStringKeyed(Inventories state) {
+        int i = state.cursor++;
+        Integer quantity = state.stringKeyed.get((i % state.players) + ":"
+                + (FIRST_ITEM_ID + (i * 7) % state.itemsPerPlayer));
+        return quantity != null ? quantity : 0;
+    }
+
+    @Benchmark
+    public int lookupIntInt(Inventories state) {
+        int i = state.cursor++;
+        return state.inventories[i % state.players].get(FIRST_ITEM_ID + (i * 7) % state.itemsPerPlayer, 0);
+    }
+
+    /**
+     * 清除一个玩家需要扫描全服的键
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int evictStringKeyed(EvictedInventories state) {
+        state.evicted = state.cursor++ % state.players;
+        String prefix = state.evicted + ":";
+        state.stringKeyed.keySet().removeIf(key -> key.startsWith(prefix));
+        return state.stringKeyed.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public IntIntHashMap evictIntInt(EvictedInventories state) {
+        state.evicted = state.cursor++ % state.players;
+        IntIntHashMap evicted = state.inventories[state.evicted];
+        state.inventories[state.evicted] = null;
+        return evicted;
+    }
+}
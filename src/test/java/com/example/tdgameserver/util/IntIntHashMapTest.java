@@ -0,0 +1,158 @@
+package com.example.tdgameserver.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * IntIntHashMap与HashMap的差分测试：同一串随机操作分别作用在两者上，每一步比较结果
+ */
+class IntIntHashMapTest {
+    private static final int MISSING = -1;
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        Random random = new Random(20240601);
+        for (int round = 0; round < 200; round++) {
+            IntIntHashMap map = new IntIntHashMap(random.nextInt(8));
+            Map<Integer, Integer> expected = new HashMap<>();
+            // 键的范围小、包含0和负数，删除和再插入频繁，探测链会反复出现回移
+            int keyRange = 4 + random.nextInt(300);
+            for (int i = 0; i < 5000; i++) {
+                int key = random.nextInt(keyRange) - 5;
+                switch (random.nextInt(4)) {
+                    case 0, 1 -> {
+                        int value = random.nextInt(1000);
+                        map.put(key, value);
+                        expected.put(key, value);
+                    }
+                    case 2 -> assertEquals(expected.remove(key) != null, map.remove(key), "remove " + key);
+                    default -> {
+                        assertEquals(expected.getOrDefault(key, MISSING), map.get(key, MISSING), "get " + key);
+                        assertEquals(expected.containsKey(key), map.containsKey(key), "containsKey " + key);
+                    }
+                }
+                assertEquals(expected.size(), map.size());
+            }
+            assertSameEntries(expected, map);
+        }
+    }
+
+    @Test
+    void removeShiftsBackProbeChainAcrossTableEnd() {
+        // 容量16，不超过8个元素时不扩容
+        IntIntHashMap map = new IntIntHashMap(8);
+        List<Integer> atEnd = keysWithHome(15, 16, 3);
+        int atStart = keysWithHome(0, 16, 1).get(0);
+        int lateAtEnd = keysWithHome(15, 16, 4).get(3);
+        // 探测链从最后一个槽位绕回开头：atEnd占15、0、1，atStart被挤到2，lateAtEnd到3
+        List<Integer> inserted = new ArrayList<>(atEnd);
+        inserted.add(atStart);
+        inserted.add(lateAtEnd);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int key : inserted) {
+            map.put(key, key * 10);
+            expected.put(key, key * 10);
+        }
+
+        // 依次删除链头、链中和链尾，其余元素都必须还能找到
+        for (int key : List.of(atEnd.get(0), atStart, atEnd.get(2), lateAtEnd, atEnd.get(1))) {
+            assertTrue(map.remove(key));
+            assertFalse(map.remove(key));
+            expected.remove(key);
+            for (int other : inserted) {
+                assertEquals(expected.getOrDefault(other, MISSING), map.get(other, MISSING), "get " + other);
+            }
+            assertSameEntries(expected, map);
+        }
+        assertTrue(map.isEmpty());
+
+        // 回移后留下的空位可以正常复用
+        for (int key : inserted) {
+            map.put(key, key);
+        }
+        for (int key : inserted) {
+            assertEquals(key, map.get(key, MISSING));
+        }
+    }
+
+    @Test
+    void zeroKeyIsStoredSeparately() {
+        IntIntHashMap map = new IntIntHashMap();
+        assertFalse(map.containsKey(0));
+        assertEquals(MISSING, map.get(0, MISSING));
+
+        map.put(0, 0);
+        map.put(1, 1);
+        assertTrue(map.containsKey(0));
+        assertEquals(0, map.get(0, MISSING));
+        assertEquals(2, map.size());
+
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertEquals(1, map.size());
+        assertEquals(1, map.get(1, MISSING));
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        IntIntHashMap map = new IntIntHashMap(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 1; i <= 10_000; i++) {
+            // 连续的道具Id
+            map.put(1000 + i, i);
+            expected.put(1000 + i, i);
+        }
+        assertSameEntries(expected, map);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(MISSING, map.get(1001, MISSING));
+    }
+
+    @Test
+    void allMatchStopsAtFirstMismatch() {
+        IntIntHashMap map = new IntIntHashMap();
+        for (int i = 0; i < 10; i++) {
+            map.put(i, i);
+        }
+        assertTrue(map.allMatch((key, value) -> key == value));
+
+        int[] tested = new int[1];
+        map.put(5, -5);
+        assertFalse(map.allMatch((key, value) -> {
+            tested[0]++;
+            return value >= 0;
+        }));
+        assertTrue(tested[0] <= map.size());
+    }
+
+    private static void assertSameEntries(Map<Integer, Integer> expected, IntIntHashMap map) {
+        Map<Integer, Integer> actual = new HashMap<>();
+        map.forEach((key, value) -> assertEquals(null, actual.put(key, value), "duplicate key " + key));
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), map.size());
+    }
+
+    /**
+     * 找出在指定容量下散列到home槽位的前count个非0键，散列方式与IntIntHashMap.slot相同
+     */
+    private static List<Integer> keysWithHome(int home, int capacity, int count) {
+        List<Integer> keys = new ArrayList<>(count);
+        for (int key = 1; keys.size() < count; key++) {
+            int h = key * 0x9E3779B9;
+            if (((h ^ (h >>> 16)) & (capacity - 1)) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}